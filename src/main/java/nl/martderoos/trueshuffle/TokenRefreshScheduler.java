@@ -0,0 +1,267 @@
+package nl.martderoos.trueshuffle;
+
+import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.jobs.TrueShuffleUserResolver;
+import nl.martderoos.trueshuffle.model.ShuffleApi;
+import nl.martderoos.trueshuffle.requests.exceptions.AuthorizationRevokedException;
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe class that refreshes access tokens shortly before they expire, such that requests do not have to be
+ * rejected by Spotify before the token is refreshed. Every refresh is scheduled with some random jitter, so tokens
+ * that were issued at the same time are not all refreshed at the same moment. Refreshes block while Spotify is slow
+ * or rate limits us, so they run on a separate executor rather than on the scheduler, such that a slow refresh of
+ * one user does not delay the refreshes of all other users.
+ */
+class TokenRefreshScheduler {
+    /**
+     * The default time before expiry at which an access token is refreshed.
+     */
+    static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * The default maximum random time by which a refresh is moved forward.
+     */
+    static final long DEFAULT_JITTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * The time after which a failed refresh is attempted again.
+     */
+    static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String CLIENT_KEY = "";
+
+    private static final Logger LOGGER = LogManager.getLogger(TokenRefreshScheduler.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor refreshExecutor;
+    private final TrueShuffleUserResolver resolver;
+    private final long refreshMarginMillis;
+    private final long jitterMillis;
+    private final Random random;
+    private final LongSupplier clock;
+
+    private final Map<String, Registration> scheduledRefreshes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a scheduler with a daemon thread of its own, which is stopped by {@link #shutdown()}.
+     *
+     * @param resolver        the resolver of the users whose access tokens are refreshed.
+     * @param refreshExecutor the executor on which tokens are refreshed (nullable). If null, tokens are refreshed on
+     *                        the thread of the scheduler.
+     */
+    TokenRefreshScheduler(TrueShuffleUserResolver resolver, Executor refreshExecutor) {
+        this(defaultScheduler(), refreshExecutor != null ? refreshExecutor : Runnable::run, resolver, DEFAULT_REFRESH_MARGIN_MILLIS, DEFAULT_JITTER_MILLIS, new Random(), System::currentTimeMillis);
+    }
+
+    /**
+     * Create a scheduler that refreshes tokens on the thread of the provided scheduler.
+     */
+    TokenRefreshScheduler(ScheduledExecutorService scheduler, TrueShuffleUserResolver resolver, long refreshMarginMillis, long jitterMillis, Random random, LongSupplier clock) {
+        this(scheduler, Runnable::run, resolver, refreshMarginMillis, jitterMillis, random, clock);
+    }
+
+    TokenRefreshScheduler(ScheduledExecutorService scheduler, Executor refreshExecutor, TrueShuffleUserResolver resolver, long refreshMarginMillis, long jitterMillis, Random random, LongSupplier clock) {
+        this.scheduler = Objects.requireNonNull(scheduler);
+        this.refreshExecutor = Objects.requireNonNull(refreshExecutor);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.refreshMarginMillis = refreshMarginMillis;
+        this.jitterMillis = jitterMillis;
+        this.random = Objects.requireNonNull(random);
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    /**
+     * Keep refreshing the access token of the user until the user can no longer be resolved, the user's authorization
+     * has been revoked or {@link #cancelUser(String)} is called.
+     *
+     * @param userId the user identifier of the user.
+     */
+    void scheduleUser(String userId) {
+        Objects.requireNonNull(userId);
+        schedule(userId, () -> refreshUser(userId), userExpiresAt(userId));
+    }
+
+    /**
+     * Stop refreshing the access token of the user.
+     *
+     * @param userId the user identifier of the user.
+     */
+    void cancelUser(String userId) {
+        var registration = scheduledRefreshes.remove(userId);
+        if (registration != null)
+            registration.cancel();
+    }
+
+    /**
+     * Keep refreshing the client credentials using the provided refresh function.
+     *
+     * @param refresh   the function that refreshes the client credentials.
+     * @param expiresAt the moment at which the current client credentials expire, in milliseconds since the UNIX
+     *                  epoch.
+     */
+    void scheduleClient(Refresh refresh, long expiresAt) {
+        schedule(CLIENT_KEY, refresh, expiresAt);
+    }
+
+    /**
+     * Stop refreshing all access tokens and shut down the scheduler. Refreshes that are already running are finished,
+     * but not scheduled again.
+     */
+    void shutdown() {
+        for (var key : scheduledRefreshes.keySet()) {
+            var registration = scheduledRefreshes.remove(key);
+            if (registration != null)
+                registration.cancel();
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return true if a refresh is scheduled for the user.
+     */
+    boolean isScheduled(String userId) {
+        return scheduledRefreshes.containsKey(userId);
+    }
+
+    /**
+     * Compute the delay until a token that expires at the provided moment should be refreshed.
+     */
+    long refreshDelayMillis(long expiresAt) {
+        var jitter = jitterMillis <= 0 ? 0 : (long) (random.nextDouble() * jitterMillis);
+        return Math.max(0, expiresAt - refreshMarginMillis - jitter - clock.getAsLong());
+    }
+
+    private long userExpiresAt(String userId) {
+        try {
+            return resolver.resolve(userId).getApi().getAccessTokenExpiresAt();
+        } catch (UserNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private long refreshUser(String userId) throws FatalRequestResponseException {
+        ShuffleApi api;
+        try {
+            api = resolver.resolve(userId).getApi();
+        } catch (UserNotFoundException e) {
+            LOGGER.debug("Stopped refreshing the access token of {} because the user is no longer known", userId);
+            return 0;
+        }
+        // the credentials may have been replaced since this refresh was scheduled
+        if (!isDue(api.getAccessTokenExpiresAt()))
+            return api.getAccessTokenExpiresAt();
+        api.refreshCredentials();
+        return api.getAccessTokenExpiresAt();
+    }
+
+    private boolean isDue(long expiresAt) {
+        return clock.getAsLong() >= expiresAt - refreshMarginMillis - jitterMillis;
+    }
+
+    private void schedule(String key, Refresh refresh, long expiresAt) {
+        var registration = new Registration(key, refresh);
+        var previous = scheduledRefreshes.put(key, registration);
+        if (previous != null)
+            previous.cancel();
+        if (expiresAt <= 0) {
+            stop(registration);
+            return;
+        }
+        schedule(registration, refreshDelayMillis(expiresAt));
+    }
+
+    private void schedule(Registration registration, long delayMillis) {
+        try {
+            registration.future = scheduler.schedule(() -> dispatch(registration), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            stop(registration);
+        }
+    }
+
+    private void dispatch(Registration registration) {
+        if (registration.cancelled)
+            return;
+        try {
+            refreshExecutor.execute(() -> run(registration));
+        } catch (RejectedExecutionException e) {
+            stop(registration);
+        }
+    }
+
+    private void run(Registration registration) {
+        if (registration.cancelled)
+            return;
+        try {
+            var expiresAt = registration.refresh.refresh();
+            if (expiresAt <= 0) {
+                stop(registration);
+                return;
+            }
+            // a token that is still due was not refreshed (for example, because it was refreshed very recently)
+            var delayMillis = refreshDelayMillis(expiresAt);
+            schedule(registration, delayMillis > 0 ? delayMillis : RETRY_DELAY_MILLIS);
+        } catch (AuthorizationRevokedException e) {
+            LOGGER.info("Stopped refreshing an access token because authorization was revoked: {}", e.getMessage());
+            stop(registration);
+        } catch (FatalRequestResponseException | RuntimeException e) {
+            LOGGER.warn("Could not refresh an access token ahead of time, trying again later: {}", e.getMessage());
+            schedule(registration, RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private void stop(Registration registration) {
+        scheduledRefreshes.remove(registration.key, registration);
+    }
+
+    private static ScheduledExecutorService defaultScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "true-shuffle-token-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class Registration {
+        private final String key;
+        private final Refresh refresh;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean cancelled = false;
+
+        private Registration(String key, Refresh refresh) {
+            this.key = key;
+            this.refresh = refresh;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            var current = future;
+            if (current != null)
+                current.cancel(false);
+        }
+    }
+
+    /**
+     * Refreshes a token.
+     */
+    @FunctionalInterface
+    interface Refresh {
+        /**
+         * @return the moment at which the refreshed token expires in milliseconds since the UNIX epoch, or at most 0
+         * if the token should no longer be refreshed.
+         * @throws FatalRequestResponseException when the token could not be refreshed.
+         */
+        long refresh() throws FatalRequestResponseException;
+    }
+}
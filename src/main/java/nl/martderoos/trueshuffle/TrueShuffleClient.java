@@ -3,69 +3,203 @@ package nl.martderoos.trueshuffle;
 import nl.martderoos.trueshuffle.exceptions.AuthorizationException;
 import nl.martderoos.trueshuffle.exceptions.InitializationException;
 import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.jobs.TrueShuffleJobEngine;
 import nl.martderoos.trueshuffle.jobs.TrueShuffleJobStatus;
 import nl.martderoos.trueshuffle.jobs.TrueShuffleLikedJob;
 import nl.martderoos.trueshuffle.jobs.TrueShufflePlaylistJob;
 import nl.martderoos.trueshuffle.jobs.TrueShuffleUserResolver;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
+import nl.martderoos.trueshuffle.model.PlaylistTrackCache;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
+import nl.martderoos.trueshuffle.requests.RateLimiter;
 import nl.martderoos.trueshuffle.requests.RequestHandler;
+import nl.martderoos.trueshuffle.requests.RequestMetrics;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.SpotifyHttpManager;
 import se.michaelthelin.spotify.enums.AuthorizationScope;
 import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
 import se.michaelthelin.spotify.model_objects.specification.User;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Thread-safe class for managing TrueShuffle users. Additionally, exposes methods for shuffling a user's playlists.
  */
 public class TrueShuffleClient {
+    /**
+     * The number of threads of the executor that a client creates for its background work when none is provided.
+     */
+    public static final int BACKGROUND_THREADS = 4;
+    private static final Logger LOGGER = LogManager.getLogger(TrueShuffleClient.class);
     private final URI redirectUri;
     private final String cid;
     private final String secret;
     private final SpotifyApi client;
+    private final Executor pagingExecutor;
+    private final RateLimiter rateLimiter;
+    private final Executor requestExecutor;
+    private final TrueShuffleJobEngine jobEngine;
+    private final Executor backgroundExecutor;
+    private final ExecutorService ownedBackgroundExecutor;
+    private final RequestMetrics requestMetrics = new RequestMetrics();
+    private final PlaylistTrackCache trackCache = new PlaylistTrackCache();
+    // held while the client is initialized and while the track cache is restored or persisted
+    private final ReentrantLock lock = new ReentrantLock();
+    private Path trackCacheFile;
+    private boolean trackCacheRestored = false;
     private volatile boolean initialized = false;
 
-    private final RequestHandler handler = new RequestHandler(null);
+    private final RequestHandler handler;
     private final TrueShuffleUserResolver resolver = this::getAuthorizedUser;
+    private final TokenRefreshScheduler tokenRefreshScheduler;
 
     private final Map<String, TrueShuffleUser> authorizedUsersMap = Collections.synchronizedMap(new HashMap<>());
 
     /**
      * Creates a new client from provided client-id, secret and redirect uri (callback). Note that this client must
-     * still be initialized using {@link #initialize()} before it can be used.
+     * still be initialized using {@link #initialize()} before it can be used. Use
+     * {@link #builder(String, String, String)} to configure the optional collaborators of the client.
      *
      * @param cid         The client-id to use.
      * @param secret      The secret to use.
      * @param redirectUri The redirect uri (callback) to use for authorization.
      */
     public TrueShuffleClient(String cid, String secret, String redirectUri) {
-        this.cid = Objects.requireNonNull(cid);
-        this.secret = Objects.requireNonNull(secret);
-        this.redirectUri = SpotifyHttpManager.makeUri(Objects.requireNonNull(redirectUri));
+        this(builder(cid, secret, redirectUri));
+    }
+
+    private TrueShuffleClient(Builder builder) {
+        this.cid = Objects.requireNonNull(builder.cid);
+        this.secret = Objects.requireNonNull(builder.secret);
+        this.redirectUri = SpotifyHttpManager.makeUri(Objects.requireNonNull(builder.redirectUri));
         client = SpotifyApi.builder()
                 .setClientId(cid)
                 .setClientSecret(secret)
                 .setRedirectUri(this.redirectUri)
                 .build();
+        this.pagingExecutor = builder.pagingExecutor;
+        this.rateLimiter = builder.rateLimiter;
+        this.requestExecutor = builder.requestExecutor;
+        this.jobEngine = builder.jobEngine != null ? builder.jobEngine : new TrueShuffleJobEngine();
+        if (builder.backgroundExecutorSet) {
+            this.backgroundExecutor = builder.backgroundExecutor;
+            this.ownedBackgroundExecutor = null;
+        } else {
+            this.ownedBackgroundExecutor = newBackgroundExecutor();
+            this.backgroundExecutor = ownedBackgroundExecutor;
+        }
+        this.tokenRefreshScheduler = new TokenRefreshScheduler(resolver, backgroundExecutor);
+        this.handler = RequestHandler.builder()
+                .setRateLimiter(rateLimiter)
+                .setListener(requestMetrics)
+                .setRequestExecutor(requestExecutor)
+                .build();
+    }
+
+    /**
+     * @param cid         The client-id to use.
+     * @param secret      The secret to use.
+     * @param redirectUri The redirect uri (callback) to use for authorization.
+     * @return a builder for a client with the default collaborators, never null.
+     */
+    public static Builder builder(String cid, String secret, String redirectUri) {
+        return new Builder(cid, secret, redirectUri);
     }
 
     /**
      * Attempts to initialize the client by verifying the client id and secret with Spotify.
      */
-    public synchronized void initialize() throws InitializationException {
-        if (initialized)
-            return;
+    public void initialize() throws InitializationException {
+        lock.lock();
         try {
-            refreshClientCredentials();
+            if (initialized)
+                return;
+            restoreTrackCache();
+            var expiresAt = refreshClientCredentials();
+            tokenRefreshScheduler.scheduleClient(this::refreshClientCredentials, expiresAt);
             initialized = true;
         } catch (FatalRequestResponseException e) {
             throw new InitializationException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the file that the shared cache of playlist tracks is persisted to, such that a restart does not retrieve the
+     * tracks of every playlist again. The cache is restored from this file by {@link #initialize()} and written to it
+     * by {@link #persistTrackCache()}, for example before the client is taken offline. Must be set before the client is
+     * initialized to be restored.
+     *
+     * @param file the file to persist the cache to (nullable). If null, the cache is not persisted.
+     */
+    public void setTrackCacheFile(Path file) {
+        lock.lock();
+        try {
+            this.trackCacheFile = file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the shared cache of playlist tracks to the file set with {@link #setTrackCacheFile(Path)}, if any.
+     *
+     * @throws IOException when the cache could not be written.
+     */
+    public void persistTrackCache() throws IOException {
+        lock.lock();
+        try {
+            if (trackCacheFile != null)
+                trackCache.writeTo(trackCacheFile);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the background work of this client, such as the reloading of expired data and the refreshing of access
+     * tokens ahead of their expiry. Background threads created by this client are stopped, executors provided to this
+     * client are left running. Users of this client keep working, but expired data is reloaded by the reader that
+     * notices the expiry and access tokens are refreshed once Spotify rejects them from then on.
+     * <br><br>
+     * If a file was set with {@link #setTrackCacheFile(Path)}, the shared cache of playlist tracks is persisted to it,
+     * see {@link #persistTrackCache()}. A cache that cannot be written is logged and otherwise ignored.
+     */
+    public void shutdown() {
+        tokenRefreshScheduler.shutdown();
+        if (ownedBackgroundExecutor != null)
+            ownedBackgroundExecutor.shutdown();
+        try {
+            persistTrackCache();
+        } catch (IOException e) {
+            LOGGER.warn("Could not persist the track cache to {}", trackCacheFile, e);
+        }
+    }
+
+    private void restoreTrackCache() {
+        if (trackCacheRestored || trackCacheFile == null || !Files.exists(trackCacheFile))
+            return;
+        try {
+            trackCache.readFrom(trackCacheFile);
+        } catch (IOException e) {
+            // an unreadable cache is merely a cold cache, it is replaced once the cache is persisted
+            LOGGER.warn("Could not restore the track cache from {}", trackCacheFile, e);
         }
+        trackCacheRestored = true;
     }
 
     /**
@@ -96,7 +230,7 @@ public class TrueShuffleClient {
 
         try {
             var user = getAuthorizedUser(userId);
-            user.assignCredentials(credentials);
+            assignCredentials(user, credentials);
             return user;
         } catch (UserNotFoundException e) {
             // ok
@@ -153,31 +287,64 @@ public class TrueShuffleClient {
         }
     }
 
-    private synchronized TrueShuffleUser addOrReuseAuthorizedUser(SpotifyApi api, TrueShuffleUserCredentials credentials, User userData) {
+    private TrueShuffleUser addOrReuseAuthorizedUser(SpotifyApi api, TrueShuffleUserCredentials credentials, User userData) {
         verifyInit();
+        return registerAuthorizedUser(api, credentials, userData);
+    }
+
+    /**
+     * Add an authorized user whose credentials have been validated, or assign the credentials to the user if it is
+     * already known. Either way, the access token of the user is refreshed ahead of the expiry of the credentials.
+     */
+    synchronized TrueShuffleUser registerAuthorizedUser(SpotifyApi api, TrueShuffleUserCredentials credentials, User userData) {
         try {
             // if user already exists, let's reuse it
             // update credentials (actually, the current credentials used by the api would still be valid until expired)
             // however, it is possible that we get a new refresh token, which in turn invalidates the current refresh token
             var authorizedUser = getAuthorizedUser(userData.getId());
-            authorizedUser.assignCredentials(credentials);
+            assignCredentials(authorizedUser, credentials);
             return authorizedUser;
         } catch (UserNotFoundException e) {
             // ok
         }
 
         // new user
-        var shuffleApi = new ShuffleApi(api, userData);
+        var shuffleApi = ShuffleApi.builder(api, userData)
+                .setPagingExecutor(pagingExecutor)
+                .setRateLimiter(rateLimiter)
+                .setRequestListener(requestMetrics)
+                .setTrackCache(trackCache)
+                .setBackgroundExecutor(backgroundExecutor)
+                .setRequestExecutor(requestExecutor)
+                .build();
         var trueShuffleUser = new TrueShuffleUser(userData, shuffleApi);
         authorizedUsersMap.put(trueShuffleUser.getUserId(), trueShuffleUser);
+        assignCredentials(trueShuffleUser, credentials);
         return trueShuffleUser;
     }
 
+    /**
+     * Assign the credentials to the user and schedule the refresh of its access token by their expiry, which replaces
+     * any refresh that was scheduled by the expiry of the previous credentials.
+     */
+    private void assignCredentials(TrueShuffleUser user, TrueShuffleUserCredentials credentials) {
+        user.assignCredentials(credentials);
+        tokenRefreshScheduler.scheduleUser(user.getUserId());
+    }
+
+    /**
+     * @return true if the access token of the user is refreshed ahead of its expiry.
+     */
+    boolean isTokenRefreshScheduled(String userId) {
+        return tokenRefreshScheduler.isScheduled(userId);
+    }
+
     /**
      * Removes an authorized user from the set of authorized users.
      */
     public void removeAuthorizedUser(String userId) {
         authorizedUsersMap.remove(userId);
+        tokenRefreshScheduler.cancelUser(userId);
     }
 
     /**
@@ -215,10 +382,43 @@ public class TrueShuffleClient {
      * @throws IllegalStateException when the client has not been initialized yet.
      */
     public TrueShuffleJobStatus shuffleLikedSongs(String userId, Executor executor) throws UserNotFoundException {
+        return shuffleLikedSongs(userId, EShuffleMode.REORDER, executor);
+    }
+
+    /**
+     * Perform a shuffle on the user's liked songs with the provided shuffle mode on this client's
+     * {@link TrueShuffleJobEngine}. This method returns immediately, the job starts as soon as the engine's bounds allow
+     * it.
+     *
+     * @param userId      the id of the user.
+     * @param shuffleMode the strategy to use for shuffling.
+     * @return the status of the shuffle job, which is updated continuously until it has finished.
+     * @throws UserNotFoundException when no user could be found with the provided user identifier.
+     * @throws IllegalStateException when the client has not been initialized yet.
+     */
+    public TrueShuffleJobStatus shuffleLikedSongs(String userId, EShuffleMode shuffleMode) throws UserNotFoundException {
+        verifyInit();
+        getAuthorizedUser(userId);
+        return jobEngine.submit(new TrueShuffleLikedJob(userId, null, shuffleMode), resolver);
+    }
+
+    /**
+     * Perform a shuffle on the user's liked songs with the provided shuffle mode, following the provided executor's
+     * schedule. If one wishes to monitor the status of this job, an asynchronous executor must be provided. Otherwise,
+     * this function, will not return until it has completed execution.
+     *
+     * @param userId      the id of the user.
+     * @param shuffleMode the strategy to use for shuffling.
+     * @param executor    the execution schedule (should be an asynchronous schedule).
+     * @return the status of the shuffle job, which is updated continuously until it has finished.
+     * @throws UserNotFoundException when no user could be found with the provided user identifier.
+     * @throws IllegalStateException when the client has not been initialized yet.
+     */
+    public TrueShuffleJobStatus shuffleLikedSongs(String userId, EShuffleMode shuffleMode, Executor executor) throws UserNotFoundException {
         verifyInit();
         Objects.requireNonNull(executor);
         getAuthorizedUser(userId);
-        var job = new TrueShuffleLikedJob(userId);
+        var job = new TrueShuffleLikedJob(userId, null, shuffleMode);
         return job.execute(resolver, executor);
     }
 
@@ -235,10 +435,45 @@ public class TrueShuffleClient {
      * @throws IllegalStateException when the client has not been initialized yet.
      */
     public TrueShuffleJobStatus shufflePlaylist(String userId, String playlistId, Executor executor) throws UserNotFoundException {
+        return shufflePlaylist(userId, playlistId, EShuffleMode.REORDER, executor);
+    }
+
+    /**
+     * Perform a shuffle on the provided playlist for a specific user with the provided shuffle mode on this client's
+     * {@link TrueShuffleJobEngine}. This method returns immediately, the job starts as soon as the engine's bounds allow
+     * it.
+     *
+     * @param userId      the id of the user.
+     * @param playlistId  the id of the playlist to shuffle.
+     * @param shuffleMode the strategy to use for shuffling.
+     * @return the status of the shuffle job, which is updated continuously until it has finished.
+     * @throws UserNotFoundException when no user could be found with the provided user identifier.
+     * @throws IllegalStateException when the client has not been initialized yet.
+     */
+    public TrueShuffleJobStatus shufflePlaylist(String userId, String playlistId, EShuffleMode shuffleMode) throws UserNotFoundException {
+        verifyInit();
+        getAuthorizedUser(userId);
+        return jobEngine.submit(new TrueShufflePlaylistJob(userId, playlistId, null, shuffleMode), resolver);
+    }
+
+    /**
+     * Perform a shuffle on the provided playlist for a specific user with the provided shuffle mode, following the
+     * provided executor's schedule. If one wishes to monitor the status of this job, an asynchronous executor must be
+     * provided. Otherwise, this function, will not return until it has completed execution.
+     *
+     * @param userId      the id of the user.
+     * @param playlistId  the id of the playlist to shuffle.
+     * @param shuffleMode the strategy to use for shuffling.
+     * @param executor    the execution schedule (should be an asynchronous schedule).
+     * @return the status of the shuffle job, which is updated continuously until it has finished.
+     * @throws UserNotFoundException when no user could be found with the provided user identifier.
+     * @throws IllegalStateException when the client has not been initialized yet.
+     */
+    public TrueShuffleJobStatus shufflePlaylist(String userId, String playlistId, EShuffleMode shuffleMode, Executor executor) throws UserNotFoundException {
         verifyInit();
         Objects.requireNonNull(executor);
         getAuthorizedUser(userId);
-        var job = new TrueShufflePlaylistJob(userId, playlistId);
+        var job = new TrueShufflePlaylistJob(userId, playlistId, null, shuffleMode);
         return job.execute(resolver, executor);
     }
 
@@ -269,6 +504,40 @@ public class TrueShuffleClient {
         return uriBuilder.build().execute();
     }
 
+    /**
+     * Get the metrics of all requests sent by this client and its users. Register a
+     * {@link nl.martderoos.trueshuffle.requests.RequestListener RequestListener} with the metrics to export them.
+     *
+     * @return the metrics, never null.
+     */
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
+    /**
+     * Get the cache of playlist tracks shared by all users of this client. Its hit and miss counts show how many
+     * retrievals of playlist tracks were saved.
+     *
+     * @return the cache, never null.
+     */
+    public PlaylistTrackCache getTrackCache() {
+        return trackCache;
+    }
+
+    /**
+     * @return the engine that runs the jobs of this client that were submitted without an explicit executor.
+     */
+    public TrueShuffleJobEngine getJobEngine() {
+        return jobEngine;
+    }
+
+    /**
+     * @return the limiter shared by all requests of this client, or null if requests are not rate limited.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     /**
      * @return the redirect uri set during construction of this instance.
      */
@@ -286,12 +555,115 @@ public class TrueShuffleClient {
         return UUID.randomUUID().toString();
     }
 
-    private void refreshClientCredentials() throws FatalRequestResponseException {
+    /**
+     * @return the moment at which the new client credentials expire, in milliseconds since the UNIX epoch.
+     */
+    private long refreshClientCredentials() throws FatalRequestResponseException {
+        var issuedSinceEpoch = System.currentTimeMillis();
         var credentials = handler.handleRequest(client.clientCredentials().build());
         client.setAccessToken(credentials.getAccessToken());
+        if (credentials.getExpiresIn() == null)
+            return 0;
+        return issuedSinceEpoch + TimeUnit.SECONDS.toMillis(credentials.getExpiresIn());
+    }
+
+    private static ExecutorService newBackgroundExecutor() {
+        var counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(BACKGROUND_THREADS, runnable -> {
+            var thread = new Thread(runnable, "true-shuffle-background-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private void verifyInit() throws IllegalStateException {
         if (!initialized) throw new IllegalStateException("Cannot execute this method before initialization");
     }
+    /**
+     * Builder of a {@link TrueShuffleClient}. Every collaborator is optional, a client that is built without setting
+     * any of them is equal to one created by {@link #TrueShuffleClient(String, String, String)}.
+     */
+    public static final class Builder {
+        private final String cid;
+        private final String secret;
+        private final String redirectUri;
+        private Executor pagingExecutor;
+        private RateLimiter rateLimiter = new RateLimiter();
+        private TrueShuffleJobEngine jobEngine;
+        private Executor backgroundExecutor;
+        private boolean backgroundExecutorSet = false;
+        private Executor requestExecutor;
+
+        private Builder(String cid, String secret, String redirectUri) {
+            this.cid = Objects.requireNonNull(cid);
+            this.secret = Objects.requireNonNull(secret);
+            this.redirectUri = Objects.requireNonNull(redirectUri);
+        }
+
+        /**
+         * @param pagingExecutor The executor on which loaded pages of large collections (liked songs, playlist tracks)
+         *                       are processed (nullable). Pages are loaded concurrently either way.
+         * @return this builder.
+         */
+        public Builder setPagingExecutor(Executor pagingExecutor) {
+            this.pagingExecutor = pagingExecutor;
+            return this;
+        }
+
+        /**
+         * @param rateLimiter The limiter shared by all requests of the client and its users (nullable). Spotify rate
+         *                    limits per client id, so all users slow down together when one of them is rate limited.
+         *                    If null, requests are not rate limited. Defaults to a new {@link RateLimiter}.
+         * @return this builder.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param jobEngine The engine that runs the jobs submitted without an explicit executor (nullable), see
+         *                  {@link #shuffleLikedSongs(String, EShuffleMode)} and
+         *                  {@link #shufflePlaylist(String, String, EShuffleMode)}. If null, the client creates its own.
+         * @return this builder.
+         */
+        public Builder setJobEngine(TrueShuffleJobEngine jobEngine) {
+            this.jobEngine = jobEngine;
+            return this;
+        }
+
+        /**
+         * @param backgroundExecutor The executor on which expired playlist metadata and libraries are reloaded in the
+         *                           background (nullable). The executor is not shut down by {@link #shutdown()}. If
+         *                           null, expired data is reloaded by the reader that notices the expiry. If not set,
+         *                           the client creates an executor of {@link #BACKGROUND_THREADS} threads, which is
+         *                           shut down by {@link #shutdown()}.
+         * @return this builder.
+         */
+        public Builder setBackgroundExecutor(Executor backgroundExecutor) {
+            this.backgroundExecutor = backgroundExecutor;
+            this.backgroundExecutorSet = true;
+            return this;
+        }
+
+        /**
+         * @param requestExecutor The executor on which the pages of large collections are requested (nullable), shared
+         *                        by all users of the client. If null, the default executor of the
+         *                        {@link RequestHandler} is used, see
+         *                        {@link RequestHandler.Builder#setRequestExecutor(Executor)}.
+         * @return this builder.
+         */
+        public Builder setRequestExecutor(Executor requestExecutor) {
+            this.requestExecutor = requestExecutor;
+            return this;
+        }
+
+        /**
+         * @return a new client with the collaborators set so far, never null. The client must still be initialized
+         * using {@link #initialize()} before it can be used.
+         */
+        public TrueShuffleClient build() {
+            return new TrueShuffleClient(this);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package nl.martderoos.trueshuffle.adhoc;
 
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 public class LazyExpiringApiData<T> extends LazyExpiringData<T, FatalRequestResponseException> {
@@ -21,4 +22,8 @@ public class LazyExpiringApiData<T> extends LazyExpiringData<T, FatalRequestResp
     public LazyExpiringApiData(DataSource<T, FatalRequestResponseException> source, boolean forceReloadOnNull, long refreshTimeout, TimeUnit timeUnit) {
         super(source, forceReloadOnNull, refreshTimeout, timeUnit);
     }
+
+    public LazyExpiringApiData(DataSource<T, FatalRequestResponseException> source, boolean forceReloadOnNull, long refreshTimeout, TimeUnit timeUnit, Executor revalidationExecutor, long maxStaleness) {
+        super(source, forceReloadOnNull, refreshTimeout, timeUnit, revalidationExecutor, maxStaleness);
+    }
 }
@@ -1,21 +1,44 @@
 package nl.martderoos.trueshuffle.adhoc;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Thread-safe class that encapsulates lazily evaluated data that may expire over time.
+ * <br><br>
+ * Getting data that is still valid never blocks: the data and its validity are published together as a single
+ * immutable snapshot that is read without locking. When the data must be (re)loaded, only a single load is performed
+ * at a time. Callers that need the data while it is being loaded wait for that load to complete instead of starting
+ * their own, unless the load started before the data was last set or invalidated: such a load may return data from
+ * before the change, so a new load is started instead.
+ * <br><br>
+ * Optionally, expired data can be served stale while it is revalidated. In that mode, a reader of expired data
+ * receives the expired data immediately and a single reload is started on the provided executor. Only readers of data
+ * that has been expired for longer than the configured maximum staleness block on a reload.
  *
  * @param <T> The data to store.
  * @param <E> The exception that can be thrown when attempting to reload data.
  */
 public class LazyExpiringData<T, E extends Exception> {
+    private static final Logger LOGGER = LogManager.getLogger(LazyExpiringData.class);
+
     private final boolean forceReloadOnNull;
     private final DataSource<T, E> source;
     private final long refreshTimeoutMillis;
+    private final Executor revalidationExecutor;
+    private final long maxStalenessMillis;
 
-    private volatile T data;
-    private volatile long validTill = 0;
+    // only replaced while holding the monitor, but always read without it
+    private volatile Snapshot<T> snapshot = new Snapshot<>(null, 0, false, 0);
+    private final AtomicReference<Load<T>> loading = new AtomicReference<>();
 
     public LazyExpiringData(DataSource<T, E> source) {
         this(source, true);
@@ -30,32 +53,122 @@ public class LazyExpiringData<T, E extends Exception> {
     }
 
     public LazyExpiringData(DataSource<T, E> source, boolean forceReloadOnNull, long refreshTimeout, TimeUnit timeUnit) {
+        this(source, forceReloadOnNull, refreshTimeout, timeUnit, null, 0);
+    }
+
+    /**
+     * Create new lazily evaluated data that is served stale while it is revalidated.
+     *
+     * @param source               the source of the data.
+     * @param forceReloadOnNull    whether null data should always be reloaded.
+     * @param refreshTimeout       the amount of time the data is valid for after it was loaded.
+     * @param timeUnit             the unit of time of both the refresh timeout and the maximum staleness.
+     * @param revalidationExecutor the executor on which expired data is reloaded (nullable). If null, expired data is
+     *                             always reloaded synchronously.
+     * @param maxStaleness         the amount of time after expiry during which the expired data may still be served
+     *                             while it is being revalidated. Readers of data that has been expired for longer
+     *                             block on a reload.
+     */
+    public LazyExpiringData(DataSource<T, E> source, boolean forceReloadOnNull, long refreshTimeout, TimeUnit timeUnit, Executor revalidationExecutor, long maxStaleness) {
         this.source = Objects.requireNonNull(source);
         this.forceReloadOnNull = forceReloadOnNull;
         this.refreshTimeoutMillis = Objects.requireNonNull(timeUnit).toMillis(refreshTimeout);
+        this.revalidationExecutor = revalidationExecutor;
+        this.maxStalenessMillis = timeUnit.toMillis(Math.max(0, maxStaleness));
+    }
+
+    private T checkReload(boolean forceReload) throws E {
+        var snapshot = this.snapshot;
+        var now = System.currentTimeMillis();
+        if (!forceReload && now <= snapshot.validTill)
+            return snapshot.data;
+        if (!forceReload && canServeStale(snapshot, now))
+            return revalidate(snapshot);
+        return load();
     }
 
-    private synchronized T checkReload(boolean forceReload) throws E {
-        var data = this.data;
-        if (forceReload || System.currentTimeMillis() > validTill) {
-            invalidate();
-            return reload();
+    private boolean canServeStale(Snapshot<T> snapshot, long now) {
+        return revalidationExecutor != null && snapshot.loaded && snapshot.validTill > 0
+                && now <= snapshot.validTill + maxStalenessMillis;
+    }
+
+    /**
+     * Load the data on the calling thread, or wait for the load that is already in progress if it started after the
+     * data was last set or invalidated.
+     */
+    private T load() throws E {
+        while (true) {
+            var version = snapshot.version;
+            var current = loading.get();
+            if (current != null && current.version >= version)
+                return await(current.future);
+            // a load that started before the last change is replaced, it can no longer publish its data anyway
+            var load = new Load<T>(new CompletableFuture<>(), version);
+            if (loading.compareAndSet(current, load)) {
+                runLoad(load);
+                return await(load.future);
+            }
         }
-        return data;
     }
 
-    private synchronized T reload() throws E {
-        var data = source.load();
-        setData(data);
-        return data;
+    /**
+     * Start reloading the data on the revalidation executor, unless a load is already in progress.
+     *
+     * @return the data to serve to the reader that noticed the data expired.
+     */
+    private T revalidate(Snapshot<T> stale) {
+        var load = new Load<T>(new CompletableFuture<>(), stale.version);
+        if (!loading.compareAndSet(null, load))
+            return stale.data;
+        try {
+            revalidationExecutor.execute(() -> runLoad(load));
+            return stale.data;
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated, so the reader that noticed the expiry pays for the reload instead
+            runLoad(load);
+            return load.future.isCompletedExceptionally() ? stale.data : load.future.join();
+        }
+    }
+
+    private void runLoad(Load<T> load) {
+        try {
+            var data = source.load();
+            publish(data, load.version);
+            load.future.complete(data);
+        } catch (Throwable t) {
+            LOGGER.debug("Could not load data: {}", t.getMessage());
+            load.future.completeExceptionally(t);
+        } finally {
+            loading.compareAndSet(load, null);
+        }
+    }
+
+    private synchronized void publish(T data, long expectedVersion) {
+        // discard the result if the data was set or invalidated while it was loading
+        if (snapshot.version == expectedVersion)
+            setData(data);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T await(CompletableFuture<T> future) throws E {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException runtime)
+                throw runtime;
+            if (cause instanceof Error error)
+                throw error;
+            // the future is only ever completed exceptionally by the data source
+            throw (E) cause;
+        }
     }
 
     /**
      * Invalidate the current data which will force a reload upon the next attempt to get the data
      */
     public final synchronized void invalidate() {
-        data = null;
-        validTill = 0;
+        snapshot = new Snapshot<>(null, 0, false, snapshot.version + 1);
     }
 
     /**
@@ -70,7 +183,7 @@ public class LazyExpiringData<T, E extends Exception> {
      * configured amount of time provided to the constructor.
      */
     public final synchronized void setData(T data) {
-        this.data = data;
+        snapshot = new Snapshot<>(data, snapshot.validTill, true, snapshot.version + 1);
         validate();
     }
 
@@ -83,10 +196,12 @@ public class LazyExpiringData<T, E extends Exception> {
      * @param timeUnit        The unit of time
      */
     public final synchronized void validateForAtLeast(long validForAtLeast, TimeUnit timeUnit) {
-        var stillValidFor = validTill - System.currentTimeMillis();
+        var current = snapshot;
+        var now = System.currentTimeMillis();
+        var stillValidFor = current.validTill - now;
         validForAtLeast = timeUnit.toMillis(validForAtLeast);
         if (stillValidFor < validForAtLeast)
-            validTill = System.currentTimeMillis() + validForAtLeast;
+            snapshot = new Snapshot<>(current.data, now + validForAtLeast, current.loaded, current.version);
     }
 
     /**
@@ -104,11 +219,34 @@ public class LazyExpiringData<T, E extends Exception> {
      * Get the data if available. Will cause a reload if the data is not available. If the {@link DataSource} is configured
      * to be able to return null, then this function may also return null.
      *
-     * @param forceReload Whether to reload regardless of the current available data.
+     * @param forceReload Whether to reload regardless of the current available data. If a load is already in
+     *                    progress and started after the data was last set or invalidated, its result is returned
+     *                    instead of starting another load.
      * @return The already available data or the newly retrieved data if it were not available.
      * @throws E When the {@link DataSource} throws an exception.
      */
     public final T getData(boolean forceReload) throws E {
-        return checkReload(forceReload || (forceReloadOnNull && data == null));
+        return checkReload(forceReload || (forceReloadOnNull && snapshot.data == null));
+    }
+
+    /**
+     * Immutable view of the data together with its validity.
+     *
+     * @param data      the data, may be null.
+     * @param validTill the moment until which the data is valid, in milliseconds since the UNIX epoch.
+     * @param loaded    whether the data was ever set since it was last invalidated.
+     * @param version   incremented whenever the data is set or invalidated.
+     */
+    private record Snapshot<T>(T data, long validTill, boolean loaded, long version) {
+    }
+
+    /**
+     * A load in progress.
+     *
+     * @param future  completed with the loaded data.
+     * @param version the version of the data when the load started, only the data of a load that started at the
+     *                current version is published.
+     */
+    private record Load<T>(CompletableFuture<T> future, long version) {
     }
 }
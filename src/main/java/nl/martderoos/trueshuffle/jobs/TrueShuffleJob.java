@@ -2,6 +2,7 @@ package nl.martderoos.trueshuffle.jobs;
 
 import nl.martderoos.trueshuffle.TrueShuffleUser;
 import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
 import nl.martderoos.trueshuffle.model.UserLibrary;
@@ -28,9 +29,11 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
     public static final String LIKED_SONGS_TRUE_SHUFFLE = "Liked Songs" + TRUE_SHUFFLE_SUFFIX;
 
     private final String userId;
+    private final EShuffleMode shuffleMode;
 
-    TrueShuffleJob(String userId) {
+    TrueShuffleJob(String userId, EShuffleMode shuffleMode) {
         this.userId = Objects.requireNonNull(userId);
+        this.shuffleMode = Objects.requireNonNull(shuffleMode);
     }
 
     /**
@@ -41,10 +44,21 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
      */
     public final TrueShuffleJobStatus execute(TrueShuffleUserResolver resolver, Executor executor) {
         var status = new TrueShuffleJobStatus();
-        executor.execute(() -> this.execute(resolver, status));
+        execute(resolver, status, executor);
         return status;
     }
 
+    /**
+     * Executes this job like {@link #execute(TrueShuffleUserResolver, Executor)}, but updates the provided status, such
+     * that the executor may already know the status before it is handed the job.
+     *
+     * @param status   the status to update continuously throughout the execution of this job.
+     * @param executor the execution schedule.
+     */
+    final void execute(TrueShuffleUserResolver resolver, TrueShuffleJobStatus status, Executor executor) {
+        executor.execute(() -> this.execute(resolver, status));
+    }
+
     private void execute(TrueShuffleUserResolver resolver, TrueShuffleJobStatus status) {
         final var jobName = getClass().getSimpleName() + "-" + userId;
         TrueShuffleUser user;
@@ -114,8 +128,9 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
      *
      * @param status the status to update continuously.
      * @param source the playlist to shuffle in-place.
+     * @param mode   the strategy to use for shuffling.
      */
-    protected static void shuffleInPlace(TrueShuffleUser user, TrueShuffleJobStatus status, ShufflePlaylist source) throws FatalRequestResponseException {
+    protected static void shuffleInPlace(TrueShuffleUser user, TrueShuffleJobStatus status, ShufflePlaylist source, EShuffleMode mode) throws FatalRequestResponseException {
         var library = user.getUserLibrary();
         if (!library.isOwner(source)) {
             status.setStatusMessage(ETrueShuffleJobStatus.TERMINATED,
@@ -126,7 +141,7 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
         status.setSourcePlaylist(newPlaylistData(source.getPlaylistId(), source.getName(), source.getImages()));
         status.setTargetPlaylist(newPlaylistData(source.getPlaylistId(), source.getName(), source.getImages()));
 
-        source.shuffleInPlace();
+        source.shuffleInPlace(mode);
 
         status.setTargetPlaylist(newPlaylistData(source.getPlaylistId(), source.getName(), source.getImages()));
     }
@@ -136,16 +151,17 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
      * the target playlist's tracks. Once the tracks have been transferred, the target playlist is shuffled in-place.
      * If the target playlist is null, then a new playlist will be created for the user. If the target playlist is not
      * null but the provided user is not the owner of the playlist, then this method will update the status and return early.
-     * This operation makes use of {@link ShuffleUtil#shuffleInto(ShuffleApi, ShufflePlaylist, Collection)} to perform
-     * the shuffle.
+     * This operation makes use of {@link ShuffleUtil#shuffleInto(ShuffleApi, ShufflePlaylist, Collection, EShuffleMode)}
+     * to perform the shuffle.
      *
      * @param user   the user to perform the shuffle for.
      * @param status the status to update continuously.
      * @param source the playlist from which we will copy the tracks to the target playlist.
      * @param target the target playlist that will contain the tracks of the source playlist and is then shuffled
      *               afterward (nullable).
+     * @param mode   the strategy to use for shuffling.
      */
-    protected static void shuffleAfterCopy(TrueShuffleUser user, TrueShuffleJobStatus status, ShufflePlaylist source, ShufflePlaylist target) throws FatalRequestResponseException {
+    protected static void shuffleAfterCopy(TrueShuffleUser user, TrueShuffleJobStatus status, ShufflePlaylist source, ShufflePlaylist target, EShuffleMode mode) throws FatalRequestResponseException {
         String name;
         if (target != null) {
             name = target.getName();
@@ -176,7 +192,7 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
         }
 
         status.setTargetPlaylist(newPlaylistData(target.getPlaylistId(), target.getName(), target.getImages()));
-        ShuffleUtil.shuffleInto(user.getApi(), target, source.getPlaylistTracksUris());
+        ShuffleUtil.shuffleInto(user.getApi(), target, source.getPlaylistTracksUris(), mode);
         status.setTargetPlaylist(newPlaylistData(target.getPlaylistId(), target.getName(), target.getImages()));
     }
 
@@ -188,4 +204,13 @@ public abstract sealed class TrueShuffleJob permits TrueShuffleLikedJob, TrueShu
     public String getUserId() {
         return userId;
     }
+
+    /**
+     * Get the strategy this job uses for shuffling playlists.
+     *
+     * @return the shuffle mode, never null.
+     */
+    public EShuffleMode getShuffleMode() {
+        return shuffleMode;
+    }
 }
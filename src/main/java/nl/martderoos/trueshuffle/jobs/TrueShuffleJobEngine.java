@@ -0,0 +1,167 @@
+package nl.martderoos.trueshuffle.jobs;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread-safe engine that runs every {@link TrueShuffleJob} on its own thread while bounding the number of jobs that
+ * run at the same time, both globally and per user. Jobs that exceed one of the bounds are queued (with status
+ * {@link ETrueShuffleJobStatus#WAITING}) without occupying a thread. Users with queued jobs take turns, so a single
+ * user submitting many jobs cannot starve the others.
+ * <br><br>
+ * Jobs spend nearly all of their time waiting on Spotify, either on I/O or on backoff. By default, the engine starts a
+ * virtual thread per job, such that waiting jobs do not occupy platform threads and many thousands of jobs can run at
+ * once. Jobs call the blocking methods of {@link nl.martderoos.trueshuffle.model.ShuffleApi}, which is why the locks
+ * that are held while waiting on Spotify are {@link java.util.concurrent.locks.ReentrantLock}s rather than monitors,
+ * which would pin the virtual thread to its carrier.
+ */
+public class TrueShuffleJobEngine {
+    /**
+     * The default maximum number of jobs that may run at the same time, for all users combined.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 32;
+    /**
+     * The default maximum number of jobs that may run at the same time for a single user. Jobs of the same user
+     * usually target the same playlists, so by default they are run one after another.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS_PER_USER = 1;
+
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrentJobs;
+    private final int maxConcurrentJobsPerUser;
+
+    private final Map<String, ArrayDeque<QueuedJob>> queuedJobs = new HashMap<>();
+    private final Map<String, Integer> runningJobs = new HashMap<>();
+    // invariant: contains exactly the users that have queued jobs and run fewer jobs than allowed
+    private final ArrayDeque<String> readyUsers = new ArrayDeque<>();
+    private int running = 0;
+    private int queued = 0;
+
+    /**
+     * Create a new engine with the default thread factory and bounds, see {@link #DEFAULT_MAX_CONCURRENT_JOBS} and
+     * {@link #DEFAULT_MAX_CONCURRENT_JOBS_PER_USER}. The default thread factory creates a virtual thread per job.
+     */
+    public TrueShuffleJobEngine() {
+        this(Thread.ofVirtual().name("true-shuffle-job-", 1).factory(), DEFAULT_MAX_CONCURRENT_JOBS, DEFAULT_MAX_CONCURRENT_JOBS_PER_USER);
+    }
+
+    /**
+     * Create a new engine.
+     *
+     * @param threadFactory            the factory that creates a thread for every job, for example a factory of
+     *                                 virtual threads.
+     * @param maxConcurrentJobs        the maximum number of jobs that may run at the same time, must be at least 1.
+     * @param maxConcurrentJobsPerUser the maximum number of jobs that may run at the same time for a single user, must
+     *                                 be at least 1.
+     */
+    public TrueShuffleJobEngine(ThreadFactory threadFactory, int maxConcurrentJobs, int maxConcurrentJobsPerUser) {
+        if (maxConcurrentJobs < 1) throw new IllegalArgumentException("Maximum number of concurrent jobs must be at least 1");
+        if (maxConcurrentJobsPerUser < 1) throw new IllegalArgumentException("Maximum number of concurrent jobs per user must be at least 1");
+        this.threadFactory = Objects.requireNonNull(threadFactory);
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        this.maxConcurrentJobsPerUser = maxConcurrentJobsPerUser;
+    }
+
+    /**
+     * Submit a job to this engine. The job starts as soon as the bounds of this engine allow it.
+     *
+     * @param job      the job to run.
+     * @param resolver the resolver that is used to find the user of the job once it starts.
+     * @return the status of the job, which is updated continuously until it has finished.
+     */
+    public TrueShuffleJobStatus submit(TrueShuffleJob job, TrueShuffleUserResolver resolver) {
+        Objects.requireNonNull(resolver);
+        var userId = job.getUserId();
+        var status = new TrueShuffleJobStatus();
+        job.execute(resolver, status, (runnable) -> enqueue(userId, new QueuedJob(runnable, status)));
+        return status;
+    }
+
+    /**
+     * @return the number of jobs that are currently running.
+     */
+    public synchronized int getRunningJobs() {
+        return running;
+    }
+
+    /**
+     * @return the number of jobs that are waiting for one of the bounds to allow them to start.
+     */
+    public synchronized int getQueuedJobs() {
+        return queued;
+    }
+
+    private synchronized void enqueue(String userId, QueuedJob job) {
+        var queue = queuedJobs.computeIfAbsent(userId, (k) -> new ArrayDeque<>());
+        queue.add(job);
+        queued++;
+        if (queue.size() == 1 && runningJobs.getOrDefault(userId, 0) < maxConcurrentJobsPerUser)
+            readyUsers.add(userId);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (running < maxConcurrentJobs && !readyUsers.isEmpty()) {
+            var userId = readyUsers.poll();
+            var queue = queuedJobs.get(userId);
+            var job = queue.poll();
+            queued--;
+            running++;
+            var userRunning = runningJobs.merge(userId, 1, Integer::sum);
+
+            if (queue.isEmpty()) {
+                queuedJobs.remove(userId);
+            } else if (userRunning < maxConcurrentJobsPerUser) {
+                // let other users take their turn first
+                readyUsers.add(userId);
+            }
+
+            try {
+                threadFactory.newThread(() -> run(userId, job.runnable())).start();
+            } catch (RuntimeException | Error e) {
+                // the job will never run, so it must not wait forever, and the other users must still take their turn
+                job.status().setStatusMessage(ETrueShuffleJobStatus.TERMINATED, "Could not start job: " + e.getMessage());
+                unstart(userId);
+            }
+        }
+    }
+
+    private void run(String userId, Runnable runnable) {
+        try {
+            runnable.run();
+        } finally {
+            synchronized (this) {
+                finish(userId);
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Undo the start of a job of the user in {@link #dispatch()}, restoring the invariant of the ready users.
+     */
+    private void unstart(String userId) {
+        running--;
+        var userRunning = runningJobs.merge(userId, -1, Integer::sum);
+        if (userRunning == 0)
+            runningJobs.remove(userId);
+        readyUsers.removeLastOccurrence(userId);
+        if (queuedJobs.containsKey(userId))
+            readyUsers.add(userId);
+    }
+
+    private void finish(String userId) {
+        running--;
+        var userRunning = runningJobs.merge(userId, -1, Integer::sum);
+        if (userRunning == 0)
+            runningJobs.remove(userId);
+        if (userRunning == maxConcurrentJobsPerUser - 1 && queuedJobs.containsKey(userId))
+            readyUsers.add(userId);
+    }
+
+    private record QueuedJob(Runnable runnable, TrueShuffleJobStatus status) {
+    }
+}
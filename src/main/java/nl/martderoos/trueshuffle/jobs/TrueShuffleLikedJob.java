@@ -1,6 +1,7 @@
 package nl.martderoos.trueshuffle.jobs;
 
 import nl.martderoos.trueshuffle.TrueShuffleUser;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 import nl.martderoos.trueshuffle.utility.ShuffleUtil;
@@ -36,7 +37,20 @@ public final class TrueShuffleLikedJob extends TrueShuffleJob {
      * @throws NullPointerException if userId is null.
      */
     public TrueShuffleLikedJob(String userId, String targetPlaylistId) {
-        super(userId);
+        this(userId, targetPlaylistId, EShuffleMode.REORDER);
+    }
+
+    /**
+     * @param userId           the user identifier for which we will shuffle their liked songs (non-nullable).
+     * @param targetPlaylistId the unique playlist identifier which will be the target playlist for the shuffle (nullable).
+     *                         Note that the user must be the owner of this target playlist for this to work. If this
+     *                         argument is null, then the actual target playlist used is dynamic and may change based
+     *                         on certain conditions.
+     * @param shuffleMode      the strategy to use for shuffling the target playlist (non-nullable).
+     * @throws NullPointerException if either userId or shuffleMode is null.
+     */
+    public TrueShuffleLikedJob(String userId, String targetPlaylistId, EShuffleMode shuffleMode) {
+        super(userId, shuffleMode);
         this.targetPlaylistId = targetPlaylistId;
     }
 
@@ -70,7 +84,7 @@ public final class TrueShuffleLikedJob extends TrueShuffleJob {
         }
 
         status.setTargetPlaylist(newPlaylistData(target.getPlaylistId(), target.getName(), target.getImages()));
-        ShuffleUtil.shuffleInto(api, target, library.getUserLikedTracksUris());
+        ShuffleUtil.shuffleInto(api, target, library.getUserLikedTracksUris(), getShuffleMode());
         status.setTargetPlaylist(newPlaylistData(target.getPlaylistId(), target.getName(), target.getImages()));
     }
 
@@ -1,6 +1,7 @@
 package nl.martderoos.trueshuffle.jobs;
 
 import nl.martderoos.trueshuffle.TrueShuffleUser;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,7 +42,23 @@ public final class TrueShufflePlaylistJob extends TrueShuffleJob {
      * @throws NullPointerException if either userId or sourcePlaylistId is null.
      */
     public TrueShufflePlaylistJob(String userId, String sourcePlaylistId, String targetPlaylistId) {
-        super(userId);
+        this(userId, sourcePlaylistId, targetPlaylistId, EShuffleMode.REORDER);
+    }
+
+    /**
+     * @param userId           the user identifier for which we will perform the shuffle (need not be the owner of the playlist).
+     *                         In particular, the user for which the shuffle will be performed will also be the owner of the
+     *                         actual shuffled (target) playlist.
+     * @param sourcePlaylistId the unique playlist identifier which will be the source playlist for the shuffle.
+     * @param targetPlaylistId the unique playlist identifier which will be the target playlist for the shuffle (nullable).
+     *                         Note that the user must be the owner of this target playlist for this to work. If this
+     *                         argument is null, then the actual target playlist used is dynamic and may change based
+     *                         on certain conditions.
+     * @param shuffleMode      the strategy to use for shuffling the target playlist.
+     * @throws NullPointerException if either userId, sourcePlaylistId or shuffleMode is null.
+     */
+    public TrueShufflePlaylistJob(String userId, String sourcePlaylistId, String targetPlaylistId, EShuffleMode shuffleMode) {
+        super(userId, shuffleMode);
         this.sourcePlaylistId = Objects.requireNonNull(sourcePlaylistId);
         this.targetPlaylistId = targetPlaylistId;
     }
@@ -53,17 +70,17 @@ public final class TrueShufflePlaylistJob extends TrueShuffleJob {
         var sourcePlaylist = library.getPlaylistById(sourcePlaylistId);
         if (sourcePlaylistId.equals(targetPlaylistId)) {
             // source equals target, so shuffle in-place
-            shuffleInPlace(user, status, sourcePlaylist);
+            shuffleInPlace(user, status, sourcePlaylist, getShuffleMode());
         } else if (targetPlaylistId != null) {
             // dedicated target playlist, so do a shuffle after copy
             var targetPlaylist = library.getPlaylistById(targetPlaylistId);
-            shuffleAfterCopy(user, status, sourcePlaylist, targetPlaylist);
+            shuffleAfterCopy(user, status, sourcePlaylist, targetPlaylist, getShuffleMode());
         } else if (library.isOwner(sourcePlaylist)) {
             // if we are the owner, just shuffle in-place
-            shuffleInPlace(user, status, sourcePlaylist);
+            shuffleInPlace(user, status, sourcePlaylist, getShuffleMode());
         } else {
             // otherwise do a shuffle after copy where the target playlist will be created on the fly
-            shuffleAfterCopy(user, status, sourcePlaylist, null);
+            shuffleAfterCopy(user, status, sourcePlaylist, null, getShuffleMode());
         }
     }
 
@@ -0,0 +1,24 @@
+package nl.martderoos.trueshuffle.model;
+
+/**
+ * Enumerates the strategies a {@link ShufflePlaylist} can use to shuffle its tracks in-place.
+ */
+public enum EShuffleMode {
+    /**
+     * Shuffles the playlist by only moving (ranges of) tracks. Requires up to one request per track, but never replaces
+     * the playlist's items, so the date at which a track was added is preserved.
+     */
+    REORDER,
+    /**
+     * Shuffles the playlist by computing the new order locally and then replacing all items of the playlist at once,
+     * unless moving tracks is cheaper. Requires roughly one request per 100 tracks. Note that the date at which a track
+     * was added will be reset.
+     * <br><br>
+     * Replacing is not atomic: the first 100 tracks replace all items of the playlist, after which the remaining tracks
+     * are appended in batches. If appending keeps failing, even after the remaining tracks are appended once more, the
+     * playlist is left with only the tracks written so far, and the tracks that were not written are reported through a
+     * {@link nl.martderoos.trueshuffle.requests.exceptions.TruncatedPlaylistException TruncatedPlaylistException}. See
+     * {@link ShuffleApi#replaceTracks(String, java.util.List)}.
+     */
+    REPLACE
+}
@@ -0,0 +1,192 @@
+package nl.martderoos.trueshuffle.model;
+
+import nl.martderoos.trueshuffle.utility.TrackIdList;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Thread-safe, bounded cache of the tracks of playlists, keyed by playlist identifier and snapshot identifier. Since
+ * a snapshot identifier identifies a single version of a playlist, the cached tracks never become outdated and can be
+ * shared by all users of the same client. Users that shuffle the same (popular) playlist therefore retrieve and store
+ * its tracks only once.
+ * <br><br>
+ * The cache is bounded by the total number of cached tracks. Once the bound is exceeded, the least recently used track
+ * lists are evicted first. Track lists are stored as {@link TrackIdList}s to keep their footprint small.
+ * <br><br>
+ * The contents of the cache can be written to a file and read back after a restart, see {@link #writeTo(Path)} and
+ * {@link #readFrom(Path)}. Restored tracks remain valid as long as the snapshot of their playlist is unchanged.
+ */
+public class PlaylistTrackCache {
+    /**
+     * The default maximum number of tracks to cache, for all playlists combined.
+     */
+    public static final long DEFAULT_MAX_WEIGHT = 200_000;
+
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a new cache that holds at most {@link #DEFAULT_MAX_WEIGHT} tracks.
+     */
+    public PlaylistTrackCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxWeight the maximum number of tracks to cache, for all playlists combined. Must be at least 0.
+     */
+    public PlaylistTrackCache(long maxWeight) {
+        if (maxWeight < 0) throw new IllegalArgumentException("Maximum weight must be at least 0");
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Get the cached tracks of a playlist.
+     *
+     * @param playlistId the unique identifier of the playlist.
+     * @param snapshotId the snapshot identifier of the playlist.
+     * @param hardLimit  the maximum number of tracks the caller is interested in.
+     * @return an unmodifiable list of at most hard limit track URIs, or null if the tracks of this snapshot are not
+     * cached or were cached with a lower hard limit than requested.
+     */
+    public synchronized List<String> get(String playlistId, String snapshotId, int hardLimit) {
+        var entry = entries.get(new Key(playlistId, snapshotId));
+        if (entry == null || !entry.covers(hardLimit)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.tracks.size() > hardLimit ? entry.tracks.subList(0, hardLimit) : entry.tracks;
+    }
+
+    /**
+     * Cache the tracks of a playlist. Track lists that exceed the maximum weight of this cache are not cached.
+     *
+     * @param playlistId the unique identifier of the playlist.
+     * @param snapshotId the snapshot identifier of the playlist the tracks were retrieved from.
+     * @param hardLimit  the hard limit the tracks were retrieved with.
+     * @param tracks     the retrieved track URIs.
+     * @return an unmodifiable copy of the tracks, which may be shared.
+     */
+    public synchronized List<String> put(String playlistId, String snapshotId, int hardLimit, List<String> tracks) {
+        var key = new Key(Objects.requireNonNull(playlistId), Objects.requireNonNull(snapshotId));
+        var entry = new Entry(TrackIdList.copyOf(tracks), hardLimit);
+        if (entry.tracks.size() > maxWeight)
+            return entry.tracks;
+
+        var previous = entries.get(key);
+        if (previous != null && previous.covers(hardLimit) && !entry.covers(previous.hardLimit))
+            return entry.tracks;
+        previous = entries.put(key, entry);
+        if (previous != null)
+            weight -= previous.tracks.size();
+        weight += entry.tracks.size();
+        evict();
+        return entry.tracks;
+    }
+
+    /**
+     * Write all cached track lists to a file, replacing the file if it exists. The least recently used track lists are
+     * written first, so reading the file restores their order of eviction.
+     *
+     * @param file the file to write to.
+     * @throws IOException when the file could not be written.
+     */
+    public void writeTo(Path file) throws IOException {
+        List<PlaylistTrackCacheFile.CachedTracks> contents;
+        synchronized (this) {
+            contents = new ArrayList<>(entries.size());
+            for (var entry : entries.entrySet()) {
+                var key = entry.getKey();
+                var value = entry.getValue();
+                contents.add(new PlaylistTrackCacheFile.CachedTracks(key.playlistId(), key.snapshotId(), value.hardLimit(), value.tracks()));
+            }
+        }
+        PlaylistTrackCacheFile.write(file, contents);
+    }
+
+    /**
+     * Add all track lists of a file that was written by {@link #writeTo(Path)} to this cache. Track lists that are
+     * already cached with at least as many tracks are kept.
+     *
+     * @param file the file to read from.
+     * @return the number of track lists read from the file.
+     * @throws IOException when the file could not be read or is not a valid file, in which case the cache is not
+     *                     modified.
+     */
+    public int readFrom(Path file) throws IOException {
+        var contents = PlaylistTrackCacheFile.read(file);
+        for (var tracks : contents) {
+            put(tracks.playlistId(), tracks.snapshotId(), tracks.hardLimit(), tracks.tracks());
+        }
+        return contents.size();
+    }
+
+    /**
+     * @return the number of lookups that found cached tracks.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find cached tracks.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of track lists that were evicted to stay within the maximum weight.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of tracks that are currently cached, for all playlists combined.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of track lists that are currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().tracks.size();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private record Key(String playlistId, String snapshotId) {
+    }
+
+    private record Entry(List<String> tracks, int hardLimit) {
+        /**
+         * @return true if these tracks contain all tracks that a retrieval with the provided hard limit would return.
+         */
+        private boolean covers(int hardLimit) {
+            return this.hardLimit >= hardLimit || tracks.size() < this.hardLimit;
+        }
+    }
+}
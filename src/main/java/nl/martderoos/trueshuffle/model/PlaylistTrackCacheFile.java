@@ -0,0 +1,152 @@
+package nl.martderoos.trueshuffle.model;
+
+import nl.martderoos.trueshuffle.utility.TrackId;
+import nl.martderoos.trueshuffle.utility.TrackIdList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary file format for the contents of a {@link PlaylistTrackCache}. Track URIs of the form
+ * {@code spotify:track:<id>} are stored as their encoded identifier of 16 bytes, see {@link TrackId}. Files are
+ * written to a temporary file first and then moved into place, such that a crash while writing never leaves a partially
+ * written file behind. Files are read through a buffered stream, so no mapping of the file outlives a read and a file
+ * that was just read can be replaced right away.
+ */
+final class PlaylistTrackCacheFile {
+    private static final int MAGIC = 0x54535443;
+    private static final int VERSION = 2;
+    private static final byte FULL_URI = 0;
+    private static final byte TRACK_ID = 1;
+
+    private PlaylistTrackCacheFile() {
+
+    }
+
+    /**
+     * Write the provided track lists to the file, replacing the file if it exists.
+     *
+     * @param file    the file to write.
+     * @param entries the track lists to write.
+     * @throws IOException when the file could not be written.
+     */
+    static void write(Path file, List<CachedTracks> entries) throws IOException {
+        var absolute = file.toAbsolutePath();
+        var temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (var entry : entries) {
+                    writeString(out, entry.playlistId());
+                    writeString(out, entry.snapshotId());
+                    out.writeInt(entry.hardLimit());
+                    out.writeInt(entry.tracks().size());
+                    var tracks = TrackIdList.copyOf(entry.tracks());
+                    for (int i = 0; i < tracks.size(); i++) {
+                        if (tracks.isEncoded(i)) {
+                            out.writeByte(TRACK_ID);
+                            out.writeLong(tracks.getHigh(i));
+                            out.writeLong(tracks.getLow(i));
+                        } else {
+                            out.writeByte(FULL_URI);
+                            writeString(out, tracks.get(i));
+                        }
+                    }
+                }
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read the track lists from the file.
+     *
+     * @param file the file to read.
+     * @return the track lists in the order they were written, never null.
+     * @throws IOException when the file could not be read or is not a valid file.
+     */
+    static List<CachedTracks> read(Path file) throws IOException {
+        var size = Files.size(file);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(String.format("%s is not a playlist track cache file", file));
+            var version = in.readInt();
+            if (version != VERSION)
+                throw new IOException(String.format("Unsupported playlist track cache file version %s", version));
+
+            var count = readCount(in, size);
+            var entries = new ArrayList<CachedTracks>(count);
+            for (int i = 0; i < count; i++) {
+                var playlistId = readString(in);
+                var snapshotId = readString(in);
+                var hardLimit = in.readInt();
+                var trackCount = readCount(in, size);
+                // encoded tracks are copied as is, they are never decoded to strings
+                var tracks = new TrackIdList.Builder(trackCount);
+                for (int j = 0; j < trackCount; j++) {
+                    var kind = in.readByte();
+                    if (kind == TRACK_ID) {
+                        tracks.addEncoded(in.readLong(), in.readLong());
+                    } else if (kind == FULL_URI) {
+                        tracks.add(readString(in));
+                    } else {
+                        throw new IOException("Invalid kind of track");
+                    }
+                }
+                entries.add(new CachedTracks(playlistId, snapshotId, hardLimit, tracks.build()));
+            }
+            return entries;
+        } catch (EOFException e) {
+            throw new IOException(String.format("%s is truncated", file), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF)
+            throw new IOException("String is too long to be written");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a number of entries, which cannot exceed the size of the file because every entry takes at least a byte.
+     */
+    private static int readCount(DataInputStream in, long fileSize) throws IOException {
+        var count = in.readInt();
+        if (count < 0 || count > fileSize)
+            throw new IOException("Invalid number of entries");
+        return count;
+    }
+
+    /**
+     * The tracks of a playlist as stored in a {@link PlaylistTrackCache}.
+     *
+     * @param playlistId the unique identifier of the playlist.
+     * @param snapshotId the snapshot identifier the tracks were retrieved from.
+     * @param hardLimit  the hard limit the tracks were retrieved with.
+     * @param tracks     the track URIs.
+     */
+    record CachedTracks(String playlistId, String snapshotId, int hardLimit, List<String> tracks) {
+    }
+}
@@ -0,0 +1,22 @@
+package nl.martderoos.trueshuffle.model;
+
+import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
+
+import java.util.List;
+
+/**
+ * A playlist together with its tracks. The tracks belong to the snapshot identified by the playlist's snapshot
+ * identifier, unless the playlist was modified while its tracks were being retrieved, see
+ * {@link SnapshotTracks#isConsistent()}.
+ *
+ * @param playlist the playlist's data.
+ * @param tracks   the playlist's tracks.
+ */
+public record PlaylistWithTracks(PlaylistSimplified playlist, SnapshotTracks tracks) {
+    /**
+     * @return the unmodifiable list of URIs of the playlist's tracks.
+     */
+    public List<String> trackUris() {
+        return tracks.trackUris();
+    }
+}
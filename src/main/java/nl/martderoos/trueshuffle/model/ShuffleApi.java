@@ -3,22 +3,40 @@ package nl.martderoos.trueshuffle.model;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import nl.martderoos.trueshuffle.TrueShuffleUserCredentials;
+import nl.martderoos.trueshuffle.paging.ESpotifyPagedEndpoint;
 import nl.martderoos.trueshuffle.paging.PageAggregator;
-import nl.martderoos.trueshuffle.paging.SpotifyFuturePage;
+import nl.martderoos.trueshuffle.paging.PageStream;
+import nl.martderoos.trueshuffle.paging.PageStreamException;
+import nl.martderoos.trueshuffle.requests.RateLimiter;
 import nl.martderoos.trueshuffle.requests.RequestHandler;
+import nl.martderoos.trueshuffle.requests.RequestListener;
+import nl.martderoos.trueshuffle.requests.SingleFlight;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import nl.martderoos.trueshuffle.requests.exceptions.TruncatedPlaylistException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.model_objects.IPlaylistItem;
+import se.michaelthelin.spotify.model_objects.special.SnapshotResult;
 import se.michaelthelin.spotify.model_objects.specification.*;
 import se.michaelthelin.spotify.requests.IRequest;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static nl.martderoos.trueshuffle.utility.PlaylistUtil.normalizeName;
 import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylist;
 
 /**
@@ -30,6 +48,15 @@ import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylis
  * All operations that require leveraging the {@link SpotifyApi} may result in {@link FatalRequestResponseException} due to
  * unrecoverable errors from Spotify. Some operations require us to send multiple requests to Spotify because
  * they have constraints on the amount of data you can send and receive within a single request.
+ * <br><br>
+ * Every public method of this class is blocking: requests are sent through
+ * {@link RequestHandler#handleRequest(IRequest)} on the calling thread, which sleeps while a request backs off. Only
+ * the pages of large collections are requested through {@link RequestHandler#handleRequestAsync(IRequest)}, such that
+ * several pages can be loaded at once on the handler's bounded request executor, see
+ * {@link Builder#setRequestExecutor(Executor)}. The calling thread waits for those pages. Interrupting the calling
+ * thread stops the operation: no further requests are sent and the operation throws a
+ * {@link FatalRequestResponseException}. Blocking is cheap on a virtual thread, such as the threads of the
+ * {@link nl.martderoos.trueshuffle.jobs.TrueShuffleJobEngine}, because no monitor is held while waiting on Spotify.
  */
 public class ShuffleApi {
     /**
@@ -40,19 +67,84 @@ public class ShuffleApi {
      * The maximum number of tracks a user can save (like). Currently, there exists no limit.
      */
     public static final int MAXIMUM_LIKED_SONGS_SIZE = Integer.MAX_VALUE;
+    /**
+     * The maximum number of pages that are loaded concurrently for a single collection once its total size is known.
+     * Currently, 4.
+     */
+    public static final int PAGING_CONCURRENCY = 4;
+    /**
+     * The fields of a playlist that are retrieved by {@link #streamPlaylistSimplified(String)}: everything a
+     * {@link PlaylistSimplified} is used for, but none of the playlist's tracks.
+     */
+    public static final String PLAYLIST_METADATA_FIELDS = "id,name,owner(id,display_name),snapshot_id,images,tracks.total";
+    /**
+     * The fields of a page of playlist items that are retrieved when only the URIs of the items are needed. Besides the
+     * URI, the type of every item is required to parse it, and the offset and limit are required to follow the pages.
+     */
+    public static final String PLAYLIST_ITEMS_FIELDS = "items(track(type,uri)),total,offset,limit,next";
+    /**
+     * The fields of a playlist that are retrieved by {@link #streamPlaylistWithTracksUris(String, int)}: the
+     * {@link #PLAYLIST_METADATA_FIELDS} and the first page of the playlist's items, see {@link #PLAYLIST_ITEMS_FIELDS}.
+     */
+    public static final String PLAYLIST_WITH_ITEMS_FIELDS = "id,name,owner(id,display_name),snapshot_id,images,tracks(" + PLAYLIST_ITEMS_FIELDS + ")";
 
     private static final Logger LOGGER = LogManager.getLogger(ShuffleApi.class);
 
     private final SpotifyApi api;
     private final User user;
     private final RequestHandler requestHandler;
-    private long accessTokenValidUntilAtLeast;
+    private final Executor pagingExecutor;
+    private final PlaylistTrackCache trackCache;
+    private final Executor backgroundExecutor;
+    private final SingleFlight<String> inFlightReads = new SingleFlight<>();
+    // held while the access token is refreshed, such that concurrent refreshes result in a single request
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    // only written while holding the monitor, read by refreshes without it
+    private volatile long accessTokenValidUntilAtLeast;
     private TrueShuffleUserCredentials credentials = null;
 
+    /**
+     * Create an api without any of its optional collaborators. Use {@link #builder(SpotifyApi, User)} to configure them.
+     *
+     * @param api  the api to encapsulate.
+     * @param user the user the api is bound to.
+     */
     public ShuffleApi(final SpotifyApi api, User user) {
-        this.api = Objects.requireNonNull(api);
-        this.user = Objects.requireNonNull(user);
-        this.requestHandler = new RequestHandler(this::refreshAccessToken);
+        this(builder(api, user));
+    }
+
+    private ShuffleApi(Builder builder) {
+        this.api = Objects.requireNonNull(builder.api);
+        this.user = Objects.requireNonNull(builder.user);
+        this.requestHandler = RequestHandler.builder()
+                .setRefresher(this::refreshAccessToken)
+                .setRateLimiter(builder.rateLimiter)
+                .setListener(builder.requestListener)
+                .setRefreshExecutor(builder.backgroundExecutor)
+                .setRequestExecutor(builder.requestExecutor)
+                .build();
+        this.pagingExecutor = builder.pagingExecutor;
+        this.trackCache = builder.trackCache;
+        this.backgroundExecutor = builder.backgroundExecutor;
+    }
+
+    /**
+     * @param api  the api to encapsulate.
+     * @param user the user the api is bound to.
+     * @return a builder for an api without any of its optional collaborators, never null.
+     */
+    public static Builder builder(final SpotifyApi api, User user) {
+        return new Builder(api, user);
+    }
+
+    /**
+     * Get the number of requests that were saved because an identical read was already in flight. Concurrent reads of
+     * the same playlist, playlist tracks, liked tracks or user playlists share a single request and result.
+     *
+     * @return the number of coalesced reads.
+     */
+    public long getCoalescedReadCount() {
+        return inFlightReads.getSavedCalls();
     }
 
     /**
@@ -64,18 +156,39 @@ public class ShuffleApi {
      *                                       owned by other user).
      */
     public Playlist streamPlaylist(String playlistId) throws FatalRequestResponseException {
-        return apiRequest(getApi().getPlaylist(playlistId).build());
+        return inFlightReads.execute("playlist:" + playlistId,
+                () -> apiRequest(getApi().getPlaylist(playlistId).build()),
+                UnaryOperator.identity());
     }
 
     /**
-     * Stream a uniquely identifiable {@link Playlist} from Spotify and convert it to a {@link PlaylistSimplified}.
+     * Stream only the snapshot identifier of a playlist from Spotify. The snapshot identifier changes whenever the
+     * playlist is modified, which makes this a cheap way to find out whether data of the playlist is outdated.
+     *
+     * @param playlistId the unique identifier of the playlist.
+     * @return the current snapshot identifier of the playlist.
+     * @throws FatalRequestResponseException if the playlist does not exist or if it is not visible to the user (private but
+     *                                       owned by other user).
+     */
+    public String streamPlaylistSnapshotId(String playlistId) throws FatalRequestResponseException {
+        return inFlightReads.execute("playlist-snapshot:" + playlistId,
+                () -> apiRequest(getApi().getPlaylist(playlistId).fields("snapshot_id").build()).getSnapshotId(),
+                UnaryOperator.identity());
+    }
+
+    /**
+     * Stream the metadata of a uniquely identifiable {@link Playlist} from Spotify and convert it to a
+     * {@link PlaylistSimplified}. Only the {@link #PLAYLIST_METADATA_FIELDS} are retrieved, so unlike
+     * {@link #streamPlaylist(String)}, the first page of the playlist's tracks is not transferred.
      *
      * @return the playlist identified by the provided id, never null.
      * @throws FatalRequestResponseException if the playlist does not exist or if it is not visible to the user (private but
      *                                       owned by other user).
      */
     public PlaylistSimplified streamPlaylistSimplified(String playlistId) throws FatalRequestResponseException {
-        return toSimplifiedPlaylist(streamPlaylist(playlistId));
+        return inFlightReads.execute("playlist-metadata:" + playlistId,
+                () -> toSimplifiedPlaylist(apiRequest(getApi().getPlaylist(playlistId).fields(PLAYLIST_METADATA_FIELDS).build())),
+                UnaryOperator.identity());
     }
 
     /**
@@ -86,42 +199,80 @@ public class ShuffleApi {
      * @param hardLimit the hard limit on the amount of playlists to stream.
      */
     public List<PlaylistSimplified> streamUserPlaylists(int hardLimit) throws FatalRequestResponseException {
-        return PageAggregator.aggregate(
-                new SpotifyFuturePage<>(
-                        (offset, limit) -> apiRequest(getApi()
-                                .getListOfCurrentUsersPlaylists()
-                                .offset(offset)
-                                .limit(limit)
-                                .build()
-                        )),
+        return inFlightReads.execute("user-playlists:" + hardLimit, () -> await(PageAggregator.aggregateAsync(
+                (offset, limit) -> apiRequestAsync(getApi()
+                        .getListOfCurrentUsersPlaylists()
+                        .offset(offset)
+                        .limit(limit)
+                        .build()
+                ),
+                0,
+                ESpotifyPagedEndpoint.USER_PLAYLISTS.getMaxPageSize(),
                 hardLimit,
-                true
-        );
+                true,
+                pagingExecutor,
+                PAGING_CONCURRENCY
+        )), ArrayList::new);
     }
 
     /**
      * Search for a playlist by its exact name. Actually Spotify does not allow exact searches, so this is a best effort
-     * method. This method, however, will guarantee to only return exact matches.
+     * method. This method, however, will guarantee to only return exact matches. Names are compared after
+     * normalization, like the names in a {@link UserLibrary}, such that names that look identical are considered equal.
      *
      * @param playlistName the exact name of the playlist to search for.
      * @param hardLimit    the hard limit on the amount of search results.
      * @return the search results, never null but may be empty.
      */
     public List<PlaylistSimplified> searchPlaylistByExactName(String playlistName, int hardLimit) throws FatalRequestResponseException {
-        return PageAggregator.aggregate(
-                new SpotifyFuturePage<>(
-                        (offset, limit) -> apiRequest(getApi()
-                                .searchPlaylists(String.format("\"%s\"", playlistName))
-                                .offset(offset)
-                                .limit(limit)
-                                .build()
-                        )),
+        var name = normalizeName(playlistName);
+        try (var results = lazySearchPlaylists(name, hardLimit)) {
+            return results
+                    .filter((p) -> hasName(p, name))
+                    .collect(Collectors.toList());
+        } catch (PageStreamException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Search for the first playlist with the exact name, see {@link #searchPlaylistByExactName(String, int)}. Search
+     * result pages are loaded lazily, at most one page ahead of the search, so no further pages are requested once an
+     * exact match has been found.
+     *
+     * @param playlistName the exact name of the playlist to search for.
+     * @param hardLimit    the hard limit on the amount of search results to inspect.
+     * @return the first exact match, or null if none of the inspected search results matched.
+     */
+    public PlaylistSimplified findPlaylistByExactName(String playlistName, int hardLimit) throws FatalRequestResponseException {
+        var name = normalizeName(playlistName);
+        try (var results = lazySearchPlaylists(name, hardLimit)) {
+            return results
+                    .filter((p) -> hasName(p, name))
+                    .findFirst()
+                    .orElse(null);
+        } catch (PageStreamException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean hasName(PlaylistSimplified playlist, String normalizedName) {
+        return playlist.getName() != null && normalizedName.equals(normalizeName(playlist.getName()));
+    }
+
+    private Stream<PlaylistSimplified> lazySearchPlaylists(String playlistName, int hardLimit) {
+        return PageStream.stream(
+                (offset, limit) -> apiRequestAsync(getApi()
+                        .searchPlaylists(String.format("\"%s\"", playlistName))
+                        .offset(offset)
+                        .limit(limit)
+                        .build()
+                ),
+                0,
+                ESpotifyPagedEndpoint.SEARCH.getMaxPageSize(),
                 hardLimit,
                 true
-        )
-                .stream()
-                .filter((p) -> playlistName.equals(p.getName()))
-                .collect(Collectors.toList());
+        );
     }
 
     /**
@@ -132,21 +283,24 @@ public class ShuffleApi {
      * @return a list of track URIs, never null.
      */
     public List<String> streamUserLikedTracksUris(int hardLimit) throws FatalRequestResponseException {
-        return PageAggregator.aggregate(
-                        new SpotifyFuturePage<>(
-                                (offset, limit) -> apiRequest(getApi()
-                                        .getUsersSavedTracks()
-                                        .offset(offset)
-                                        .limit(limit)
-                                        .build()
-                                )),
+        return inFlightReads.execute("liked-tracks:" + hardLimit, () -> await(PageAggregator.aggregateAsync(
+                        (offset, limit) -> apiRequestAsync(getApi()
+                                .getUsersSavedTracks()
+                                .offset(offset)
+                                .limit(limit)
+                                .build()
+                        ),
+                        0,
+                        ESpotifyPagedEndpoint.SAVED_TRACKS.getMaxPageSize(),
                         hardLimit,
-                        true
-                ).stream()
+                        true,
+                        pagingExecutor,
+                        PAGING_CONCURRENCY
+                )).stream()
                 .map(SavedTrack::getTrack)
                 .filter(Objects::nonNull)
                 .map(IPlaylistItem::getUri)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()), ArrayList::new);
     }
 
     /**
@@ -158,24 +312,131 @@ public class ShuffleApi {
      * @return a list of track URIs, never null.
      */
     public List<String> streamPlaylistTracksUris(String playlistId, int hardLimit) throws FatalRequestResponseException {
-        if (hardLimit > MAXIMUM_PLAYLIST_SIZE) hardLimit = MAXIMUM_PLAYLIST_SIZE;
-        return PageAggregator.aggregate(
-                        new SpotifyFuturePage<>(
-                                (offset, limit) -> apiRequest(getApi()
-                                        .getPlaylistsItems(playlistId)
-                                        .offset(offset)
-                                        .limit(limit)
-                                        .build()
-                                )),
-                        hardLimit,
-                        true
-                ).stream()
+        final int limitedHardLimit = Math.min(hardLimit, MAXIMUM_PLAYLIST_SIZE);
+        return inFlightReads.execute("playlist-tracks:" + playlistId + ":" + limitedHardLimit,
+                () -> streamPlaylistItemsUris(playlistId, 0, limitedHardLimit), ArrayList::new);
+    }
+
+    private List<String> streamPlaylistItemsUris(String playlistId, int offset, int count) throws FatalRequestResponseException {
+        return streamPlaylistItemsUris(playlistId, offset, count, new AtomicInteger());
+    }
+
+    /**
+     * @param pages incremented for every page that is requested.
+     */
+    private List<String> streamPlaylistItemsUris(String playlistId, int offset, int count, AtomicInteger pages) throws FatalRequestResponseException {
+        return await(PageAggregator.aggregateAsync(
+                        (pageOffset, limit) -> {
+                            pages.incrementAndGet();
+                            return apiRequestAsync(getApi()
+                                    .getPlaylistsItems(playlistId)
+                                    .fields(PLAYLIST_ITEMS_FIELDS)
+                                    .offset(pageOffset)
+                                    .limit(limit)
+                                    .build()
+                            );
+                        },
+                        offset,
+                        ESpotifyPagedEndpoint.PLAYLIST_ITEMS.getMaxPageSize(),
+                        count,
+                        true,
+                        pagingExecutor,
+                        PAGING_CONCURRENCY
+                )).stream()
                 .map(PlaylistTrack::getTrack)
                 .filter(Objects::nonNull)
                 .map(IPlaylistItem::getUri)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Stream a specific playlist's tracks as of the provided snapshot. The tracks are taken from the shared
+     * {@link PlaylistTrackCache} if possible. Otherwise, they are retrieved from Spotify and cached if the snapshot
+     * identifier of the playlist did not change while they were being retrieved.
+     *
+     * @param playlistId the playlists unique identifier.
+     * @param snapshotId the current snapshot identifier of the playlist (nullable if unknown).
+     * @param hardLimit  the hard limit on the number of tracks to retrieve for the playlist.
+     * @return the tracks, never null. The snapshot identifier of the tracks is null if the snapshot was unknown or if
+     * the playlist was modified while its tracks were being retrieved, see {@link SnapshotTracks#isConsistent()}.
+     */
+    public SnapshotTracks streamPlaylistTracksUris(String playlistId, String snapshotId, int hardLimit) throws FatalRequestResponseException {
+        final int limitedHardLimit = Math.min(hardLimit, MAXIMUM_PLAYLIST_SIZE);
+        if (snapshotId == null)
+            return new SnapshotTracks(null, Collections.unmodifiableList(streamPlaylistTracksUris(playlistId, limitedHardLimit)));
+
+        var cached = trackCache == null ? null : trackCache.get(playlistId, snapshotId, limitedHardLimit);
+        if (cached != null)
+            return new SnapshotTracks(snapshotId, cached);
+        // keyed by snapshot, such that a read that started before the playlist was modified is never joined
+        var read = inFlightReads.execute("playlist-snapshot-tracks:" + playlistId + ":" + snapshotId + ":" + limitedHardLimit,
+                () -> {
+                    var pages = new AtomicInteger();
+                    var uris = streamPlaylistItemsUris(playlistId, 0, limitedHardLimit, pages);
+                    return new TracksRead(uris, pages.get());
+                },
+                (shared) -> new TracksRead(new ArrayList<>(shared.uris()), shared.pages()));
+        // a single page is consistent by itself, but the playlist may have been modified between pages
+        if (read.pages() > 1 && !snapshotId.equals(streamPlaylistSnapshotId(playlistId)))
+            return new SnapshotTracks(null, Collections.unmodifiableList(read.uris()));
+        if (trackCache == null)
+            return new SnapshotTracks(snapshotId, Collections.unmodifiableList(read.uris()));
+        return new SnapshotTracks(snapshotId, trackCache.put(playlistId, snapshotId, limitedHardLimit, read.uris()));
+    }
+
+    /**
+     * Stream a playlist together with its tracks. The playlist as returned by Spotify already contains the first page
+     * of its tracks, so the playlist's data, its snapshot identifier and the tracks of a playlist with at most one page
+     * of tracks are retrieved in a single request. Only the {@link #PLAYLIST_WITH_ITEMS_FIELDS} are retrieved. The
+     * tracks are taken from the shared {@link PlaylistTrackCache} if possible. Only if they are not cached, the tracks
+     * after the first page are paged, after which the snapshot identifier is verified and the tracks are cached like
+     * {@link #streamPlaylistTracksUris(String, String, int)} does. Callers that already know the tracks of some snapshot
+     * of the playlist should check whether it is still current with {@link #streamPlaylistSnapshotId(String)} instead,
+     * which does not transfer any tracks.
+     *
+     * @param playlistId the playlists unique identifier.
+     * @param hardLimit  the hard limit on the number of tracks to retrieve for the playlist.
+     * @return the playlist and its tracks, never null.
+     * @throws FatalRequestResponseException if the playlist does not exist or if it is not visible to the user (private but
+     *                                       owned by other user).
+     */
+    public PlaylistWithTracks streamPlaylistWithTracksUris(String playlistId, int hardLimit) throws FatalRequestResponseException {
+        final int limitedHardLimit = Math.min(hardLimit, MAXIMUM_PLAYLIST_SIZE);
+        var playlist = inFlightReads.execute("playlist-with-items:" + playlistId,
+                () -> apiRequest(getApi().getPlaylist(playlistId).fields(PLAYLIST_WITH_ITEMS_FIELDS).build()),
+                UnaryOperator.identity());
+        var simplified = toSimplifiedPlaylist(playlist);
+        var snapshotId = playlist.getSnapshotId();
+        if (trackCache != null && snapshotId != null) {
+            var cached = trackCache.get(playlistId, snapshotId, limitedHardLimit);
+            if (cached != null)
+                return new PlaylistWithTracks(simplified, new SnapshotTracks(snapshotId, cached));
+        }
+
+        var firstPage = playlist.getTracks();
+        var items = firstPage.getItems() == null ? new PlaylistTrack[0] : firstPage.getItems();
+        var embedded = Math.min(items.length, limitedHardLimit);
+        var tracks = new ArrayList<String>();
+        for (int i = 0; i < embedded; i++) {
+            if (items[i] != null && items[i].getTrack() != null)
+                tracks.add(items[i].getTrack().getUri());
+        }
+
+        var consistent = true;
+        var remaining = Math.min(firstPage.getTotal(), limitedHardLimit) - embedded;
+        if (remaining > 0) {
+            tracks.addAll(streamPlaylistItemsUris(playlistId, embedded, remaining));
+            // the playlist may have been modified while the remaining tracks were being retrieved
+            consistent = snapshotId != null && snapshotId.equals(streamPlaylistSnapshotId(playlistId));
+        }
+
+        if (snapshotId == null || !consistent)
+            return new PlaylistWithTracks(simplified, new SnapshotTracks(null, Collections.unmodifiableList(tracks)));
+        if (trackCache == null)
+            return new PlaylistWithTracks(simplified, new SnapshotTracks(snapshotId, Collections.unmodifiableList(tracks)));
+        return new PlaylistWithTracks(simplified, new SnapshotTracks(snapshotId, trackCache.put(playlistId, snapshotId, limitedHardLimit, tracks)));
+    }
+
     /**
      * Add tracks to a playlist. Note that this method may send multiple requests because Spotify imposes a size limit
      * of 100 on the amount of tracks to add in one request.
@@ -186,6 +447,20 @@ public class ShuffleApi {
      * @return the new snapshot identifier, never null.
      */
     public String addTracks(String playlistId, String snapshot, List<String> tracks) throws FatalRequestResponseException {
+        try {
+            return appendTracks(playlistId, snapshot, tracks, new AtomicInteger());
+        } finally {
+            forgetPlaylistReads(playlistId);
+        }
+    }
+
+    /**
+     * Add tracks to a playlist, one request of at most 100 tracks after another, such that the tracks are added in
+     * order.
+     *
+     * @param written incremented by the number of tracks of every request that succeeded.
+     */
+    private String appendTracks(String playlistId, String snapshot, List<String> tracks, AtomicInteger written) throws FatalRequestResponseException {
         int consumed = 0;
 
         while (consumed < tracks.size()) {
@@ -201,6 +476,7 @@ public class ShuffleApi {
                     .build()
             ).getSnapshotId();
 
+            written.addAndGet(capacity);
             consumed += capacity;
         }
         return snapshot;
@@ -218,25 +494,78 @@ public class ShuffleApi {
     public String removeTracks(String playlistId, String snapshot, List<String> tracks) throws FatalRequestResponseException {
         int removed = 0;
 
-        while (removed < tracks.size()) {
-            int capacity = Math.min(100, tracks.size() - removed);
-            JsonArray nextTracks = new JsonArray(capacity);
+        try {
+            while (removed < tracks.size()) {
+                int capacity = Math.min(100, tracks.size() - removed);
+                JsonArray nextTracks = new JsonArray(capacity);
 
-            for (int i = 0; i < capacity && i < tracks.size(); i++) {
-                var jsonObject = new JsonObject();
-                jsonObject.addProperty("uri", tracks.get(removed + i));
-                nextTracks.add(jsonObject);
+                for (int i = 0; i < capacity && i < tracks.size(); i++) {
+                    var jsonObject = new JsonObject();
+                    jsonObject.addProperty("uri", tracks.get(removed + i));
+                    nextTracks.add(jsonObject);
+                }
+
+                snapshot = apiRequest(getApi().removeItemsFromPlaylist(
+                                playlistId,
+                                nextTracks)
+                        .snapshotId(snapshot)
+                        .build()).getSnapshotId();
+
+                removed += capacity;
             }
+            return snapshot;
+        } finally {
+            forgetPlaylistReads(playlistId);
+        }
+    }
 
-            snapshot = apiRequest(getApi().removeItemsFromPlaylist(
-                            playlistId,
-                            nextTracks)
-                    .snapshotId(snapshot)
-                    .build()).getSnapshotId();
+    /**
+     * Replace all tracks of a playlist with the provided tracks, in the provided order. Note that this method may send
+     * multiple requests because Spotify imposes a size limit of 100 on the amount of tracks to replace in one request.
+     * The first 100 tracks replace the current tracks, the remaining tracks are appended afterward.
+     * <br><br>
+     * The playlist is not modified atomically: if appending a batch of tracks fails, the playlist only consists of the
+     * tracks that were written so far. In that case, the tracks that were not written yet are appended once more. If
+     * that fails as well, the playlist remains truncated: the tracks that were not written are logged at error level
+     * and carried by the thrown {@link TruncatedPlaylistException}, such that they can be restored.
+     *
+     * @param playlistId the unique identifier of the playlist to replace the tracks of.
+     * @param tracks     the URIs of the tracks the playlist should consist of, may be empty.
+     * @return the new snapshot identifier, never null.
+     * @throws FatalRequestResponseException if the tracks could not be replaced.
+     * @throws TruncatedPlaylistException    if the playlist was left truncated because the remaining tracks could not
+     *                                       be appended.
+     */
+    public String replaceTracks(String playlistId, List<String> tracks) throws FatalRequestResponseException {
+        int capacity = Math.min(100, tracks.size());
+        JsonArray firstTracks = new JsonArray(capacity);
 
-            removed += capacity;
+        for (int i = 0; i < capacity; i++) {
+            firstTracks.add(tracks.get(i));
+        }
+
+        try {
+            var replaced = new SnapshotResult.JsonUtil().createModelObject(apiRequest(getApi()
+                    .replacePlaylistsItems(playlistId, firstTracks)
+                    .build()
+            )).getSnapshotId();
+            var written = new AtomicInteger(capacity);
+            try {
+                return appendTracks(playlistId, replaced, tracks.subList(capacity, tracks.size()), written);
+            } catch (FatalRequestResponseException e) {
+                // the current tracks are gone, so the remaining tracks are appended once more rather than lost
+                LOGGER.warn("Appending tracks to playlist {} failed after {} out of {} tracks, appending the remaining tracks again: {}", playlistId, written.get(), tracks.size(), e.getMessage());
+                try {
+                    return appendTracks(playlistId, null, tracks.subList(written.get(), tracks.size()), written);
+                } catch (FatalRequestResponseException retry) {
+                    var unwritten = tracks.subList(written.get(), tracks.size());
+                    LOGGER.error("Playlist {} was left with {} out of {} tracks, the tracks that were not written are: {}", playlistId, written.get(), tracks.size(), String.join(",", unwritten));
+                    throw new TruncatedPlaylistException(String.format("Playlist %s was left with %s out of %s tracks: %s", playlistId, written.get(), tracks.size(), retry.getMessage()), playlistId, unwritten);
+                }
+            }
+        } finally {
+            forgetPlaylistReads(playlistId);
         }
-        return snapshot;
     }
 
     /**
@@ -250,12 +579,28 @@ public class ShuffleApi {
      * @return the new snapshot identifier, never null.
      */
     public String reorderTrack(String playlistId, int range_start, int insert_before, String snapshot) throws FatalRequestResponseException {
-        return apiRequest(getApi()
+        return reorderTracks(playlistId, range_start, 1, insert_before, snapshot);
+    }
+
+    /**
+     * Reorder a range of consecutive tracks within a single request.
+     *
+     * @param playlistId    The unique identifier of the playlist.
+     * @param range_start   the current index of the first track of the range you wish to reorder.
+     * @param range_length  the number of consecutive tracks to reorder, at least 1.
+     * @param insert_before the index before which the range should be inserted, as it was before the reorder.
+     * @param snapshot      the current snapshot identifier of the playlist.
+     * @return the new snapshot identifier, never null.
+     */
+    public String reorderTracks(String playlistId, int range_start, int range_length, int insert_before, String snapshot) throws FatalRequestResponseException {
+        var newSnapshot = apiRequest(getApi()
                 .reorderPlaylistsItems(playlistId, range_start, insert_before)
-                .range_length(1)
+                .range_length(range_length)
                 .snapshot_id(snapshot)
                 .build()
         ).getSnapshotId();
+        forgetPlaylistReads(playlistId);
+        return newSnapshot;
     }
 
     /**
@@ -267,12 +612,14 @@ public class ShuffleApi {
      * @return the newly created playlist's details, never null.
      */
     public Playlist uploadPlaylist(String playlistName, String playlistDescription) throws FatalRequestResponseException {
-        return apiRequest(getApi()
+        var playlist = apiRequest(getApi()
                 .createPlaylist(getUserId(), playlistName)
                 .collaborative(false)
                 .public_(true)
                 .description(playlistDescription)
                 .build());
+        inFlightReads.forget((key) -> key.startsWith("user-playlists:"));
+        return playlist;
     }
 
     /**
@@ -289,27 +636,105 @@ public class ShuffleApi {
         return user.getDisplayName();
     }
 
+    /**
+     * Make sure reads of the playlist that started before it was modified are not shared with reads that start after
+     * the modification.
+     */
+    private void forgetPlaylistReads(String playlistId) {
+        inFlightReads.forget((key) -> key.equals("playlist:" + playlistId)
+                || key.equals("playlist-metadata:" + playlistId)
+                || key.equals("playlist-with-items:" + playlistId)
+                || key.equals("playlist-snapshot:" + playlistId)
+                || key.startsWith("playlist-tracks:" + playlistId + ":")
+                || key.startsWith("playlist-snapshot-tracks:" + playlistId + ":"));
+    }
+
     private <T> T apiRequest(IRequest<T> request) throws FatalRequestResponseException {
         return requestHandler.handleRequest(request);
     }
 
+    private <T> CompletableFuture<T> apiRequestAsync(IRequest<T> request) {
+        return requestHandler.handleRequestAsync(request);
+    }
+
+    /**
+     * Wait for an asynchronous request, unwrapping the {@link FatalRequestResponseException} it may have failed with.
+     * If the waiting thread is interrupted, the request is cancelled, such that it sends no further requests, and the
+     * thread's interrupt status is restored.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws FatalRequestResponseException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new FatalRequestResponseException("Interrupted while waiting for a response");
+        } catch (ExecutionException | CancellationException e) {
+            var cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof FatalRequestResponseException fatal)
+                throw fatal;
+            if (cause instanceof RuntimeException runtime)
+                throw runtime;
+            if (cause instanceof java.lang.Error error)
+                throw error;
+            throw new FatalRequestResponseException(cause.getMessage());
+        }
+    }
+
     private SpotifyApi getApi() {
         return api;
     }
 
-    private synchronized void refreshAccessToken() throws FatalRequestResponseException {
-        // prevent another refresh if it was recently refreshed
-        if (System.currentTimeMillis() < accessTokenValidUntilAtLeast) {
-            return;
-        }
-        if (api.getRefreshToken() == null) {
-            LOGGER.error("An attempt was made to refresh credentials for which we do not have a refresh token");
-            throw new FatalRequestResponseException(String.format("Could not refresh credentials for '%s', there was no refresh token", user.getDisplayName()));
-        }
+    /**
+     * Get the executor on which expired data derived from this api, such as playlist metadata and the user's library,
+     * is reloaded while the expired data is still being served.
+     *
+     * @return the executor, or null if expired data is reloaded by the reader that notices the expiry.
+     */
+    public Executor getRevalidationExecutor() {
+        return backgroundExecutor;
+    }
 
-        long issuedSince = System.currentTimeMillis();
-        var credentials = requestHandler.handleRequest(getApi().authorizationCodeRefresh().build());
-        assignCredentials(new TrueShuffleUserCredentials(issuedSince, credentials));
+    /**
+     * Refresh the access token ahead of its expiry, such that requests do not have to be rejected by Spotify first.
+     * Has no effect if the access token was refreshed very recently.
+     *
+     * @throws FatalRequestResponseException when the access token cannot be refreshed.
+     */
+    public void refreshCredentials() throws FatalRequestResponseException {
+        refreshAccessToken();
+    }
+
+    /**
+     * Get the moment at which the current access token expires, based on the most recently assigned credentials.
+     *
+     * @return the expiry time in milliseconds since the UNIX epoch, or 0 if the expiry time is unknown.
+     */
+    public synchronized long getAccessTokenExpiresAt() {
+        var current = getCredentials();
+        if (current.expiresInSeconds() <= 0)
+            return 0;
+        return current.issuedSinceEpoch() + TimeUnit.SECONDS.toMillis(current.expiresInSeconds());
+    }
+
+    private void refreshAccessToken() throws FatalRequestResponseException {
+        refreshLock.lock();
+        try {
+            // prevent another refresh if it was recently refreshed
+            if (System.currentTimeMillis() < accessTokenValidUntilAtLeast) {
+                return;
+            }
+            if (getRefreshToken() == null) {
+                LOGGER.error("An attempt was made to refresh credentials for which we do not have a refresh token");
+                throw new FatalRequestResponseException(String.format("Could not refresh credentials for '%s', there was no refresh token", user.getDisplayName()));
+            }
+
+            long issuedSince = System.currentTimeMillis();
+            var credentials = requestHandler.handleRequest(getApi().authorizationCodeRefresh().build());
+            assignCredentials(new TrueShuffleUserCredentials(issuedSince, credentials));
+        } finally {
+            refreshLock.unlock();
+        }
     }
 
     /**
@@ -366,4 +791,104 @@ public class ShuffleApi {
             credentials = new TrueShuffleUserCredentials(0, getAccessToken(), getRefreshToken(), 0);
         return credentials;
     }
+
+    /**
+     * Builds a {@link ShuffleApi}. Every collaborator besides the encapsulated api and the user is optional and absent
+     * unless it is set.
+     */
+    public static final class Builder {
+        private final SpotifyApi api;
+        private final User user;
+        private Executor pagingExecutor;
+        private RateLimiter rateLimiter;
+        private RequestListener requestListener;
+        private PlaylistTrackCache trackCache;
+        private Executor backgroundExecutor;
+        private Executor requestExecutor;
+
+        private Builder(SpotifyApi api, User user) {
+            this.api = Objects.requireNonNull(api);
+            this.user = Objects.requireNonNull(user);
+        }
+
+        /**
+         * @param pagingExecutor the executor on which loaded pages of large collections are processed (nullable).
+         *                       Pages are requested without blocking, at most {@link #PAGING_CONCURRENCY} at a time
+         *                       once the total number of items is known, regardless of this executor. If null, loaded
+         *                       pages are processed on the thread that completed their request.
+         * @return this builder.
+         */
+        public Builder setPagingExecutor(Executor pagingExecutor) {
+            this.pagingExecutor = pagingExecutor;
+            return this;
+        }
+
+        /**
+         * @param rateLimiter the limiter that gates all requests of the api (nullable), usually shared by all users of
+         *                    the same client. If null, requests are not rate limited.
+         * @return this builder.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param requestListener the listener that is notified of all requests of the api (nullable), usually shared
+         *                        by all users of the same client.
+         * @return this builder.
+         */
+        public Builder setRequestListener(RequestListener requestListener) {
+            this.requestListener = requestListener;
+            return this;
+        }
+
+        /**
+         * @param trackCache the cache of playlist tracks by snapshot (nullable), usually shared by all users of the
+         *                   same client. If null, tracks are always retrieved from Spotify.
+         * @return this builder.
+         */
+        public Builder setTrackCache(PlaylistTrackCache trackCache) {
+            this.trackCache = trackCache;
+            return this;
+        }
+
+        /**
+         * @param backgroundExecutor the executor on which expired playlist metadata and libraries are reloaded while
+         *                           the expired data is still being served and on which asynchronous requests refresh
+         *                           the access token (nullable), usually owned and shut down by the client. If null,
+         *                           expired data is always reloaded by the reader that notices the expiry and access
+         *                           tokens are refreshed on the scheduler of the {@link RequestHandler}.
+         * @return this builder.
+         */
+        public Builder setBackgroundExecutor(Executor backgroundExecutor) {
+            this.backgroundExecutor = backgroundExecutor;
+            return this;
+        }
+
+        /**
+         * @param requestExecutor the executor on which the pages of large collections are requested (nullable),
+         *                        usually shared by all users of the same client. Its number of threads bounds the
+         *                        number of pages in flight. If null, the default executor of the {@link RequestHandler}
+         *                        is used, see {@link RequestHandler.Builder#setRequestExecutor(Executor)}.
+         * @return this builder.
+         */
+        public Builder setRequestExecutor(Executor requestExecutor) {
+            this.requestExecutor = requestExecutor;
+            return this;
+        }
+
+        /**
+         * @return a new api with the collaborators set so far, never null.
+         */
+        public ShuffleApi build() {
+            return new ShuffleApi(this);
+        }
+    }
+
+    /**
+     * The tracks of a playlist that were read, together with the number of pages it took to read them.
+     */
+    private record TracksRead(List<String> uris, int pages) {
+    }
 }
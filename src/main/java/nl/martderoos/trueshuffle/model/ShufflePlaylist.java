@@ -3,24 +3,48 @@ package nl.martderoos.trueshuffle.model;
 import nl.martderoos.trueshuffle.adhoc.LazyExpiringApiData;
 import nl.martderoos.trueshuffle.exceptions.ImmutablePlaylistException;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import nl.martderoos.trueshuffle.utility.PlaylistUtil;
+import nl.martderoos.trueshuffle.utility.ReorderPlan;
+import nl.martderoos.trueshuffle.utility.ReorderPlanner;
+import nl.martderoos.trueshuffle.utility.TrackIdList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.model_objects.specification.Image;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Thread-safe class for modifying a user's playlist data (if allowed).
+ * <br><br>
+ * Modifications of the playlist are serialized, but reads never wait for a modification in progress: the playlist's
+ * data and tracks are immutable snapshots that are replaced once a modification completes. Reads during a modification
+ * therefore see the playlist as it was before the modification.
+ * <br><br>
+ * The playlist's tracks are cached together with the snapshot identifier of the playlist they were retrieved from.
+ * Once the cached tracks expire, only the current snapshot identifier is retrieved. If the playlist has not changed
+ * since, the cached tracks are validated again instead of being retrieved again. Tracks that were never loaded are
+ * retrieved together with the playlist, whose first page of tracks is embedded in it.
+ * <br><br>
+ * The playlist's data (name, images, snapshot identifier) is served stale for a while after it expires, while it is
+ * reloaded on the api's revalidation executor. Modifications always reload the data first.
  */
 public class ShufflePlaylist {
     /**
      * The maximum number of tracks we may retrieve for any playlist. Currently, 2000.
      */
     public static final int PLAYLIST_TRACKS_HARD_LIMIT = 2000;
+    /**
+     * The amount of time the playlist's data is valid for, and the amount of time after which expired data is no
+     * longer served while it is reloaded.
+     */
+    private static final long PLAYLIST_DATA_REFRESH_TIMEOUT_MINUTES = 10;
     private static final Logger LOGGER = LogManager.getLogger(ShufflePlaylist.class);
 
     private final ShuffleApi api;
@@ -29,8 +53,12 @@ public class ShufflePlaylist {
     private final String playlistId;
     private final String ownerId;
 
+    // held for the entire duration of a modification of the playlist, never by reads
+    private final ReentrantLock writeLock = new ReentrantLock();
     private final LazyExpiringApiData<PlaylistSimplified> playlistData;
-    private final LazyExpiringApiData<List<String>> playlistTracksUris;
+    private final LazyExpiringApiData<TrackList> playlistTracks;
+    // the most recently known tracks, kept after they expire to be revalidated by snapshot identifier
+    private volatile TrackList knownTracks;
 
     /**
      * Create a new shuffle playlist.
@@ -40,15 +68,21 @@ public class ShufflePlaylist {
      * @param mutable  whether the playlist is mutable
      */
     public ShufflePlaylist(ShuffleApi api, PlaylistSimplified playlist, boolean mutable) {
+        this(api, playlist, mutable, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    ShufflePlaylist(ShuffleApi api, PlaylistSimplified playlist, boolean mutable, long tracksRefreshTimeoutMillis) {
         this.api = Objects.requireNonNull(api);
         this.mutable = mutable;
 
         this.playlistId = playlist.getId();
         this.ownerId = playlist.getOwner().getId();
 
-        playlistData = new LazyExpiringApiData<>(() -> api.streamPlaylistSimplified(playlistId), true, 10, TimeUnit.MINUTES);
+        playlistData = new LazyExpiringApiData<>(() -> api.streamPlaylistSimplified(playlistId), true,
+                PLAYLIST_DATA_REFRESH_TIMEOUT_MINUTES, TimeUnit.MINUTES,
+                api.getRevalidationExecutor(), PLAYLIST_DATA_REFRESH_TIMEOUT_MINUTES);
         playlistData.setData(Objects.requireNonNull(playlist));
-        playlistTracksUris = new LazyExpiringApiData<>(() -> api.streamPlaylistTracksUris(playlistId, PLAYLIST_TRACKS_HARD_LIMIT));
+        playlistTracks = new LazyExpiringApiData<>(this::reloadTracks, tracksRefreshTimeoutMillis, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -61,38 +95,205 @@ public class ShufflePlaylist {
      * @param tracksToRemove The tracks to remove from the playlist (nullable)
      * @throws ImmutablePlaylistException if this playlist is immutable.
      */
-    public synchronized void addAndRemoveTracks(List<String> tracksToAdd, List<String> tracksToRemove) throws FatalRequestResponseException, ImmutablePlaylistException {
-        verifyMutable();
-        String playlistId = getPlaylistId();
-        String snapshot = getSnapshotId();
+    public void addAndRemoveTracks(List<String> tracksToAdd, List<String> tracksToRemove) throws FatalRequestResponseException, ImmutablePlaylistException {
+        writeLock.lock();
+        try {
+            verifyMutable();
+            String playlistId = getPlaylistId();
+            // the data may be served stale, so it is reloaded to write against the current snapshot
+            String snapshot = playlistData.getData(true).getSnapshotId();
 
-        boolean changed = false;
-        if (tracksToRemove != null && !tracksToRemove.isEmpty()) {
-            snapshot = api.removeTracks(playlistId, snapshot, tracksToRemove);
-            changed = true;
-        }
+            boolean changed = false;
+            if (tracksToRemove != null && !tracksToRemove.isEmpty()) {
+                snapshot = api.removeTracks(playlistId, snapshot, tracksToRemove);
+                changed = true;
+            }
 
-        if (tracksToAdd != null && !tracksToAdd.isEmpty()) {
-            snapshot = api.addTracks(playlistId, snapshot, tracksToAdd);
-            changed = true;
+            if (tracksToAdd != null && !tracksToAdd.isEmpty()) {
+                snapshot = api.addTracks(playlistId, snapshot, tracksToAdd);
+                changed = true;
+            }
+
+            if (changed) {
+                playlistData.invalidate();
+                playlistTracks.invalidate();
+            }
+        } finally {
+            writeLock.unlock();
         }
+    }
 
-        if (changed) {
-            playlistData.invalidate();
-            playlistTracksUris.invalidate();
+    /**
+     * Shuffles the playlist's tracks in-place using {@link EShuffleMode#REORDER}.
+     *
+     * @throws ImmutablePlaylistException if this playlist is immutable.
+     * @see #shuffleInPlace(EShuffleMode)
+     */
+    public void shuffleInPlace() throws FatalRequestResponseException, ImmutablePlaylistException {
+        shuffleInPlace(EShuffleMode.REORDER);
+    }
+
+    /**
+     * Shuffles the playlist's tracks in-place following the provided mode. The new order is computed locally and then
+     * applied using the fewest requests possible, see {@link ReorderPlanner}. This method will throw an exception if the
+     * user of the api this playlist is linked to is not the owner of this playlist. This method will throw an exception
+     * if you are not allowed to make modifications to this playlist. Check {@link #isMutable()} beforehand.
+     * <br><br>
+     * If not all tracks of the playlist could be retrieved (for example, because the playlist exceeds
+     * {@link #PLAYLIST_TRACKS_HARD_LIMIT}), then the new order cannot be computed locally. In that case, this method
+     * falls back to moving tracks at random to the front, one track at a time, regardless of the provided mode to
+     * prevent tracks from being lost. Local files cannot be written back to a playlist, so if the playlist contains any,
+     * {@link EShuffleMode#REORDER} is used instead of {@link EShuffleMode#REPLACE}.
+     *
+     * @param mode the strategy to use for shuffling.
+     * @throws ImmutablePlaylistException if this playlist is immutable.
+     */
+    public void shuffleInPlace(EShuffleMode mode) throws FatalRequestResponseException, ImmutablePlaylistException {
+        writeLock.lock();
+        try {
+            verifyMutable();
+            Objects.requireNonNull(mode);
+            var playlist = playlistData.getData(true);
+            int total = playlist.getTracks().getTotal();
+            var tracks = getTracks(playlist.getSnapshotId());
+
+            if (tracks.size() != total) {
+                LOGGER.info("Cannot compute a shuffle for {} locally, only {} out of {} tracks are known", playlist.getName(), tracks.size(), total);
+                shuffleByMovingToFront();
+                return;
+            }
+
+            var allowReplace = mode == EShuffleMode.REPLACE;
+            if (allowReplace && PlaylistUtil.containsLocalFiles(tracks)) {
+                LOGGER.info("Cannot replace the tracks of {} because it contains local files, reordering instead", playlist.getName());
+                allowReplace = false;
+            }
+
+            var shuffled = new ArrayList<>(tracks);
+            Collections.shuffle(shuffled);
+            var plan = ReorderPlanner.plan(tracks, shuffled, allowReplace);
+
+            LOGGER.info("Shuffling {} in-place with {} requests for {} tracks", playlist.getName(), plan.getRequestCount(), total);
+            execute(plan, playlist.getSnapshotId());
+        } finally {
+            writeLock.unlock();
         }
     }
 
     /**
-     * Shuffles the playlist's tracks in-place. Internally this is done by moving songs at random to the front,
-     * ensuring that every song is only reordered once. This method will throw an exception if the user of the api this
-     * playlist is linked to is not the owner of this playlist. This method will throw an exception if you are not
-     * allowed to make modifications to this playlist. Check {@link #isMutable()} beforehand.
+     * Reorders the playlist's tracks into the provided order using the fewest requests possible, see
+     * {@link ReorderPlanner}. This method will throw an exception if you are not allowed to make modifications to this
+     * playlist. Check {@link #isMutable()} beforehand.
      *
+     * @param targetOrder  the tracks of this playlist in the desired order.
+     * @param allowReplace whether all tracks may be replaced at once if that requires fewer requests. Note that
+     *                     replacing tracks resets the date at which they were added to the playlist.
      * @throws ImmutablePlaylistException if this playlist is immutable.
+     * @throws IllegalArgumentException   if the target order is not a permutation of all the playlist's tracks.
+     */
+    public void reorder(List<String> targetOrder, boolean allowReplace) throws FatalRequestResponseException, ImmutablePlaylistException {
+        writeLock.lock();
+        try {
+            verifyMutable();
+            var playlist = playlistData.getData(true);
+            var tracks = getTracks(playlist.getSnapshotId());
+            if (tracks.size() != playlist.getTracks().getTotal())
+                throw new IllegalArgumentException(String.format("Cannot reorder %s, only %s out of %s tracks are known", playlist.getName(), tracks.size(), playlist.getTracks().getTotal()));
+
+            execute(ReorderPlanner.plan(tracks, targetOrder, allowReplace), playlist.getSnapshotId());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the tracks of the playlist as of the provided (freshly retrieved) snapshot, retrieving them only if the
+     * playlist changed since the tracks were last retrieved.
+     */
+    private List<String> getTracks(String snapshotId) throws FatalRequestResponseException {
+        var tracks = loadTracks(snapshotId);
+        if (tracks.snapshotId() != null)
+            playlistTracks.setData(tracks);
+        return tracks.uris();
+    }
+
+    /**
+     * Reload the tracks of the playlist once they have expired. If tracks are known, checking whether they are still
+     * valid is cheaper than retrieving the playlist, so only the snapshot identifier is retrieved. If it changed, the
+     * tracks of the new snapshot are loaded, from the api's cache if possible. Otherwise, the tracks were never loaded,
+     * so the playlist is retrieved together with the first page of its tracks, which also updates the playlist's data.
+     */
+    private TrackList reloadTracks() throws FatalRequestResponseException {
+        if (knownTracks != null) {
+            var snapshotId = api.streamPlaylistSnapshotId(playlistId);
+            var unchanged = getKnownTracks(snapshotId);
+            if (unchanged != null)
+                return unchanged;
+            // the playlist's data refers to an older snapshot as well
+            playlistData.invalidate();
+            return loadTracks(snapshotId);
+        }
+
+        var loaded = api.streamPlaylistWithTracksUris(playlistId, PLAYLIST_TRACKS_HARD_LIMIT);
+        playlistData.setData(loaded.playlist());
+        return remember(loaded.tracks());
+    }
+
+    private TrackList getKnownTracks(String snapshotId) {
+        var known = knownTracks;
+        if (known != null && snapshotId != null && snapshotId.equals(known.snapshotId())) {
+            LOGGER.debug("Tracks of playlist {} are unchanged since snapshot {}", playlistId, snapshotId);
+            return known;
+        }
+        return null;
+    }
+
+    private TrackList loadTracks(String snapshotId) throws FatalRequestResponseException {
+        var known = getKnownTracks(snapshotId);
+        if (known != null)
+            return known;
+        // the snapshot identifier is retrieved before the tracks, so a modification in between causes a reload later
+        return remember(api.streamPlaylistTracksUris(playlistId, snapshotId, PLAYLIST_TRACKS_HARD_LIMIT));
+    }
+
+    /**
+     * Keep the loaded tracks as the known tracks of their snapshot, unless they cannot be attributed to a single
+     * snapshot because the playlist was modified while they were being loaded.
+     */
+    private TrackList remember(SnapshotTracks loaded) {
+        var tracks = new TrackList(loaded.snapshotId(), TrackIdList.copyOf(loaded.trackUris()));
+        if (loaded.isConsistent()) {
+            knownTracks = tracks;
+        } else {
+            LOGGER.debug("Tracks of playlist {} changed while they were being loaded", playlistId);
+        }
+        return tracks;
+    }
+
+    private void setTracks(String snapshotId, List<String> uris) {
+        var tracks = new TrackList(snapshotId, TrackIdList.copyOf(uris));
+        knownTracks = tracks;
+        playlistTracks.setData(tracks);
+    }
+
+    private void execute(ReorderPlan plan, String snapshot) throws FatalRequestResponseException {
+        if (plan.isReplace()) {
+            snapshot = api.replaceTracks(getPlaylistId(), plan.getTargetOrder());
+        } else {
+            for (var move : plan.getMoves()) {
+                snapshot = api.reorderTracks(getPlaylistId(), move.rangeStart(), move.rangeLength(), move.insertBefore(), snapshot);
+            }
+        }
+
+        playlistData.invalidate();
+        setTracks(snapshot, plan.getTargetOrder());
+    }
+
+    /**
+     * Shuffles by moving songs at random to the front, ensuring that every song is only reordered once. Does not
+     * require knowledge of the playlist's tracks.
      */
-    public synchronized void shuffleInPlace() throws FatalRequestResponseException, ImmutablePlaylistException {
-        verifyMutable();
+    private void shuffleByMovingToFront() throws FatalRequestResponseException {
         var id = getPlaylistId();
         var playlist = playlistData.getData();
         var snapshot = playlist.getSnapshotId();
@@ -108,7 +309,40 @@ public class ShufflePlaylist {
         }
 
         playlistData.invalidate();
-        playlistTracksUris.invalidate();
+        playlistTracks.invalidate();
+    }
+
+    /**
+     * Replace all tracks of this playlist with the provided tracks, in the provided order, by leveraging the Spotify
+     * API. This method will throw an exception if you are not allowed to make modifications to this playlist.
+     * Check {@link #isMutable()} beforehand.
+     *
+     * @param tracks the tracks this playlist should consist of (non-nullable).
+     * @throws ImmutablePlaylistException if this playlist is immutable.
+     */
+    public void replaceTracks(List<String> tracks) throws FatalRequestResponseException, ImmutablePlaylistException {
+        writeLock.lock();
+        try {
+            verifyMutable();
+            var snapshot = api.replaceTracks(getPlaylistId(), tracks);
+
+            playlistData.invalidate();
+            setTracks(snapshot, tracks);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replace the playlist's data with more recent data, for example after the playlist was found to have been
+     * modified or renamed. Cached tracks remain valid if they belong to the snapshot of the provided data.
+     *
+     * @param playlist the playlist's more recent data.
+     */
+    void update(PlaylistSimplified playlist) {
+        if (!playlistId.equals(playlist.getId()))
+            throw new IllegalArgumentException(String.format("Cannot update playlist %s with data of %s", playlistId, playlist.getId()));
+        playlistData.setData(playlist);
     }
 
     private void verifyMutable() throws ImmutablePlaylistException {
@@ -138,18 +372,14 @@ public class ShufflePlaylist {
         return ownerId;
     }
 
-    private synchronized String getSnapshotId() throws FatalRequestResponseException {
-        return playlistData.getData().getSnapshotId();
-    }
-
     /**
      * Attempt to retrieve the playlist's tracks
      *
      * @return the playlist's tracks
      * @throws FatalRequestResponseException if an attempt to get the playlist's tracks from the server fails
      */
-    public synchronized List<String> getPlaylistTracksUris() throws FatalRequestResponseException {
-        return playlistTracksUris.getData();
+    public List<String> getPlaylistTracksUris() throws FatalRequestResponseException {
+        return playlistTracks.getData().uris();
     }
 
     /**
@@ -158,7 +388,7 @@ public class ShufflePlaylist {
      * @return the name of the playlist
      * @throws FatalRequestResponseException if an attempt to get the playlist's name from the server fails
      */
-    public synchronized String getName() throws FatalRequestResponseException {
+    public String getName() throws FatalRequestResponseException {
         return playlistData.getData().getName();
     }
 
@@ -168,7 +398,16 @@ public class ShufflePlaylist {
      * @return the array of images (same image, different resolution)
      * @throws FatalRequestResponseException if an attempt to get the playlist's thumbnails from the server fails
      */
-    public synchronized Image[] getImages() throws FatalRequestResponseException {
+    public Image[] getImages() throws FatalRequestResponseException {
         return playlistData.getData().getImages();
     }
+
+    /**
+     * The tracks of a playlist as of a snapshot.
+     *
+     * @param snapshotId the snapshot identifier of the playlist the tracks were retrieved from (nullable if unknown).
+     * @param uris       the URIs of the tracks.
+     */
+    private record TrackList(String snapshotId, TrackIdList uris) {
+    }
 }
@@ -0,0 +1,90 @@
+package nl.martderoos.trueshuffle.model;
+
+import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Thread-safe registry that guarantees that at most one {@link ShufflePlaylist} exists per playlist identifier, such
+ * that every playlist has a single set of caches and a single write lock, no matter how it was found. Playlists are
+ * only weakly referenced by the registry: a playlist that is no longer referenced anywhere else can be garbage
+ * collected, after which it is created anew when it is requested again.
+ */
+final class ShufflePlaylistRegistry {
+    private final ShuffleApi api;
+    private final Predicate<PlaylistSimplified> isMutable;
+    private final ConcurrentHashMap<String, PlaylistReference> playlists = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ShufflePlaylist> collected = new ReferenceQueue<>();
+
+    /**
+     * Create a new, empty registry.
+     *
+     * @param api       the api that the playlists may leverage.
+     * @param isMutable decides whether a newly created playlist is mutable.
+     */
+    ShufflePlaylistRegistry(ShuffleApi api, Predicate<PlaylistSimplified> isMutable) {
+        this.api = Objects.requireNonNull(api);
+        this.isMutable = Objects.requireNonNull(isMutable);
+    }
+
+    /**
+     * @param playlistId the unique identifier of the playlist.
+     * @return the playlist with the provided identifier, or null if it is not registered.
+     */
+    ShufflePlaylist get(String playlistId) {
+        expungeCollected();
+        var reference = playlists.get(playlistId);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Get the playlist with the identifier of the provided data, creating it from the data if it is not registered.
+     * Note that the data of an existing playlist is not replaced.
+     *
+     * @param playlist the playlist's data.
+     * @return the one playlist with the identifier of the provided data, never null.
+     */
+    ShufflePlaylist getOrCreate(PlaylistSimplified playlist) {
+        expungeCollected();
+        var result = new ShufflePlaylist[1];
+        playlists.compute(playlist.getId(), (playlistId, reference) -> {
+            var existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                result[0] = existing;
+                return reference;
+            }
+            result[0] = new ShufflePlaylist(api, playlist, isMutable.test(playlist));
+            return new PlaylistReference(playlistId, result[0], collected);
+        });
+        return result[0];
+    }
+
+    /**
+     * @return the number of registered playlists, including those that were collected but not yet removed.
+     */
+    int size() {
+        expungeCollected();
+        return playlists.size();
+    }
+
+    private void expungeCollected() {
+        PlaylistReference reference;
+        while ((reference = (PlaylistReference) collected.poll()) != null) {
+            // the identifier may have been registered again in the meantime
+            playlists.remove(reference.playlistId, reference);
+        }
+    }
+
+    private static class PlaylistReference extends WeakReference<ShufflePlaylist> {
+        private final String playlistId;
+
+        private PlaylistReference(String playlistId, ShufflePlaylist playlist, ReferenceQueue<ShufflePlaylist> queue) {
+            super(playlist, queue);
+            this.playlistId = playlistId;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package nl.martderoos.trueshuffle.model;
+
+import java.util.List;
+
+/**
+ * The tracks of a playlist together with the snapshot they were retrieved from.
+ *
+ * @param snapshotId the snapshot identifier of the playlist the tracks belong to, or null if the tracks cannot be
+ *                   attributed to a single snapshot, for example because the playlist was modified while its tracks
+ *                   were being retrieved. In that case, the tracks may be a mix of several snapshots and should not be
+ *                   kept as the tracks of any snapshot.
+ * @param trackUris  the unmodifiable list of URIs of the playlist's tracks.
+ */
+public record SnapshotTracks(String snapshotId, List<String> trackUris) {
+    /**
+     * @return true if the tracks are known to belong to a single snapshot, false otherwise.
+     */
+    public boolean isConsistent() {
+        return snapshotId != null;
+    }
+}
@@ -3,40 +3,71 @@ package nl.martderoos.trueshuffle.model;
 
 import nl.martderoos.trueshuffle.adhoc.LazyExpiringApiData;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import nl.martderoos.trueshuffle.utility.PlaylistUtil;
+import nl.martderoos.trueshuffle.utility.TrackIdList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static nl.martderoos.trueshuffle.utility.PlaylistUtil.normalizeName;
 import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylist;
 
 /**
- * Thread-safe class that encapsulates a Spotify user's library.
+ * Thread-safe class that encapsulates a Spotify user's library. All playlists in the user's library are indexed by
+ * identifier and by name. When the index expires, it is refreshed incrementally: only playlists that were added,
+ * removed, renamed or modified (by snapshot identifier) since the previous refresh are updated.
+ * <br><br>
+ * Reads never wait for modifications of the library, such as a refresh of the index or the creation of a playlist.
+ * Once the index expires, it is still served while it is refreshed on the api's revalidation executor, so only the
+ * very first read of the library waits for it to be indexed.
  */
 public class UserLibrary {
     /**
      * The maximum number of liked tracks to retrieve for a specific user.
      */
     public static final int LIKED_TRACKS_HARD_LIMIT = 2000;
+    /**
+     * The maximum number of playlists in the user's library to index.
+     */
+    public static final int PLAYLISTS_HARD_LIMIT = 10_000;
+    /**
+     * The time during which a playlist that was added to the library is kept, even though Spotify does not list it yet.
+     */
+    public static final long ADDED_PLAYLIST_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final Logger LOGGER = LogManager.getLogger(UserLibrary.class);
     private final ShuffleApi api;
     private final String userId;
 
-    private final LazyExpiringApiData<List<String>> userLikedTracksUris;
+    private final LazyExpiringApiData<TrackIdList> userLikedTracksUris;
+    private final ShufflePlaylistRegistry registry;
+    private final ShufflePlaylistIndex playlistIndex = new ShufflePlaylistIndex();
     private final LazyExpiringApiData<ShufflePlaylistIndex> index;
 
     public UserLibrary(ShuffleApi api) {
+        this(api, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    UserLibrary(ShuffleApi api, long indexRefreshTimeoutMillis) {
         this.api = Objects.requireNonNull(api);
         this.userId = api.getUserId();
-        userLikedTracksUris = new LazyExpiringApiData<>(() -> api.streamUserLikedTracksUris(LIKED_TRACKS_HARD_LIMIT));
-        this.index = new LazyExpiringApiData<>(this::createIndex);
+        this.registry = new ShufflePlaylistRegistry(api, this::isOwner);
+        userLikedTracksUris = new LazyExpiringApiData<>(() -> TrackIdList.copyOf(api.streamUserLikedTracksUris(LIKED_TRACKS_HARD_LIMIT)));
+        // an expired index is served while it is refreshed, it is refreshed in place anyway
+        this.index = new LazyExpiringApiData<>(this::refreshIndex, true, indexRefreshTimeoutMillis, TimeUnit.MILLISECONDS,
+                api.getRevalidationExecutor(), indexRefreshTimeoutMillis);
     }
 
     /**
      * Get the URIs of the user's liked tracks.
      *
-     * @return the list of user liked tracks with a maximum of {@link #LIKED_TRACKS_HARD_LIMIT} elements.
+     * @return the unmodifiable list of user liked tracks with a maximum of {@link #LIKED_TRACKS_HARD_LIMIT} elements.
      */
-    public synchronized List<String> getUserLikedTracksUris() throws FatalRequestResponseException {
+    public List<String> getUserLikedTracksUris() throws FatalRequestResponseException {
         return userLikedTracksUris.getData();
     }
 
@@ -46,7 +77,7 @@ public class UserLibrary {
      * @param limit The maximum number of playlists to retrieve.
      * @return A shallow copy of the underlying playlists.
      */
-    public synchronized List<PlaylistSimplified> getMostRecentPlaylists(int limit) throws FatalRequestResponseException {
+    public List<PlaylistSimplified> getMostRecentPlaylists(int limit) throws FatalRequestResponseException {
         return new ArrayList<>(this.index.getData().getMostRecentPlaylists(limit));
     }
 
@@ -58,22 +89,26 @@ public class UserLibrary {
      * @return the playlist identified by the provided id, never null.
      * @throws FatalRequestResponseException if the playlist does not exist or is not visible to this user.
      */
-    public synchronized ShufflePlaylist getPlaylistById(String playlistId) throws FatalRequestResponseException {
+    public ShufflePlaylist getPlaylistById(String playlistId) throws FatalRequestResponseException {
         return index.getData().getPlaylistById(playlistId);
     }
 
     /**
-     * Retrieves a playlist from the index by its name
+     * Retrieves a playlist from the index by its name. Names are compared after normalization, see
+     * {@link PlaylistUtil#normalizeName(String)}. The index contains the user's entire library, so playlists owned by the user are
+     * resolved locally. Only if no playlist in the user's library has the provided name and other users' playlists are
+     * allowed, the Spotify API is searched for the first playlist with the name. The result of such a search, including
+     * the absence of any playlist, is cached until the index is refreshed.
      *
      * @param playlistName The playlist name to search for
-     * @param mustBeOwner      Whether we should only include playlists that are owned by the current user
+     * @param mustBeOwner  Whether we should only include playlists that are owned by the current user
      */
-    public synchronized List<ShufflePlaylist> getPlaylistByName(String playlistName, boolean mustBeOwner) throws FatalRequestResponseException {
-        var result = index.getData().getPlaylistsByName(playlistName);
+    public List<ShufflePlaylist> getPlaylistByName(String playlistName, boolean mustBeOwner) throws FatalRequestResponseException {
+        var index = this.index.getData();
         if (mustBeOwner) {
-            return result.stream().filter(this::isOwner).collect(Collectors.toList());
+            return index.getLibraryPlaylistsByName(playlistName).stream().filter(this::isOwner).collect(Collectors.toList());
         }
-        return result;
+        return index.getPlaylistsByName(playlistName);
     }
 
     /**
@@ -83,16 +118,15 @@ public class UserLibrary {
      * @param description The description of the new playlist.
      * @return The newly created playlist.
      */
-    public synchronized ShufflePlaylist createPlaylist(String name, String description) throws FatalRequestResponseException {
+    public ShufflePlaylist createPlaylist(String name, String description) throws FatalRequestResponseException {
         var newPlaylist = api.uploadPlaylist(name, description);
         var simplified = toSimplifiedPlaylist(newPlaylist);
         return index.getData().addPlaylist(simplified);
     }
 
-    private ShufflePlaylistIndex createIndex() throws FatalRequestResponseException {
-        var index = new ShufflePlaylistIndex();
-        index.reload();
-        return index;
+    private ShufflePlaylistIndex refreshIndex() throws FatalRequestResponseException {
+        playlistIndex.refresh();
+        return playlistIndex;
     }
 
     /**
@@ -117,83 +151,228 @@ public class UserLibrary {
     }
 
     /**
-     * Class that allows lookup of playlists by identifier and name. Note that the index search by name is only updated
-     * sometimes and may be inconsistent between multiple requests.
+     * Class that allows lookup of playlists by identifier and name. Lookups only read concurrent maps and immutable
+     * lists, so they never wait for a modification of the index. Modifications are serialized and never hold the lock
+     * while waiting on the Spotify API. Note that the index search by name is only updated sometimes and may be
+     * inconsistent between multiple requests.
      */
     private class ShufflePlaylistIndex {
-        private List<PlaylistSimplified> playlists;
-        private final Map<String, ShufflePlaylist> pidToPlaylist = new HashMap<>();
-        private final Map<String, List<ShufflePlaylist>> nameToPlaylist = new HashMap<>();
-
-        public void reload() throws FatalRequestResponseException {
-            clear();
-            this.playlists = api.streamUserPlaylists(50);
-            for (var simplified : playlists) {
-                var mutable = isOwner(simplified);
-                var shufflePlaylist = new ShufflePlaylist(api, simplified, mutable);
-                put(shufflePlaylist, false);
+        private final Object writeLock = new Object();
+        private volatile List<PlaylistSimplified> playlists = List.of();
+        // the indexed playlists, all of which are obtained from the registry
+        private final Map<String, ShufflePlaylist> pidToPlaylist = new ConcurrentHashMap<>();
+        // by normalized name, the lists are immutable and replaced on every modification
+        private final Map<String, List<ShufflePlaylist>> nameToPlaylist = new ConcurrentHashMap<>();
+        // by normalized name, the results of searches for playlists outside the library, cleared on every refresh
+        private final Map<String, List<ShufflePlaylist>> searchResults = new ConcurrentHashMap<>();
+        // by identifier, the playlists outside the library that were looked up by identifier, cleared on every refresh
+        private final Map<String, ShufflePlaylist> lookups = new ConcurrentHashMap<>();
+        // only accessed while holding the write lock
+        private final Set<String> libraryIds = new HashSet<>();
+        // the normalized name under which every playlist is listed in nameToPlaylist, only accessed while holding the write lock
+        private final Map<String, String> pidToName = new HashMap<>();
+        // by identifier, the playlists that were added but not yet listed by Spotify, only accessed while holding the write lock
+        private final Map<String, AddedPlaylist> added = new LinkedHashMap<>();
+
+        /**
+         * Retrieve all playlists of the user's library and update the playlists that changed since the previous
+         * refresh. Playlists whose snapshot identifier and name are unchanged are kept as they are, including their
+         * cached tracks. Playlists that were added while the library was retrieved, or at most
+         * {@link #ADDED_PLAYLIST_GRACE_MILLIS} before, are kept until Spotify lists them.
+         */
+        public void refresh() throws FatalRequestResponseException {
+            var startedAt = System.currentTimeMillis();
+            var latest = api.streamUserPlaylists(PLAYLISTS_HARD_LIMIT);
+            synchronized (writeLock) {
+                var previous = new HashMap<String, PlaylistSimplified>();
+                for (var simplified : playlists) {
+                    previous.put(simplified.getId(), simplified);
+                }
+
+                int changed = 0;
+                var latestIds = new HashSet<String>();
+                for (var simplified : latest) {
+                    latestIds.add(simplified.getId());
+                    var playlist = pidToPlaylist.get(simplified.getId());
+                    if (playlist == null) {
+                        // the playlist may still be in use, for example after it was removed from and re-added to the library
+                        playlist = registry.getOrCreate(simplified);
+                        playlist.update(simplified);
+                        put(playlist, simplified.getName(), false);
+                        changed++;
+                    } else if (isModified(previous.get(simplified.getId()), simplified)) {
+                        playlist.update(simplified);
+                        rename(playlist, simplified.getName());
+                        changed++;
+                    }
+                }
+
+                // playlists that were added recently may not be listed yet, older ones were removed since
+                var pending = new ArrayList<PlaylistSimplified>();
+                var iterator = added.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    var entry = iterator.next();
+                    if (latestIds.contains(entry.getKey()) || entry.getValue().addedAt() < startedAt - ADDED_PLAYLIST_GRACE_MILLIS) {
+                        iterator.remove();
+                    } else {
+                        pending.add(entry.getValue().playlist());
+                    }
+                }
+
+                // playlists that were removed from the library can no longer be found by name
+                for (var playlistId : libraryIds) {
+                    if (!latestIds.contains(playlistId) && !added.containsKey(playlistId)) {
+                        remove(playlistId);
+                        changed++;
+                    }
+                }
+
+                libraryIds.clear();
+                libraryIds.addAll(latestIds);
+                libraryIds.addAll(added.keySet());
+                // the most recently added playlists come first
+                Collections.reverse(pending);
+                pending.addAll(latest);
+                playlists = List.copyOf(pending);
+                // searched and looked up playlists may have been added to the library or renamed since
+                searchResults.clear();
+                lookups.clear();
+                LOGGER.debug("Refreshed the library of {}, {} out of {} playlists changed", userId, changed, latest.size());
             }
         }
 
-        public void clear() {
-            playlists = null;
-            pidToPlaylist.clear();
-            nameToPlaylist.clear();
+        private boolean isModified(PlaylistSimplified previous, PlaylistSimplified latest) {
+            return previous == null
+                    || !Objects.equals(previous.getSnapshotId(), latest.getSnapshotId())
+                    || !Objects.equals(previous.getName(), latest.getName());
         }
 
         /**
          * Retrieve the most recently played/created playlists.
          *
          * @param limit The maximum number of playlists to retrieve.
-         * @return A <b>view</b> of the underlying playlists.
+         * @return A <b>view</b> of the underlying (immutable) playlists.
          */
         public List<PlaylistSimplified> getMostRecentPlaylists(int limit) {
-            return this.playlists.subList(0, Math.min(this.playlists.size(), limit));
+            var playlists = this.playlists;
+            return playlists.subList(0, Math.min(playlists.size(), limit));
         }
 
-        private ShufflePlaylist addPlaylist(PlaylistSimplified playlistSimplified) throws FatalRequestResponseException {
-            if (pidToPlaylist.containsKey(playlistSimplified.getId())) {
-                return pidToPlaylist.get(playlistSimplified.getId());
+        private ShufflePlaylist addPlaylist(PlaylistSimplified playlistSimplified) {
+            var playlistId = playlistSimplified.getId();
+            synchronized (writeLock) {
+                libraryIds.add(playlistId);
+                var playlist = pidToPlaylist.get(playlistId);
+                if (playlist != null && pidToName.containsKey(playlistId))
+                    return playlist;
+                added.put(playlistId, new AddedPlaylist(playlistSimplified, System.currentTimeMillis()));
+
+                var updated = new ArrayList<PlaylistSimplified>(playlists.size() + 1);
+                updated.add(playlistSimplified);
+                updated.addAll(playlists);
+                playlists = Collections.unmodifiableList(updated);
+
+                // the playlist may already be known from a search or a lookup
+                if (playlist == null)
+                    playlist = registry.getOrCreate(playlistSimplified);
+                put(playlist, playlistSimplified.getName(), true);
+                return playlist;
             }
-            playlists.add(0, playlistSimplified);
-            var playlist = new ShufflePlaylist(api, playlistSimplified, isOwner(playlistSimplified));
-            put(playlist, true);
-            return playlist;
         }
 
-        private void put(ShufflePlaylist playlist, boolean putFront) throws FatalRequestResponseException {
+        private void put(ShufflePlaylist playlist, String name, boolean putFront) {
+            name = normalizeName(name);
             pidToPlaylist.put(playlist.getPlaylistId(), playlist);
+            pidToName.put(playlist.getPlaylistId(), name);
+            list(playlist, name, putFront);
+        }
+
+        private void rename(ShufflePlaylist playlist, String name) {
+            name = normalizeName(name);
+            var playlistId = playlist.getPlaylistId();
+            var previousName = pidToName.get(playlistId);
+            if (Objects.equals(previousName, name))
+                return;
+            unlist(playlistId, previousName);
+            pidToName.put(playlistId, name);
+            list(playlist, name, true);
+        }
 
-            var list = nameToPlaylist.computeIfAbsent(playlist.getName(), k -> new ArrayList<>());
+        private void remove(String playlistId) {
+            pidToPlaylist.remove(playlistId);
+            unlist(playlistId, pidToName.remove(playlistId));
+        }
 
-            if (putFront)
-                list.add(0, playlist);
-            else
-                list.add(playlist);
+        private void list(ShufflePlaylist playlist, String name, boolean putFront) {
+            nameToPlaylist.compute(name, (k, list) -> {
+                var updated = new ArrayList<ShufflePlaylist>();
+                if (list != null)
+                    updated.addAll(list);
+                if (putFront)
+                    updated.add(0, playlist);
+                else
+                    updated.add(playlist);
+                return Collections.unmodifiableList(updated);
+            });
+        }
+
+        private void unlist(String playlistId, String name) {
+            if (name == null)
+                return;
+            nameToPlaylist.computeIfPresent(name, (k, list) -> {
+                var updated = list.stream().filter((p) -> !p.getPlaylistId().equals(playlistId)).toList();
+                return updated.isEmpty() ? null : updated;
+            });
         }
 
         public ShufflePlaylist getPlaylistById(String playlistId) throws FatalRequestResponseException {
             var shufflePlaylist = pidToPlaylist.get(playlistId);
-            if (shufflePlaylist == null) {
-                var playlist = api.streamPlaylistSimplified(playlistId);
-                shufflePlaylist = new ShufflePlaylist(api, playlist, isOwner(playlist));
-                put(shufflePlaylist, true);
+            if (shufflePlaylist == null)
+                shufflePlaylist = lookups.get(playlistId);
+            if (shufflePlaylist == null)
+                shufflePlaylist = registry.get(playlistId);
+            if (shufflePlaylist != null)
+                return shufflePlaylist;
+
+            var playlist = api.streamPlaylistSimplified(playlistId);
+            synchronized (writeLock) {
+                // another thread may have retrieved the same playlist in the meantime
+                shufflePlaylist = pidToPlaylist.get(playlistId);
+                if (shufflePlaylist == null) {
+                    // the playlist is not part of the library, so it is not listed by name
+                    shufflePlaylist = registry.getOrCreate(playlist);
+                    lookups.put(playlistId, shufflePlaylist);
+                }
+                return shufflePlaylist;
             }
-            return shufflePlaylist;
+        }
+
+        public List<ShufflePlaylist> getLibraryPlaylistsByName(String playlistName) {
+            return nameToPlaylist.getOrDefault(normalizeName(playlistName), List.of());
         }
 
         public List<ShufflePlaylist> getPlaylistsByName(String playlistName) throws FatalRequestResponseException {
-            // if list is not null, then we will not request playlists anymore which may be inconsistent
-            // if some playlists were renamed
-            var list = nameToPlaylist.get(playlistName);
-            if (list == null) {
-                var simplifiedPlaylists = api.searchPlaylistByExactName(playlistName, 5);
-                for (var playlist : simplifiedPlaylists)
-                    addPlaylist(playlist);
-                list = simplifiedPlaylists.stream().map((p) -> new ShufflePlaylist(api, p, isOwner(p))).collect(Collectors.toList());
-                nameToPlaylist.put(playlistName, list);
+            var name = normalizeName(playlistName);
+            var list = nameToPlaylist.get(name);
+            if (list == null)
+                list = searchResults.get(name);
+            if (list != null)
+                return list;
+
+            var simplifiedPlaylist = api.findPlaylistByExactName(playlistName, 5);
+            synchronized (writeLock) {
+                // search results are not part of the library, so they are only registered by identifier
+                list = simplifiedPlaylist == null ? List.of() : List.of(registry.getOrCreate(simplifiedPlaylist));
+                searchResults.put(name, list);
+                return list;
             }
-            return list;
         }
     }
+
+    /**
+     * @param playlist the playlist that was added to the library.
+     * @param addedAt  the time at which it was added, in milliseconds since epoch.
+     */
+    private record AddedPlaylist(PlaylistSimplified playlist, long addedAt) {
+    }
 }
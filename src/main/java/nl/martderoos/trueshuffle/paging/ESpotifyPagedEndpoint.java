@@ -0,0 +1,37 @@
+package nl.martderoos.trueshuffle.paging;
+
+/**
+ * Enumerates the paged endpoints of the Spotify API, each with the maximum number of items Spotify returns for a single
+ * page of that endpoint. Loading pages of the maximum size minimizes the number of requests.
+ */
+public enum ESpotifyPagedEndpoint {
+    /**
+     * The playlists in the current user's library.
+     */
+    USER_PLAYLISTS(50),
+    /**
+     * A search for items such as playlists.
+     */
+    SEARCH(50),
+    /**
+     * The tracks saved (liked) by the current user.
+     */
+    SAVED_TRACKS(50),
+    /**
+     * The items (tracks and episodes) of a playlist.
+     */
+    PLAYLIST_ITEMS(100);
+
+    private final int maxPageSize;
+
+    ESpotifyPagedEndpoint(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * @return the maximum number of items of a single page of this endpoint.
+     */
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+}
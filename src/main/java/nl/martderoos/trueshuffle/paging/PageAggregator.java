@@ -6,8 +6,14 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -47,6 +53,84 @@ public class PageAggregator {
             next = page.getNext();
         }
 
+        return filterNulls(result, allowAndFilterNulls);
+    }
+
+    /**
+     * Aggregates the page at the provided offset and all subsequent pages' items into a single list of items, just like
+     * {@link #aggregate(SpotifyFuturePage, int, boolean)}, but without blocking any thread while pages are being
+     * loaded. Once the first page has been loaded, the remaining pages are requested with at most
+     * maxConcurrency requests outstanding at the same time. The items are returned in offset order regardless of the
+     * order in which the pages were loaded.
+     *
+     * @param loader              the loader that starts loading a page.
+     * @param offset              the offset of the first page.
+     * @param pageSize            the maximum number of items per page, at least 1.
+     * @param hardLimit           the limit on the total number of items the returned future may complete with at most.
+     * @param allowAndFilterNulls whether you allow that Spotify returns null for some items in a page, see
+     *                            {@link #aggregate(SpotifyFuturePage, int, boolean)}.
+     * @param executor            the executor on which the results of loaded pages are processed (nullable). If null,
+     *                            they are processed on the thread that completed them. Pages are requested
+     *                            concurrently either way, since the loader does not block.
+     * @param maxConcurrency      the maximum number of pages to load at the same time. If at most 1, pages are loaded
+     *                            one after another.
+     * @param <T>                 the type of items we may return
+     * @return a future of the list of items, never null. The future completes exceptionally with a
+     * {@link FatalRequestResponseException} when a page fails to load. Once the future is cancelled, no further pages
+     * are requested.
+     */
+    public static <T> CompletableFuture<List<T>> aggregateAsync(SpotifyAsyncPageLoader<T> loader, int offset, int pageSize, int hardLimit, boolean allowAndFilterNulls, Executor executor, int maxConcurrency) {
+        if (offset < 0) throw new IllegalArgumentException("Offset must be at least 0");
+        if (pageSize < 1) throw new IllegalArgumentException("Page size must be at least 1");
+        var concurrency = Math.max(1, maxConcurrency);
+        var aggregated = new CompletableFuture<List<T>>();
+        loader.loadPage(offset, pageSize).thenCompose((page) -> {
+            var limit = Math.min(page.getTotal(), hardLimit);
+            List<T> result = new ArrayList<>(Math.max(0, limit));
+            addSome(result, Arrays.asList(page.getItems()), limit);
+
+            var nextOffset = page.getOffset() + page.getItems().length;
+            if (page.getNext() == null || page.getItems().length == 0 || result.size() >= limit)
+                return CompletableFuture.completedFuture(result);
+
+            var remaining = Math.min(limit - result.size(), page.getTotal() - nextOffset);
+            var ranges = new AsyncRangeLoader<>(loader, nextOffset, pageSize, remaining, aggregated);
+            return ranges.load(executor, concurrency).thenApply((results) -> {
+                for (var items : results) {
+                    addSome(result, items, limit - result.size());
+                }
+                return result;
+            });
+        }).thenApply((result) -> {
+            try {
+                return filterNulls(result, allowAndFilterNulls);
+            } catch (FatalRequestResponseException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                aggregated.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+            } else {
+                aggregated.complete(result);
+            }
+        });
+        return aggregated;
+    }
+
+    /**
+     * Asynchronously loads a number of items starting at the offset, following next pages in the case that Spotify
+     * returns fewer items than requested.
+     */
+    private static <T> CompletableFuture<List<T>> loadRangeAsync(SpotifyAsyncPageLoader<T> loader, int offset, int pageSize, int count, List<T> items) {
+        return loader.loadPage(offset, pageSize).thenCompose((page) -> {
+            addSome(items, Arrays.asList(page.getItems()), count - items.size());
+            if (page.getNext() == null || page.getItems().length == 0 || items.size() >= count)
+                return CompletableFuture.completedFuture(items);
+            return loadRangeAsync(loader, offset + page.getItems().length, pageSize, count, items);
+        });
+    }
+
+    private static <T> List<T> filterNulls(List<T> result, boolean allowAndFilterNulls) throws FatalRequestResponseException {
         var nonNullableResult = result.stream().filter(Objects::nonNull).collect(Collectors.toList());
         if (nonNullableResult.size() != result.size()) {
             int nullCount = result.size() - nonNullableResult.size();
@@ -58,8 +142,60 @@ public class PageAggregator {
         return nonNullableResult;
     }
 
-
     private static <T> void addSome(List<T> target, List<T> items, int count) {
         target.addAll(items.subList(0, Math.min(items.size(), count)));
     }
+
+    /**
+     * Splits a number of items into page sized ranges and loads them asynchronously in a bounded number of lanes. Every
+     * lane requests the next unloaded range once its previous range has loaded, until all ranges are loaded, until
+     * one of them fails or until the aggregation is cancelled.
+     */
+    private static class AsyncRangeLoader<T> {
+        private final SpotifyAsyncPageLoader<T> loader;
+        private final int pageSize;
+        private final List<Integer> offsets = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private final List<List<T>> results;
+        private final AtomicInteger nextRange = new AtomicInteger();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final CompletableFuture<?> aggregated;
+
+        private AsyncRangeLoader(SpotifyAsyncPageLoader<T> loader, int offset, int pageSize, int count, CompletableFuture<?> aggregated) {
+            this.loader = loader;
+            this.pageSize = pageSize;
+            this.aggregated = aggregated;
+            for (int consumed = 0; consumed < count; consumed += pageSize) {
+                offsets.add(offset + consumed);
+                counts.add(Math.min(pageSize, count - consumed));
+            }
+            results = new ArrayList<>(Collections.nCopies(offsets.size(), null));
+        }
+
+        private CompletableFuture<List<List<T>>> load(Executor executor, int maxConcurrency) {
+            var lanes = new CompletableFuture<?>[Math.min(maxConcurrency, offsets.size())];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = lane(executor);
+            }
+            return CompletableFuture.allOf(lanes).thenApply((ignored) -> results);
+        }
+
+        private CompletableFuture<Void> lane(Executor executor) {
+            int range;
+            if (failed.get() || aggregated.isDone() || (range = nextRange.getAndIncrement()) >= offsets.size())
+                return CompletableFuture.completedFuture(null);
+            var items = loadRangeAsync(loader, offsets.get(range), pageSize, counts.get(range), new ArrayList<>(counts.get(range)));
+            return (executor == null ? items.thenCompose((loaded) -> next(range, loaded, null))
+                    : items.thenComposeAsync((loaded) -> next(range, loaded, executor), executor))
+                    .whenComplete((ignored, throwable) -> {
+                        if (throwable != null) failed.set(true);
+                    });
+        }
+
+        private CompletableFuture<Void> next(int range, List<T> loaded, Executor executor) {
+            // each range is written by exactly one lane, and read only once all lanes completed
+            results.set(range, loaded);
+            return lane(executor);
+        }
+    }
 }
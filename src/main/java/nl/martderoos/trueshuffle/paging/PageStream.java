@@ -0,0 +1,249 @@
+package nl.martderoos.trueshuffle.paging;
+
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Utility class for lazily streaming pages of data. As opposed to the {@link PageAggregator}, pages are only loaded
+ * once the stream's consumer needs their items, so short-circuiting operations such as
+ * {@link Stream#findFirst()} or {@link Stream#anyMatch} stop loading pages as soon as they have their answer.
+ * <br><br>
+ * Streams do not allow checked exceptions, so a page that fails to load surfaces as a {@link PageStreamException}
+ * while consuming the stream.
+ */
+public class PageStream {
+    private PageStream() {
+
+    }
+
+    /**
+     * Lazily stream the provided initial page's items and all subsequent pages' items. Pages are loaded on the
+     * consuming thread when the stream needs their items, unless a prefetch executor is provided. In that case, the
+     * next page is requested on the executor as soon as the current page has been loaded, such that at most one page
+     * is loaded ahead of the consumer. Closing the stream discards that page.
+     *
+     * @param initialPage         the first page from which we will start streaming.
+     * @param hardLimit           the limit on the total number of items this stream may inspect at most, including
+     *                            filtered null values.
+     * @param allowAndFilterNulls whether you allow that Spotify returns null for some items in a page. If allowed, the
+     *                            null values will be skipped. If not allowed, the stream will throw a
+     *                            {@link PageStreamException} upon encountering a null value.
+     * @param prefetchExecutor    the executor to load the next page on ahead of time (nullable). If null, pages are
+     *                            only loaded on demand.
+     * @param <T>                 the type of items we may stream
+     * @return an ordered stream of non-null items, never null.
+     */
+    public static <T> Stream<T> stream(SpotifyFuturePage<T> initialPage, int hardLimit, boolean allowAndFilterNulls, Executor prefetchExecutor) {
+        var spliterator = new PageSpliterator<>(initialPage, hardLimit, allowAndFilterNulls, prefetchExecutor, null);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Lazily stream the items of the page at the provided offset and of all subsequent pages, always loading one page
+     * ahead. The first page is requested once the stream needs its items. As soon as a page has been loaded, the next
+     * page is requested through the loader, which does not block, so no executor is needed to load it ahead of the
+     * consumer. Closing the stream cancels the request of that page.
+     *
+     * @param loader              the loader that starts loading a page.
+     * @param offset              the offset of the first page.
+     * @param pageSize            the maximum number of items per page, at least 0.
+     * @param hardLimit           the limit on the total number of items this stream may inspect at most, including
+     *                            filtered null values.
+     * @param allowAndFilterNulls whether you allow that Spotify returns null for some items in a page, see
+     *                            {@link #stream(SpotifyFuturePage, int, boolean, Executor)}.
+     * @param <T>                 the type of items we may stream
+     * @return an ordered stream of non-null items, never null. A consumer that is interrupted while it waits for a page
+     * gets a {@link PageStreamException}, with its interrupt status set.
+     */
+    public static <T> Stream<T> stream(SpotifyAsyncPageLoader<T> loader, int offset, int pageSize, int hardLimit, boolean allowAndFilterNulls) {
+        var initialPage = new SpotifyFuturePage<>(awaiting(loader), offset, pageSize);
+        var spliterator = new PageSpliterator<>(initialPage, hardLimit, allowAndFilterNulls, null, loader);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Lazily stream the provided initial page's items and all subsequent pages' items without loading pages ahead of
+     * time. Calls {@link #stream(SpotifyFuturePage, int, boolean, Executor)} without a prefetch executor.
+     */
+    public static <T> Stream<T> stream(SpotifyFuturePage<T> initialPage, int hardLimit, boolean allowAndFilterNulls) {
+        return stream(initialPage, hardLimit, allowAndFilterNulls, null);
+    }
+
+    /**
+     * Get a loader that starts loading a page through the provided loader and waits for it.
+     */
+    private static <T> SpotifyPageLoader<T> awaiting(SpotifyAsyncPageLoader<T> loader) {
+        return (offset, limit) -> await(loader.loadPage(offset, limit));
+    }
+
+    /**
+     * Wait for a page that is being loaded asynchronously, unwrapping the {@link FatalRequestResponseException} it may
+     * have failed with. If the waiting thread is interrupted, loading the page is cancelled.
+     */
+    private static <T> Paging<T> await(CompletableFuture<Paging<T>> page) throws FatalRequestResponseException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            page.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new FatalRequestResponseException("Interrupted while waiting for a page");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FatalRequestResponseException cause)
+                throw cause;
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw new FatalRequestResponseException(String.valueOf(e.getCause().getMessage()));
+        }
+    }
+
+    private static class PageSpliterator<T> implements Spliterator<T> {
+        private final int hardLimit;
+        private final boolean allowAndFilterNulls;
+        private final Executor prefetchExecutor;
+        private final SpotifyAsyncPageLoader<T> asyncLoader;
+
+        private SpotifyFuturePage<T> nextPage;
+        private CompletableFuture<?> prefetchRequest;
+        private CompletableFuture<SpotifyResultPage<T>> prefetchedPage;
+        private T[] items;
+        private int index;
+        private int inspected;
+
+        /**
+         * @param asyncLoader the loader to request the next page through ahead of time (nullable). Takes precedence
+         *                    over the prefetch executor.
+         */
+        private PageSpliterator(SpotifyFuturePage<T> initialPage, int hardLimit, boolean allowAndFilterNulls, Executor prefetchExecutor, SpotifyAsyncPageLoader<T> asyncLoader) {
+            this.nextPage = initialPage;
+            this.hardLimit = hardLimit;
+            this.allowAndFilterNulls = allowAndFilterNulls;
+            this.prefetchExecutor = prefetchExecutor;
+            this.asyncLoader = asyncLoader;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (inspected < hardLimit) {
+                if (items == null || index >= items.length) {
+                    if (!loadNextPage())
+                        return false;
+                    continue;
+                }
+
+                var item = items[index++];
+                inspected++;
+                if (item == null) {
+                    if (!allowAndFilterNulls)
+                        throw new PageStreamException(new FatalRequestResponseException("Found a null value among the streamed pages, which is not allowed."));
+                    continue;
+                }
+                action.accept(item);
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        private boolean loadNextPage() {
+            SpotifyResultPage<T> page;
+            if (prefetchedPage != null) {
+                page = join(prefetchedPage);
+                prefetchedPage = null;
+                prefetchRequest = null;
+            } else if (nextPage != null) {
+                page = load(nextPage);
+            } else {
+                return false;
+            }
+
+            items = page.getItems();
+            index = 0;
+            nextPage = page.getNext();
+            if (nextPage != null && (prefetchExecutor != null || asyncLoader != null) && inspected + items.length < hardLimit)
+                prefetch();
+            return true;
+        }
+
+        private void prefetch() {
+            var future = nextPage;
+            if (asyncLoader != null) {
+                var request = asyncLoader.loadPage(future.getOffset(), future.getLimit());
+                prefetchRequest = request;
+                prefetchedPage = request.thenApply((paging) -> new SpotifyResultPage<>(paging, awaiting(asyncLoader)));
+                nextPage = null;
+                return;
+            }
+            try {
+                prefetchedPage = CompletableFuture.supplyAsync(() -> load(future), prefetchExecutor);
+                nextPage = null;
+            } catch (RejectedExecutionException e) {
+                // keep the next page, it will be loaded on demand instead
+            }
+        }
+
+        private void close() {
+            if (prefetchRequest != null) {
+                prefetchRequest.cancel(false);
+                prefetchRequest = null;
+            }
+            if (prefetchedPage != null) {
+                prefetchedPage.cancel(false);
+                prefetchedPage = null;
+            }
+            nextPage = null;
+            items = null;
+        }
+
+        private static <T> SpotifyResultPage<T> load(SpotifyFuturePage<T> future) {
+            try {
+                return future.load();
+            } catch (FatalRequestResponseException e) {
+                throw new PageStreamException(e);
+            }
+        }
+
+        private static <T> SpotifyResultPage<T> join(CompletableFuture<SpotifyResultPage<T>> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                future.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new PageStreamException(new FatalRequestResponseException("Interrupted while waiting for a page"));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof FatalRequestResponseException cause)
+                    throw new PageStreamException(cause);
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                if (e.getCause() instanceof Error cause)
+                    throw cause;
+                throw new PageStreamException(new FatalRequestResponseException(String.valueOf(e.getCause().getMessage())));
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package nl.martderoos.trueshuffle.paging;
+
+import nl.martderoos.trueshuffle.exceptions.TrueShuffleRuntimeException;
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+
+/**
+ * Unchecked wrapper of a {@link FatalRequestResponseException} that is thrown while consuming a stream created by
+ * {@link PageStream}. Streams do not allow checked exceptions, so callers should catch this exception and rethrow its
+ * {@link #getCause() cause}.
+ */
+public class PageStreamException extends TrueShuffleRuntimeException {
+    public PageStreamException(FatalRequestResponseException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * @return the exception that caused a page to fail to load, never null.
+     */
+    @Override
+    public synchronized FatalRequestResponseException getCause() {
+        return (FatalRequestResponseException) super.getCause();
+    }
+}
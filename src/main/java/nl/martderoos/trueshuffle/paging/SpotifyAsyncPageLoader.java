@@ -0,0 +1,25 @@
+package nl.martderoos.trueshuffle.paging;
+
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Functional interface that describes loading a specific page from paginated data without blocking the calling thread.
+ * It is the asynchronous counterpart of {@link SpotifyPageLoader}.
+ *
+ * @param <T> the type of data which this loader can return pages of
+ */
+@FunctionalInterface
+public interface SpotifyAsyncPageLoader<T> {
+    /**
+     * Start loading a specific page from paginated data.
+     *
+     * @param offset the offset to start loading data from where an offset of 0 indicates the first item of all data.
+     * @param limit  the maximum number of items the page may contain.
+     * @return a future of the items captured by the page specification, never null. The future completes
+     * exceptionally with a {@link nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException} when an
+     * issue is encountered while leveraging the Spotify API.
+     */
+    CompletableFuture<Paging<T>> loadPage(int offset, int limit);
+}
@@ -37,6 +37,30 @@ public class SpotifyFuturePage<T> {
         this(pageLoader, offset, 50);
     }
 
+    /**
+     * Create a new future of a page of the provided endpoint. Calls
+     * {@link #SpotifyFuturePage(SpotifyPageLoader, int, ESpotifyPagedEndpoint)} with an offset of 0.
+     *
+     * @param pageLoader the loader that can be used to load this page.
+     * @param endpoint   the endpoint the loader loads pages of.
+     */
+    public SpotifyFuturePage(SpotifyPageLoader<T> pageLoader, ESpotifyPagedEndpoint endpoint) {
+        this(pageLoader, 0, endpoint);
+    }
+
+    /**
+     * Create a new future of a page of the provided endpoint. The limit of this page, and of all pages following it,
+     * is the maximum page size of the endpoint.
+     *
+     * @param pageLoader the loader that can be used to load this page.
+     * @param offset     the offset of this page, which are the amount of skipped items before starting to capture items
+     *                   for this page.
+     * @param endpoint   the endpoint the loader loads pages of.
+     */
+    public SpotifyFuturePage(SpotifyPageLoader<T> pageLoader, int offset, ESpotifyPagedEndpoint endpoint) {
+        this(pageLoader, offset, endpoint.getMaxPageSize());
+    }
+
     /**
      * Create a new future with provided arguments.
      *
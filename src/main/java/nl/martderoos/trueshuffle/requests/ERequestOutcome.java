@@ -0,0 +1,23 @@
+package nl.martderoos.trueshuffle.requests;
+
+/**
+ * Enumerates the ways in which a {@link RequestHandler} handles a request that was rejected by Spotify.
+ */
+public enum ERequestOutcome {
+    /**
+     * The request failed due to a temporary condition and is retried with exponential backoff.
+     */
+    RETRY_SHORTLY,
+    /**
+     * The request was rate limited and is retried once the retry-after window has passed.
+     */
+    SLOW_DOWN,
+    /**
+     * The access token expired, the request is retried after refreshing it.
+     */
+    REFRESH_TOKEN,
+    /**
+     * The request is deemed to never succeed and is not retried.
+     */
+    FATAL
+}
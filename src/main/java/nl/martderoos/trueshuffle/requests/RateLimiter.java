@@ -0,0 +1,167 @@
+package nl.martderoos.trueshuffle.requests;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe token bucket that limits the rate at which requests are sent to Spotify. Spotify applies its rate limits
+ * per application (client id), so a single limiter should be shared by all {@link RequestHandler}s of the same client.
+ * <br><br>
+ * The rate adapts to Spotify's feedback: whenever Spotify tells us to slow down, all requests are paused until the
+ * suggested retry-after window has passed and the rate is halved. Every request that succeeds afterwards slowly
+ * increases the rate again, up to the configured maximum.
+ */
+public class RateLimiter {
+    /**
+     * The default maximum number of requests per second.
+     */
+    public static final double DEFAULT_MAX_PERMITS_PER_SECOND = 10;
+    /**
+     * The default minimum number of requests per second, the rate will never be decreased below this value.
+     */
+    public static final double DEFAULT_MIN_PERMITS_PER_SECOND = 0.5;
+    /**
+     * The default number of requests that may be sent at once after a period of inactivity.
+     */
+    public static final int DEFAULT_BURST = 20;
+
+    private static final Logger LOGGER = LogManager.getLogger(RateLimiter.class);
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double maxPermitsPerSecond;
+    private final double minPermitsPerSecond;
+    private final double increasePerSuccess;
+    private final int burst;
+    private final LongSupplier nanoClock;
+
+    private double permitsPerSecond;
+    private double storedPermits;
+    private long nextFreeNanos;
+    private long pausedUntilNanos;
+
+    /**
+     * Create a new limiter with the default rates, see {@link #DEFAULT_MAX_PERMITS_PER_SECOND},
+     * {@link #DEFAULT_MIN_PERMITS_PER_SECOND} and {@link #DEFAULT_BURST}.
+     */
+    public RateLimiter() {
+        this(DEFAULT_MAX_PERMITS_PER_SECOND, DEFAULT_MIN_PERMITS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    /**
+     * Create a new limiter with provided rates. The limiter starts at its maximum rate with a full burst.
+     *
+     * @param maxPermitsPerSecond the maximum number of requests per second, must be positive.
+     * @param minPermitsPerSecond the minimum number of requests per second, must be positive and at most the maximum.
+     * @param burst               the maximum number of requests that may be sent at once after a period of inactivity,
+     *                            must be at least 0.
+     */
+    public RateLimiter(double maxPermitsPerSecond, double minPermitsPerSecond, int burst) {
+        this(maxPermitsPerSecond, minPermitsPerSecond, burst, System::nanoTime);
+    }
+
+    RateLimiter(double maxPermitsPerSecond, double minPermitsPerSecond, int burst, LongSupplier nanoClock) {
+        if (!(minPermitsPerSecond > 0)) throw new IllegalArgumentException("Minimum rate must be positive");
+        if (maxPermitsPerSecond < minPermitsPerSecond)
+            throw new IllegalArgumentException("Maximum rate must be at least the minimum rate");
+        if (burst < 0) throw new IllegalArgumentException("Burst must be at least 0");
+        this.maxPermitsPerSecond = maxPermitsPerSecond;
+        this.minPermitsPerSecond = minPermitsPerSecond;
+        // recover from the minimum to the maximum rate in about 100 successful requests
+        this.increasePerSuccess = (maxPermitsPerSecond - minPermitsPerSecond) / 100;
+        this.burst = burst;
+        this.nanoClock = Objects.requireNonNull(nanoClock);
+        this.permitsPerSecond = maxPermitsPerSecond;
+        this.storedPermits = burst;
+        this.nextFreeNanos = nanoClock.getAsLong();
+        this.pausedUntilNanos = nextFreeNanos;
+    }
+
+    /**
+     * Acquire a permit to send a single request, blocking until the permit is available and the limiter is not
+     * paused. Returns early, with the interrupt status set, if the calling thread is interrupted while it waits.
+     */
+    public void acquire() {
+        var waitNanos = reserve();
+        while (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                // let the caller decide whether to send the request anyway
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // a pause may have started while we were waiting
+            waitNanos = getPauseRemainingNanos();
+        }
+    }
+
+    /**
+     * Reserve a permit without waiting for it.
+     *
+     * @return the number of nanoseconds the caller must wait before the permit may be used, at least 0.
+     */
+    synchronized long reserve() {
+        var now = nanoClock.getAsLong();
+        resync(now);
+        var waitNanos = Math.max(0, nextFreeNanos - now);
+        if (storedPermits >= 1) {
+            storedPermits -= 1;
+        } else {
+            nextFreeNanos += (long) (NANOS_PER_SECOND / permitsPerSecond);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Notify the limiter that Spotify accepted a request, slowly increasing the rate up to its maximum.
+     */
+    public synchronized void onSuccess() {
+        permitsPerSecond = Math.min(maxPermitsPerSecond, permitsPerSecond + increasePerSuccess);
+    }
+
+    /**
+     * Notify the limiter that Spotify rejected a request because we are sending too many. All requests are paused
+     * until the retry-after window has passed. The rate is halved, unless the limiter was already paused, in which case
+     * the rejected request was most likely sent before the pause started.
+     *
+     * @param retryAfterSeconds the number of seconds Spotify asked us to wait.
+     */
+    public synchronized void onSlowDown(int retryAfterSeconds) {
+        var now = nanoClock.getAsLong();
+        if (now >= pausedUntilNanos) {
+            permitsPerSecond = Math.max(minPermitsPerSecond, permitsPerSecond * DECREASE_FACTOR);
+            LOGGER.debug("Rate limited by Spotify, decreased rate to {} requests per second", permitsPerSecond);
+        }
+        var pausedUntil = now + TimeUnit.SECONDS.toNanos(Math.max(0, retryAfterSeconds));
+        pausedUntilNanos = Math.max(pausedUntilNanos, pausedUntil);
+        nextFreeNanos = Math.max(nextFreeNanos, pausedUntilNanos);
+        storedPermits = 0;
+    }
+
+    /**
+     * @return the current rate in permits per second.
+     */
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * @return the number of nanoseconds until the current pause ends, or 0 if the limiter is not paused.
+     */
+    public synchronized long getPauseRemainingNanos() {
+        return Math.max(0, pausedUntilNanos - nanoClock.getAsLong());
+    }
+
+    private void resync(long now) {
+        if (now > nextFreeNanos) {
+            var elapsedSeconds = (double) (now - nextFreeNanos) / NANOS_PER_SECOND;
+            storedPermits = Math.min(burst, storedPermits + elapsedSeconds * permitsPerSecond);
+            nextFreeNanos = now;
+        }
+    }
+}
@@ -9,7 +9,9 @@ import se.michaelthelin.spotify.exceptions.detailed.*;
 import se.michaelthelin.spotify.requests.IRequest;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Thread-safe class that generalizes handling errors during Spotify API calls. It also provides a retry mechanism
@@ -20,47 +22,121 @@ public class RequestHandler {
      * The maximum number of retries before a single request is considered a lost cause.
      */
     public static final int MAX_RETRIES = 8;
+    /**
+     * The number of threads of the executor on which {@link #handleRequestAsync(IRequest)} sends requests when no
+     * executor is provided. The executor is shared by all handlers without an executor of their own.
+     */
+    public static final int DEFAULT_REQUEST_THREADS = 8;
     private static final Logger LOGGER = LogManager.getLogger(RequestHandler.class);
+    private static final int MIN_WAIT_TIME_SECONDS = 1;
+    private static final long MIN_WAIT_TIME_MILLIS = TimeUnit.SECONDS.toMillis(MIN_WAIT_TIME_SECONDS);
+    private static final int MAX_WAIT_TIME_SECONDS = 300; // wait 5 minutes at most
+    private static final long MAX_WAIT_TIME_MILLIS = TimeUnit.SECONDS.toMillis(MAX_WAIT_TIME_SECONDS);
 
     private final AccessTokenRefresher refresher;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService scheduler;
+    private final RequestListener listener;
+    private final Executor refreshExecutor;
+    private final Executor requestExecutor;
+    private final ReentrantLock refreshLock = new ReentrantLock();
 
     /**
-     * Create a new handler with provided {@link AccessTokenRefresher}.
+     * Create a new handler with provided {@link AccessTokenRefresher} and without a {@link RateLimiter}. Use
+     * {@link #builder()} to configure the other collaborators of the handler.
      *
      * @param refresher the refresher to use, can be null. If the access token expires, then this handler will not be
      *                  able to finish any following requests in the case that it is null. The refresher is guaranteed
      *                  to never be called concurrently from within the same handler.
      */
     public RequestHandler(AccessTokenRefresher refresher) {
-        this.refresher = refresher;
+        this(builder().setRefresher(refresher));
+    }
+
+    private RequestHandler(Builder builder) {
+        this.refresher = builder.refresher;
+        this.rateLimiter = builder.rateLimiter;
+        this.scheduler = builder.scheduler;
+        this.listener = builder.listener != null ? builder.listener : RequestListener.NONE;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.requestExecutor = builder.requestExecutor;
+    }
+
+    /**
+     * @return a builder for a handler without any of its optional collaborators, never null.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the limiter that gates the requests of this handler, or null if there is none.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
     }
 
     /**
      * Send the request, retrying it at most {@link #MAX_RETRIES} times before considering it a lost cause. Note that
      * retries will be implemented using exponential backoff, meaning that it may take quite some time before this
-     * method returns.
+     * method returns. The request is sent on the calling thread, which sleeps while it waits for a retry.
      *
      * @param request the request to execute.
      * @param <T>     the type of the returned value.
      * @return the returned value by the request.
-     * @throws FatalRequestResponseException if the request is deemed to never succeed or fails once more after 10 retries.
+     * @throws FatalRequestResponseException if the request is deemed to never succeed or fails once more after 10 retries,
+     *                                       or if the calling thread is interrupted while it waits for a retry.
      */
     public <T> T handleRequest(IRequest<T> request) throws FatalRequestResponseException {
         return new ApiRequest<>(request).execute();
     }
 
-    // sync to prevent concurrent token refresh
-    private synchronized void refreshToken() throws FatalRequestResponseException {
+    /**
+     * Send the request asynchronously, retrying it at most {@link #MAX_RETRIES} times before considering it a lost
+     * cause. As opposed to {@link #handleRequest(IRequest)}, no thread is blocked while waiting for a retry or for a
+     * permit of the {@link RateLimiter}: retries are scheduled on this handler's scheduler and requests are sent on
+     * this handler's request executor, see {@link Builder#setRequestExecutor(Executor)}. Cancelling the returned future
+     * stops any retries that have not been sent yet.
+     *
+     * @param request the request to execute.
+     * @param <T>     the type of the returned value.
+     * @return a future of the returned value by the request, never null. The future completes exceptionally with a
+     * {@link FatalRequestResponseException} if the request is deemed to never succeed or fails once more after
+     * {@link #MAX_RETRIES} retries.
+     */
+    public <T> CompletableFuture<T> handleRequestAsync(IRequest<T> request) {
+        var asyncRequest = new AsyncApiRequest<>(request);
+        asyncRequest.guarded(asyncRequest::attempt);
+        return asyncRequest.result;
+    }
+
+    private void refreshToken() throws FatalRequestResponseException {
         if (this.refresher == null)
             throw new FatalRequestResponseException("Cannot refresh access token because no token refresher was provided");
-        refresher.refreshAccessToken();
+        // locked to prevent concurrent token refresh, without pinning a virtual thread while the token is requested
+        refreshLock.lock();
+        try {
+            refresher.refreshAccessToken();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        return scheduler != null ? scheduler : DefaultScheduler.INSTANCE;
+    }
+
+    private Executor getRequestExecutor() {
+        return requestExecutor != null ? requestExecutor : DefaultRequestExecutor.INSTANCE;
+    }
+
+    private static long clampWaitMillis(long amount, TimeUnit unit) {
+        var millis = unit.toMillis(amount);
+        millis = Math.min(millis, MAX_WAIT_TIME_MILLIS);
+        return Math.max(MIN_WAIT_TIME_MILLIS, millis);
     }
 
     private class ApiRequest<T> {
-        private static final int MIN_WAIT_TIME_SECONDS = 1;
-        private static final long MIN_WAIT_TIME_MILLIS = TimeUnit.SECONDS.toMillis(MIN_WAIT_TIME_SECONDS);
-        private static final int MAX_WAIT_TIME_SECONDS = 300; // wait 5 minutes at most
-        private static final long MAX_WAIT_TIME_MILLIS = TimeUnit.SECONDS.toMillis(MAX_WAIT_TIME_SECONDS);
         private final IRequest<T> request;
         private int retries = 0;
         private Exception lastException;
@@ -70,19 +146,37 @@ public class RequestHandler {
         }
 
         public T execute() throws FatalRequestResponseException {
+            var endpoint = request.getClass();
             while (retries < MAX_RETRIES) {
+                if (rateLimiter != null) {
+                    var waitStart = System.nanoTime();
+                    rateLimiter.acquire();
+                    listener.onRateLimitWait(System.nanoTime() - waitStart);
+                }
+                if (Thread.currentThread().isInterrupted())
+                    throw new FatalRequestResponseException("Interrupted before the request could be sent");
+                var start = System.nanoTime();
                 try {
-                    return request.execute();
+                    var result = request.execute();
+                    listener.onResponse(endpoint, System.nanoTime() - start, true);
+                    if (rateLimiter != null)
+                        rateLimiter.onSuccess();
+                    return result;
                 } catch (IOException | ParseException e) {
                     // IOException should not happen if we have a proper connection, so if it does just terminate the job
                     // ParseException should NEVER happen unless the api has changed
+                    listener.onResponse(endpoint, System.nanoTime() - start, false);
+                    listener.onFailure(endpoint, ERequestOutcome.FATAL);
                     throw new FatalRequestResponseException(e.getMessage());
                 } catch (SpotifyWebApiException e) {
                     // handle and then continue
+                    listener.onResponse(endpoint, System.nanoTime() - start, false);
                     handleError(e);
                 } catch (Exception e) {
                     // this should never happen, unless the SpotifyApi library we use is faulty
                     LOGGER.error("Request threw an unidentified error: {}", e.getMessage());
+                    listener.onResponse(endpoint, System.nanoTime() - start, false);
+                    listener.onFailure(endpoint, ERequestOutcome.FATAL);
                     throw new FatalRequestResponseException(e.getMessage());
                 }
 
@@ -93,31 +187,337 @@ public class RequestHandler {
 
         private void handleError(SpotifyWebApiException spotifyException) throws FatalRequestResponseException {
             lastException = spotifyException;
+            var endpoint = request.getClass();
 
             try {
                 rethrow(spotifyException);
             } catch (RetryShortlyException e) {
+                listener.onFailure(endpoint, ERequestOutcome.RETRY_SHORTLY);
                 // exponential backoff
                 var backoffSeconds = (int) Math.pow(2, retries);
                 sleep(backoffSeconds, TimeUnit.SECONDS);
             } catch (SlowDownException e) {
-                sleep(e.getSlowdownSeconds(), TimeUnit.SECONDS);
+                listener.onFailure(endpoint, ERequestOutcome.SLOW_DOWN);
+                if (rateLimiter != null) {
+                    // pauses all handlers sharing the limiter, the next acquire waits for the pause to end
+                    rateLimiter.onSlowDown(e.getSlowdownSeconds());
+                } else {
+                    sleep(e.getSlowdownSeconds(), TimeUnit.SECONDS);
+                }
             } catch (RefreshTokenException e) {
+                listener.onFailure(endpoint, ERequestOutcome.REFRESH_TOKEN);
                 refreshToken();
+            } catch (FatalRequestResponseException e) {
+                listener.onFailure(endpoint, ERequestOutcome.FATAL);
+                throw e;
             }
         }
 
         @SuppressWarnings("SameParameterValue")
-        private void sleep(long amount, TimeUnit unit) {
+        private void sleep(long amount, TimeUnit unit) throws FatalRequestResponseException {
             try {
-                var millis = unit.toMillis(amount);
-                millis = Math.min(millis, MAX_WAIT_TIME_MILLIS);
-                millis = Math.max(MIN_WAIT_TIME_MILLIS, millis);
+                var millis = clampWaitMillis(amount, unit);
                 LOGGER.debug("A request has been delayed for {} milliseconds", millis);
+                listener.onBackoff(TimeUnit.MILLISECONDS.toNanos(millis));
                 Thread.sleep(millis);
             } catch (InterruptedException e) {
-                // ok
+                // the job that sent the request is being stopped, so do not retry it
+                Thread.currentThread().interrupt();
+                throw new FatalRequestResponseException("Interrupted while waiting to retry the request");
+            }
+        }
+    }
+
+    /**
+     * The asynchronous counterpart of {@link ApiRequest}, which schedules its retries rather than sleeping.
+     */
+    private class AsyncApiRequest<T> {
+        private final IRequest<T> request;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int retries = 0;
+        private Exception lastException;
+
+        private AsyncApiRequest(IRequest<T> request) {
+            this.request = request;
+        }
+
+        /**
+         * Run a step of this request, completing the result exceptionally if the step throws. Every step runs
+         * guarded, such that the result is always completed eventually.
+         */
+        private void guarded(Runnable step) {
+            try {
+                step.run();
+            } catch (Throwable t) {
+                LOGGER.error("Request failed unexpectedly: {}", t.getMessage());
+                result.completeExceptionally(new FatalRequestResponseException(String.valueOf(t.getMessage())));
+            }
+        }
+
+        private void attempt() {
+            // the caller cancelled the request
+            if (result.isDone())
+                return;
+            if (retries >= MAX_RETRIES) {
+                result.completeExceptionally(new FatalRequestResponseException("Request exceeded maximum number of retries, cause of last exception was: " + lastException.getMessage()));
+                return;
+            }
+            var waitNanos = rateLimiter == null ? 0 : rateLimiter.reserve();
+            if (rateLimiter != null)
+                listener.onRateLimitWait(waitNanos);
+            if (waitNanos > 0) {
+                schedule(this::send, waitNanos, TimeUnit.NANOSECONDS);
+            } else {
+                send();
+            }
+        }
+
+        private void send() {
+            if (result.isDone())
+                return;
+            if (rateLimiter != null) {
+                // a pause may have started while we were waiting for our permit
+                var pauseNanos = rateLimiter.getPauseRemainingNanos();
+                if (pauseNanos > 0) {
+                    listener.onRateLimitWait(pauseNanos);
+                    schedule(this::send, pauseNanos, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+
+            CompletableFuture<T> future;
+            var start = System.nanoTime();
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return request.execute();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, getRequestExecutor());
+            } catch (Exception e) {
+                listener.onResponse(request.getClass(), System.nanoTime() - start, false);
+                handleError(e);
+                return;
+            }
+            future.whenComplete((value, throwable) -> guarded(() -> {
+                listener.onResponse(request.getClass(), System.nanoTime() - start, throwable == null);
+                if (throwable != null) {
+                    handleError(throwable);
+                    return;
+                }
+                if (rateLimiter != null)
+                    rateLimiter.onSuccess();
+                result.complete(value);
+            }));
+        }
+
+        private void handleError(Throwable throwable) {
+            while (throwable instanceof CompletionException && throwable.getCause() != null)
+                throwable = throwable.getCause();
+
+            var endpoint = request.getClass();
+            if (throwable instanceof IOException || throwable instanceof ParseException) {
+                // see ApiRequest#execute
+                listener.onFailure(endpoint, ERequestOutcome.FATAL);
+                result.completeExceptionally(new FatalRequestResponseException(throwable.getMessage()));
+                return;
+            }
+            if (!(throwable instanceof SpotifyWebApiException spotifyException)) {
+                LOGGER.error("Request threw an unidentified error: {}", throwable.getMessage());
+                listener.onFailure(endpoint, ERequestOutcome.FATAL);
+                result.completeExceptionally(new FatalRequestResponseException(throwable.getMessage()));
+                return;
             }
+
+            lastException = spotifyException;
+            try {
+                rethrow(spotifyException);
+            } catch (RetryShortlyException e) {
+                listener.onFailure(endpoint, ERequestOutcome.RETRY_SHORTLY);
+                // exponential backoff
+                var backoffSeconds = (long) Math.pow(2, retries++);
+                backoff(clampWaitMillis(backoffSeconds, TimeUnit.SECONDS));
+            } catch (SlowDownException e) {
+                listener.onFailure(endpoint, ERequestOutcome.SLOW_DOWN);
+                retries++;
+                if (rateLimiter != null) {
+                    rateLimiter.onSlowDown(e.getSlowdownSeconds());
+                    attempt();
+                } else {
+                    backoff(clampWaitMillis(e.getSlowdownSeconds(), TimeUnit.SECONDS));
+                }
+            } catch (RefreshTokenException e) {
+                listener.onFailure(endpoint, ERequestOutcome.REFRESH_TOKEN);
+                retries++;
+                refreshTokenAsync();
+            } catch (FatalRequestResponseException e) {
+                listener.onFailure(endpoint, ERequestOutcome.FATAL);
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Refresh the access token on the refresh executor rather than on the scheduler if there is one, because
+         * refreshing blocks while the token request itself backs off or waits for the rate limiter.
+         */
+        private void refreshTokenAsync() {
+            Runnable refresh = () -> {
+                try {
+                    refreshToken();
+                } catch (FatalRequestResponseException fatal) {
+                    result.completeExceptionally(fatal);
+                    return;
+                }
+                attempt();
+            };
+            if (refreshExecutor != null) {
+                try {
+                    refreshExecutor.execute(() -> guarded(refresh));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the executor is saturated or shut down, so the scheduler pays for the refresh instead
+                    LOGGER.debug("Refresh executor rejected a refresh of the access token", e);
+                }
+            }
+            schedule(refresh, 0, TimeUnit.MILLISECONDS);
+        }
+
+        private void backoff(long millis) {
+            listener.onBackoff(TimeUnit.MILLISECONDS.toNanos(millis));
+            schedule(this::attempt, millis, TimeUnit.MILLISECONDS);
+        }
+
+        private void schedule(Runnable task, long delay, TimeUnit unit) {
+            if (delay > 0)
+                LOGGER.debug("A request has been delayed for {} milliseconds", unit.toMillis(delay));
+            try {
+                getScheduler().schedule(() -> guarded(task), delay, unit);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new FatalRequestResponseException("Could not schedule request: " + e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Builds a {@link RequestHandler}. Every collaborator is optional and absent unless it is set.
+     */
+    public static final class Builder {
+        private AccessTokenRefresher refresher;
+        private RateLimiter rateLimiter;
+        private ScheduledExecutorService scheduler;
+        private RequestListener listener;
+        private Executor refreshExecutor;
+        private Executor requestExecutor;
+
+        private Builder() {
+        }
+
+        /**
+         * @param refresher the refresher to use, can be null. If the access token expires, then the handler will not
+         *                  be able to finish any following requests in the case that it is null. The refresher is
+         *                  guaranteed to never be called concurrently from within the same handler.
+         * @return this builder.
+         */
+        public Builder setRefresher(AccessTokenRefresher refresher) {
+            this.refresher = refresher;
+            return this;
+        }
+
+        /**
+         * @param rateLimiter the limiter that gates every request sent by the handler, can be null. The limiter should
+         *                    be shared among all handlers of the same client, such that they slow down together when
+         *                    Spotify rate limits us. If null, requests are sent without delay and only rejected requests
+         *                    are delayed.
+         * @return this builder.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param scheduler the scheduler on which {@link #handleRequestAsync(IRequest)} schedules its retries, can be
+         *                  null. If null, a single daemon thread shared by all handlers is used. Tasks submitted to the
+         *                  scheduler never sleep or block, except for refreshes of the access token when no refresh
+         *                  executor is provided, see {@link #setRefreshExecutor(Executor)}.
+         * @return this builder.
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param listener the listener that is notified of every attempt, failure, backoff and rate limiter wait, can
+         *                 be null. See {@link RequestMetrics} for a listener that aggregates these notifications.
+         * @return this builder.
+         */
+        public Builder setListener(RequestListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param refreshExecutor the executor on which {@link #handleRequestAsync(IRequest)} refreshes the access
+         *                        token, can be null. Refreshing blocks while the token request itself backs off or
+         *                        waits for the rate limiter, so it should not run on the scheduler. If null, or if the
+         *                        executor rejects the refresh, the access token is refreshed on the scheduler anyway,
+         *                        which delays the other tasks of the scheduler in the meantime.
+         * @return this builder.
+         */
+        public Builder setRefreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * @param requestExecutor the executor on which {@link #handleRequestAsync(IRequest)} sends requests, can be
+         *                        null. Sending a request blocks until its response arrives, so the number of threads
+         *                        of the executor bounds the number of asynchronous requests in flight. If null, a
+         *                        pool of {@link #DEFAULT_REQUEST_THREADS} daemon threads shared by all handlers is used.
+         * @return this builder.
+         */
+        public Builder setRequestExecutor(Executor requestExecutor) {
+            this.requestExecutor = requestExecutor;
+            return this;
+        }
+
+        /**
+         * @return a new handler with the collaborators set so far, never null.
+         */
+        public RequestHandler build() {
+            return new RequestHandler(this);
+        }
+    }
+
+    /**
+     * Lazily created scheduler that is shared by all handlers that were not given their own scheduler.
+     */
+    private static class DefaultScheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "true-shuffle-request-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lazily created executor that sends the asynchronous requests of all handlers that were not given their own
+     * executor. Its threads stop when they have been idle for a minute.
+     */
+    private static class DefaultRequestExecutor {
+        private static final ThreadPoolExecutor INSTANCE = newRequestExecutor();
+
+        private static ThreadPoolExecutor newRequestExecutor() {
+            var counter = new AtomicInteger();
+            var executor = new ThreadPoolExecutor(DEFAULT_REQUEST_THREADS, DEFAULT_REQUEST_THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+                var thread = new Thread(runnable, "true-shuffle-request-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
     }
 
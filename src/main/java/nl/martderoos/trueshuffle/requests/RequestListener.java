@@ -0,0 +1,50 @@
+package nl.martderoos.trueshuffle.requests;
+
+/**
+ * Listener that is notified of the requests a {@link RequestHandler} sends, for example to export metrics to a
+ * monitoring system. Listeners are called on the thread that handles the request, so implementations must be
+ * thread-safe and should return quickly. Endpoints are identified by the class of the request, such that notifying a
+ * listener does not allocate.
+ */
+public interface RequestListener {
+    /**
+     * A listener that ignores all notifications.
+     */
+    RequestListener NONE = new RequestListener() {
+    };
+
+    /**
+     * Called after every attempt to send a request.
+     *
+     * @param endpoint     the class of the request, identifying the endpoint.
+     * @param latencyNanos the time between sending the request and receiving the response or error.
+     * @param success      whether Spotify accepted the request.
+     */
+    default void onResponse(Class<?> endpoint, long latencyNanos, boolean success) {
+    }
+
+    /**
+     * Called after an attempt failed, describing how the failure is handled.
+     *
+     * @param endpoint the class of the request, identifying the endpoint.
+     * @param outcome  the way in which the failure is handled.
+     */
+    default void onFailure(Class<?> endpoint, ERequestOutcome outcome) {
+    }
+
+    /**
+     * Called when a request is delayed before it is retried.
+     *
+     * @param backoffNanos the delay.
+     */
+    default void onBackoff(long backoffNanos) {
+    }
+
+    /**
+     * Called when a request had to wait for a permit of the {@link RateLimiter}.
+     *
+     * @param waitNanos the time spent waiting.
+     */
+    default void onRateLimitWait(long waitNanos) {
+    }
+}
@@ -0,0 +1,186 @@
+package nl.martderoos.trueshuffle.requests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+/**
+ * Thread-safe {@link RequestListener} that aggregates per-endpoint call counts, latency histograms and failure
+ * outcomes, as well as the total time requests spent in backoff and waiting for the {@link RateLimiter}. Recording
+ * does not allocate once an endpoint has been seen. Additional listeners can be registered to have the same
+ * notifications forwarded, for example to export them to a monitoring system.
+ */
+public class RequestMetrics implements RequestListener {
+    /**
+     * The number of buckets of every latency histogram. Bucket i counts the latencies of at least 2^(i-1) and less
+     * than 2^i microseconds, the last bucket counts all latencies beyond.
+     */
+    public static final int LATENCY_BUCKETS = 32;
+
+    private final Map<Class<?>, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final AtomicLong backoffNanos = new AtomicLong();
+    private final AtomicLong rateLimitWaitNanos = new AtomicLong();
+    private volatile RequestListener[] listeners = new RequestListener[0];
+
+    /**
+     * Register a listener to which all notifications are forwarded.
+     *
+     * @param listener the listener, may not be null.
+     */
+    public synchronized void addListener(RequestListener listener) {
+        Objects.requireNonNull(listener);
+        var current = listeners;
+        var updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Remove a previously registered listener.
+     *
+     * @param listener the listener to remove.
+     */
+    public synchronized void removeListener(RequestListener listener) {
+        listeners = Arrays.stream(listeners).filter((l) -> l != listener).toArray(RequestListener[]::new);
+    }
+
+    @Override
+    public void onResponse(Class<?> endpoint, long latencyNanos, boolean success) {
+        endpoint(endpoint).recordResponse(latencyNanos, success);
+        var current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onResponse(endpoint, latencyNanos, success);
+        }
+    }
+
+    @Override
+    public void onFailure(Class<?> endpoint, ERequestOutcome outcome) {
+        endpoint(endpoint).outcomes.incrementAndGet(outcome.ordinal());
+        var current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onFailure(endpoint, outcome);
+        }
+    }
+
+    @Override
+    public void onBackoff(long backoffNanos) {
+        this.backoffNanos.addAndGet(backoffNanos);
+        var current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onBackoff(backoffNanos);
+        }
+    }
+
+    @Override
+    public void onRateLimitWait(long waitNanos) {
+        rateLimitWaitNanos.addAndGet(waitNanos);
+        var current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onRateLimitWait(waitNanos);
+        }
+    }
+
+    /**
+     * @return the total time requests were delayed before being retried, in nanoseconds.
+     */
+    public long getBackoffNanos() {
+        return backoffNanos.get();
+    }
+
+    /**
+     * @return the total time requests spent waiting for a permit of the {@link RateLimiter}, in nanoseconds.
+     */
+    public long getRateLimitWaitNanos() {
+        return rateLimitWaitNanos.get();
+    }
+
+    /**
+     * Take a snapshot of the statistics of all endpoints that have been called.
+     *
+     * @return the statistics keyed by the simple name of the request class, never null.
+     */
+    public Map<String, EndpointStatistics> getEndpointStatistics() {
+        return endpoints.entrySet().stream().collect(Collectors.toMap(
+                (e) -> e.getKey().getSimpleName(),
+                (e) -> e.getValue().snapshot(),
+                EndpointStatistics::merge
+        ));
+    }
+
+    private EndpointMetrics endpoint(Class<?> endpoint) {
+        var metrics = endpoints.get(endpoint);
+        if (metrics == null)
+            metrics = endpoints.computeIfAbsent(endpoint, (k) -> new EndpointMetrics());
+        return metrics;
+    }
+
+    static int latencyBucket(long latencyNanos) {
+        var micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, latencyNanos));
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static class EndpointMetrics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+        private final AtomicLongArray outcomes = new AtomicLongArray(ERequestOutcome.values().length);
+
+        private void recordResponse(long latencyNanos, boolean success) {
+            calls.incrementAndGet();
+            if (!success)
+                failures.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            latencyHistogram.incrementAndGet(latencyBucket(latencyNanos));
+        }
+
+        private EndpointStatistics snapshot() {
+            var histogram = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = latencyHistogram.get(i);
+            }
+            var outcomeCounts = new long[outcomes.length()];
+            for (int i = 0; i < outcomeCounts.length; i++) {
+                outcomeCounts[i] = outcomes.get(i);
+            }
+            return new EndpointStatistics(calls.get(), failures.get(), totalLatencyNanos.get(), histogram, outcomeCounts);
+        }
+    }
+
+    /**
+     * Snapshot of the statistics of a single endpoint.
+     *
+     * @param calls             the number of attempts to call the endpoint.
+     * @param failures          the number of attempts that were rejected by Spotify or failed otherwise.
+     * @param totalLatencyNanos the sum of the latencies of all attempts.
+     * @param latencyHistogram  the number of attempts per latency bucket, see {@link #LATENCY_BUCKETS}.
+     * @param outcomes          the number of failed attempts per {@link ERequestOutcome}, indexed by ordinal.
+     */
+    public record EndpointStatistics(long calls, long failures, long totalLatencyNanos, long[] latencyHistogram,
+                                     long[] outcomes) {
+        /**
+         * @return the number of failed attempts that were handled with the provided outcome.
+         */
+        public long getOutcomeCount(ERequestOutcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        private static EndpointStatistics merge(EndpointStatistics a, EndpointStatistics b) {
+            var histogram = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = a.latencyHistogram[i] + b.latencyHistogram[i];
+            }
+            var outcomeCounts = new long[a.outcomes.length];
+            for (int i = 0; i < outcomeCounts.length; i++) {
+                outcomeCounts[i] = a.outcomes[i] + b.outcomes[i];
+            }
+            return new EndpointStatistics(a.calls + b.calls, a.failures + b.failures,
+                    a.totalLatencyNanos + b.totalLatencyNanos, histogram, outcomeCounts);
+        }
+    }
+}
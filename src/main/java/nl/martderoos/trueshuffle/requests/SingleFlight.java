@@ -0,0 +1,100 @@
+package nl.martderoos.trueshuffle.requests;
+
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe class that coalesces concurrent identical calls. While a call for some key is in flight, every other
+ * call for the same key waits for its result instead of performing the call again. Results are not cached: once the
+ * call has completed, the next call for the key is performed again.
+ *
+ * @param <K> the type of the keys that identify identical calls.
+ */
+public class SingleFlight<K> {
+    private final ConcurrentHashMap<K, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong savedCalls = new AtomicLong();
+
+    /**
+     * Perform the call, or wait for the identical call that is already in flight. The call is performed on the calling
+     * thread.
+     *
+     * @param key   the key that identifies the call, calls with equal keys must produce equal results.
+     * @param call  the call to perform.
+     * @param share the function that is applied to the result for every waiting caller, for example to give them their
+     *              own copy of a mutable result. The caller that performed the call receives the result itself.
+     * @param <V>   the type of the result of the call.
+     * @return the result of the call.
+     * @throws FatalRequestResponseException when the call, possibly performed by another thread, failed.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(K key, Call<V> call, UnaryOperator<V> share) throws FatalRequestResponseException {
+        Objects.requireNonNull(key);
+        var future = new CompletableFuture<>();
+        var existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            savedCalls.incrementAndGet();
+            return share.apply((V) await(existing));
+        }
+
+        try {
+            var result = call.call();
+            future.complete(result);
+            return result;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Forget the calls in flight that match the predicate, such that calls that start afterward are performed again
+     * instead of waiting for them. Useful when the data a call reads has been modified while the call was in flight.
+     * Callers that are already waiting for a forgotten call still receive its result.
+     *
+     * @param predicate the predicate that matches the keys of the calls to forget.
+     */
+    public void forget(Predicate<K> predicate) {
+        inFlight.keySet().removeIf(predicate);
+    }
+
+    /**
+     * @return the number of calls that were not performed because an identical call was already in flight.
+     */
+    public long getSavedCalls() {
+        return savedCalls.get();
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws FatalRequestResponseException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            var cause = e.getCause();
+            if (cause instanceof FatalRequestResponseException fatal)
+                throw fatal;
+            if (cause instanceof RuntimeException runtime)
+                throw runtime;
+            if (cause instanceof Error error)
+                throw error;
+            throw e;
+        }
+    }
+
+    /**
+     * A call whose result may be shared.
+     *
+     * @param <V> the type of the result of the call.
+     */
+    @FunctionalInterface
+    public interface Call<V> {
+        V call() throws FatalRequestResponseException;
+    }
+}
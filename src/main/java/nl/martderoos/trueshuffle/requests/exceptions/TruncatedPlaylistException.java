@@ -0,0 +1,33 @@
+package nl.martderoos.trueshuffle.requests.exceptions;
+
+import java.util.List;
+
+/**
+ * Indicates that the tracks of a playlist were replaced, but that not all of the new tracks could be written afterward.
+ * The playlist only consists of the tracks that were written, the tracks that were not written are carried by this
+ * exception such that they can be restored.
+ */
+public class TruncatedPlaylistException extends FatalRequestResponseException {
+    private final String playlistId;
+    private final List<String> unwrittenTracks;
+
+    public TruncatedPlaylistException(String message, String playlistId, List<String> unwrittenTracks) {
+        super(message);
+        this.playlistId = playlistId;
+        this.unwrittenTracks = List.copyOf(unwrittenTracks);
+    }
+
+    /**
+     * @return the unique identifier of the truncated playlist.
+     */
+    public String getPlaylistId() {
+        return playlistId;
+    }
+
+    /**
+     * @return the URIs of the tracks that are missing from the end of the playlist, in order, never null.
+     */
+    public List<String> getUnwrittenTracks() {
+        return unwrittenTracks;
+    }
+}
@@ -0,0 +1,24 @@
+package nl.martderoos.trueshuffle.utility;
+
+/**
+ * Enumerates the algorithms {@link TrackDiff} can use to compute which tracks must be added to and removed from a
+ * playlist.
+ */
+public enum ETrackDiffStrategy {
+    /**
+     * Counts the tracks of both sides in a hash table. Runs in linear time and keeps the tracks to add and remove in
+     * the order in which they appear.
+     */
+    HASH,
+    /**
+     * Sorts the encoded tracks of both sides as primitive arrays and merges them in a single linear pass. Does not
+     * allocate per track and sorts very large collections in parallel, but returns the tracks to add and remove in
+     * sorted order.
+     */
+    SORT_MERGE,
+    /**
+     * Uses the strategy that is fastest for the size of the collections, which is currently always {@link #HASH}: it
+     * was at least twice as fast as {@link #SORT_MERGE} for up to 500,000 tracks per side, see TrackDiffBenchmark.
+     */
+    AUTO
+}
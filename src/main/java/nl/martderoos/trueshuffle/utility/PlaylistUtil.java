@@ -4,12 +4,64 @@ import se.michaelthelin.spotify.model_objects.miscellaneous.PlaylistTracksInform
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 
+import java.text.Normalizer;
+import java.util.Collection;
+
 /**
  * utility class for {@link Playlist}.
  */
 public class PlaylistUtil {
+    /**
+     * The prefix of the URI of every local file. Local files can be part of a playlist, but cannot be added to a
+     * playlist through the Spotify API.
+     */
+    public static final String LOCAL_FILE_URI_PREFIX = "spotify:local:";
+
     private PlaylistUtil() {}
 
+    /**
+     * @param uri the uri to check (nullable).
+     * @return true if the uri is the uri of a local file, false otherwise.
+     */
+    public static boolean isLocalFile(String uri) {
+        return uri != null && uri.startsWith(LOCAL_FILE_URI_PREFIX);
+    }
+
+    /**
+     * Check whether any of the provided tracks is a local file, see {@link #isLocalFile(String)}. Such tracks cannot be
+     * written back to a playlist, so the playlist's items must not be replaced.
+     *
+     * @param uris the URIs of the tracks.
+     * @return true if at least one of the tracks is a local file, false otherwise.
+     */
+    public static boolean containsLocalFiles(Collection<String> uris) {
+        if (uris instanceof TrackIdList list) {
+            // only tracks that could not be encoded can be local files
+            for (int i = 0; i < list.size(); i++) {
+                if (!list.isEncoded(i) && isLocalFile(list.get(i)))
+                    return true;
+            }
+            return false;
+        }
+        for (var uri : uris) {
+            if (isLocalFile(uri))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Normalize the name of a playlist for lookups, such that names that look identical are considered equal: the name
+     * is converted to Unicode normalization form C and leading and trailing whitespace is removed. Names remain case
+     * sensitive.
+     *
+     * @param playlistName the name to normalize.
+     * @return the normalized name.
+     */
+    public static String normalizeName(String playlistName) {
+        return Normalizer.normalize(playlistName, Normalizer.Form.NFC).strip();
+    }
+
     /**
      * Convert a rich {@link Playlist} instance to a {@link PlaylistSimplified} instance.
      */
@@ -0,0 +1,84 @@
+package nl.martderoos.trueshuffle.utility;
+
+import java.util.List;
+
+/**
+ * Immutable description of the operations required to reorder a playlist's tracks into a specific target order.
+ * A plan either consists of a sequence of {@link Move moves} or of a single replacement of all tracks by the
+ * {@link #getTargetOrder() target order}. Plans are produced by {@link ReorderPlanner}.
+ */
+public final class ReorderPlan {
+    /**
+     * The maximum number of tracks that can be sent to Spotify in a single replace (or add) request.
+     */
+    public static final int REPLACE_BATCH_SIZE = 100;
+
+    private final List<String> targetOrder;
+    private final List<Move> moves;
+
+    private ReorderPlan(List<String> targetOrder, List<Move> moves) {
+        this.targetOrder = List.copyOf(targetOrder);
+        this.moves = moves == null ? null : List.copyOf(moves);
+    }
+
+    static ReorderPlan ofMoves(List<String> targetOrder, List<Move> moves) {
+        return new ReorderPlan(targetOrder, moves);
+    }
+
+    static ReorderPlan ofReplace(List<String> targetOrder) {
+        return new ReorderPlan(targetOrder, null);
+    }
+
+    /**
+     * @return true if this plan replaces all tracks at once, false if it consists of {@link #getMoves() moves}.
+     */
+    public boolean isReplace() {
+        return moves == null;
+    }
+
+    /**
+     * Get the moves to execute in order. Every move is expressed in terms of the track positions right before that
+     * move is executed, which is in line with how Spotify interprets reorder requests.
+     *
+     * @return the moves, never null. Empty if the tracks are already in order or if this plan {@link #isReplace() replaces}.
+     */
+    public List<Move> getMoves() {
+        return moves == null ? List.of() : moves;
+    }
+
+    /**
+     * @return the order of the tracks once this plan has been executed, never null.
+     */
+    public List<String> getTargetOrder() {
+        return targetOrder;
+    }
+
+    /**
+     * @return the number of requests required to execute this plan, at least 0.
+     */
+    public int getRequestCount() {
+        if (moves == null)
+            return replaceRequestCount(targetOrder.size());
+        return moves.size();
+    }
+
+    /**
+     * Get the number of requests required to replace all tracks of a playlist.
+     *
+     * @param size the number of tracks the playlist should consist of.
+     * @return the number of requests, at least 1.
+     */
+    public static int replaceRequestCount(int size) {
+        return Math.max(1, (size + REPLACE_BATCH_SIZE - 1) / REPLACE_BATCH_SIZE);
+    }
+
+    /**
+     * Describes moving a range of consecutive tracks to another position in the playlist.
+     *
+     * @param rangeStart   the position of the first track to move.
+     * @param rangeLength  the number of consecutive tracks to move, at least 1.
+     * @param insertBefore the position before which the tracks should be inserted.
+     */
+    public record Move(int rangeStart, int rangeLength, int insertBefore) {
+    }
+}
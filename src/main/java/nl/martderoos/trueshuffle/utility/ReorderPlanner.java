@@ -0,0 +1,152 @@
+package nl.martderoos.trueshuffle.utility;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility class that compiles a permutation of a playlist's tracks into the cheapest sequence of Spotify operations.
+ * Tracks that are part of the longest increasing subsequence (with respect to their target position) are never moved.
+ * All other tracks are moved into place, where tracks that are consecutive in both the current and the target order
+ * are merged into a single range move. If allowed and cheaper, the plan instead replaces all tracks at once.
+ */
+public class ReorderPlanner {
+    private ReorderPlanner() {
+    }
+
+    /**
+     * Plan the operations required to reorder the current tracks into the target order.
+     *
+     * @param currentTracks the current tracks of the playlist, in order.
+     * @param targetTracks  the tracks of the playlist in the desired order, must be a permutation of the current tracks.
+     * @param allowReplace  whether the plan may replace all tracks at once if that requires fewer requests. Note that
+     *                      replacing tracks resets the date at which they were added to the playlist. If equally
+     *                      expensive, moves are always preferred.
+     * @return the plan, never null.
+     * @throws IllegalArgumentException if the target tracks are not a permutation of the current tracks.
+     */
+    public static ReorderPlan plan(List<String> currentTracks, List<String> targetTracks, boolean allowReplace) {
+        int[] ranks = rank(currentTracks, targetTracks);
+        var moves = planMoves(ranks);
+
+        if (allowReplace && ReorderPlan.replaceRequestCount(targetTracks.size()) < moves.size())
+            return ReorderPlan.ofReplace(targetTracks);
+        return ReorderPlan.ofMoves(targetTracks, moves);
+    }
+
+    /**
+     * Compute the target position for every current track. Duplicate tracks keep their relative order.
+     */
+    private static int[] rank(List<String> currentTracks, List<String> targetTracks) {
+        if (currentTracks.size() != targetTracks.size())
+            throw new IllegalArgumentException(String.format("Cannot reorder %s tracks into %s tracks", currentTracks.size(), targetTracks.size()));
+
+        Map<String, ArrayDeque<Integer>> targetPositions = new HashMap<>();
+        for (int i = 0; i < targetTracks.size(); i++) {
+            targetPositions.computeIfAbsent(targetTracks.get(i), k -> new ArrayDeque<>()).add(i);
+        }
+
+        int[] ranks = new int[currentTracks.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            var positions = targetPositions.get(currentTracks.get(i));
+            if (positions == null || positions.isEmpty())
+                throw new IllegalArgumentException(String.format("Track %s is not part of the target tracks", currentTracks.get(i)));
+            ranks[i] = positions.poll();
+        }
+        return ranks;
+    }
+
+    private static List<ReorderPlan.Move> planMoves(int[] ranks) {
+        int n = ranks.length;
+        boolean[] placed = longestIncreasingSubsequence(ranks);
+
+        int[] working = ranks.clone();
+        int[] positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            positions[working[i]] = i;
+        }
+
+        // invariant: the placed tracks are in increasing order of rank and all ranks below t have been placed
+        List<ReorderPlan.Move> moves = new ArrayList<>();
+        for (int t = 0; t < n; t++) {
+            if (placed[t])
+                continue;
+
+            int start = positions[t];
+            int length = 1;
+            while (t + length < n && start + length < n && !placed[t + length] && working[start + length] == t + length)
+                length++;
+
+            int insertBefore = t == 0 ? 0 : positions[t - 1] + 1;
+            if (start != insertBefore) {
+                moves.add(new ReorderPlan.Move(start, length, insertBefore));
+                move(working, positions, start, length, insertBefore);
+            }
+
+            for (int i = 0; i < length; i++) {
+                placed[t + i] = true;
+            }
+            t += length - 1;
+        }
+        return moves;
+    }
+
+    /**
+     * Apply a move to the working order following Spotify's semantics, where the insert position refers to the
+     * position before the range is removed.
+     */
+    private static void move(int[] working, int[] positions, int start, int length, int insertBefore) {
+        int[] range = Arrays.copyOfRange(working, start, start + length);
+        int from, to;
+        if (insertBefore < start) {
+            System.arraycopy(working, insertBefore, working, insertBefore + length, start - insertBefore);
+            System.arraycopy(range, 0, working, insertBefore, length);
+            from = insertBefore;
+            to = start + length;
+        } else {
+            System.arraycopy(working, start + length, working, start, insertBefore - start - length);
+            System.arraycopy(range, 0, working, insertBefore - length, length);
+            from = start;
+            to = insertBefore;
+        }
+        for (int i = from; i < to; i++) {
+            positions[working[i]] = i;
+        }
+    }
+
+    /**
+     * Finds a longest increasing subsequence of the provided distinct values in O(n log n).
+     *
+     * @return an array indexed by value that indicates whether the value is part of the subsequence.
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] values) {
+        int n = values.length;
+        int[] tails = new int[n]; // index into values of the smallest tail of a subsequence of length i + 1
+        int[] predecessors = new int[n];
+        int length = 0;
+
+        for (int i = 0; i < n; i++) {
+            int low = 0, high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i])
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+
+        boolean[] inSubsequence = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+            inSubsequence[values[i]] = true;
+        }
+        return inSubsequence;
+    }
+}
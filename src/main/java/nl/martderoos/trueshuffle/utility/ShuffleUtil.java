@@ -1,5 +1,6 @@
 package nl.martderoos.trueshuffle.utility;
 
+import nl.martderoos.trueshuffle.model.EShuffleMode;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
@@ -8,6 +9,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -20,34 +22,69 @@ public class ShuffleUtil {
     }
 
     /**
-     * Shuffles provided list of tracks into target playlist. The provided list of tracks will be diffed with the current
-     * tracks to reduce the number of api calls.
+     * Shuffles provided list of tracks into target playlist using {@link EShuffleMode#REORDER}.
      *
      * @param api    the api.
      * @param target the target playlist.
      * @param tracks the list of tracks that should be in target playlist.
+     * @see #shuffleInto(ShuffleApi, ShufflePlaylist, Collection, EShuffleMode)
      */
     public static void shuffleInto(ShuffleApi api, ShufflePlaylist target, Collection<String> tracks) throws FatalRequestResponseException {
-        var currentTracks = target.getPlaylistTracksUris();
-        var currentTracksCounter = new ItemCounter<>(currentTracks);
+        shuffleInto(api, target, tracks, EShuffleMode.REORDER);
+    }
+
+    /**
+     * Shuffles provided list of tracks into target playlist. For {@link EShuffleMode#REORDER}, the provided list of
+     * tracks will be diffed with the current tracks to reduce the number of api calls, after which the target playlist
+     * is shuffled in-place. For {@link EShuffleMode#REPLACE}, the provided list of tracks is shuffled locally and then
+     * replaces the target playlist's tracks, which makes diffing unnecessary. Local files cannot be written back to a
+     * playlist, so if any of the provided tracks is a local file, {@link EShuffleMode#REORDER} is used instead.
+     *
+     * @param api    the api.
+     * @param target the target playlist.
+     * @param tracks the list of tracks that should be in target playlist.
+     * @param mode   the strategy to use for shuffling.
+     * @see #shuffleInto(ShuffleApi, ShufflePlaylist, Collection, EShuffleMode, ETrackDiffStrategy)
+     */
+    public static void shuffleInto(ShuffleApi api, ShufflePlaylist target, Collection<String> tracks, EShuffleMode mode) throws FatalRequestResponseException {
+        shuffleInto(api, target, tracks, mode, ETrackDiffStrategy.AUTO);
+    }
 
-        List<String> tracksToAdd = new ArrayList<>();
-        for (var newTrack : tracks) {
-            if (!currentTracksCounter.remove(newTrack))
-                tracksToAdd.add(newTrack);
+    /**
+     * Shuffles provided list of tracks into target playlist like
+     * {@link #shuffleInto(ShuffleApi, ShufflePlaylist, Collection, EShuffleMode)}, computing the diff for
+     * {@link EShuffleMode#REORDER} with the provided strategy.
+     *
+     * @param api          the api.
+     * @param target       the target playlist.
+     * @param tracks       the list of tracks that should be in target playlist.
+     * @param mode         the strategy to use for shuffling.
+     * @param diffStrategy the algorithm to compute the tracks to add and remove with.
+     */
+    public static void shuffleInto(ShuffleApi api, ShufflePlaylist target, Collection<String> tracks, EShuffleMode mode, ETrackDiffStrategy diffStrategy) throws FatalRequestResponseException {
+        if (mode == EShuffleMode.REPLACE && PlaylistUtil.containsLocalFiles(tracks)) {
+            LOGGER.info("Cannot replace the tracks of playlist '{}' for {} with local files, reordering instead", target.getName(), api.getDisplayName());
+            mode = EShuffleMode.REORDER;
         }
 
-        var newTracksCounter = new ItemCounter<>(tracks);
+        if (mode == EShuffleMode.REPLACE) {
+            var shuffledTracks = new ArrayList<>(tracks);
+            Collections.shuffle(shuffledTracks);
+
+            LOGGER.info("Replacing playlist '{}' for {} with {} shuffled tracks", target.getName(), api.getDisplayName(), shuffledTracks.size());
 
-        List<String> tracksToRemove = new ArrayList<>();
-        for (var currentTrack : currentTracks) {
-            if (!newTracksCounter.remove(currentTrack))
-                tracksToRemove.add(currentTrack);
+            target.replaceTracks(shuffledTracks);
+            return;
         }
 
+        // the diff is computed on encoded track identifiers, tracks are only converted back to URIs when they change
+        var diff = TrackDiff.compute(TrackIdList.copyOf(target.getPlaylistTracksUris()), TrackIdList.copyOf(tracks), diffStrategy);
+        var tracksToAdd = diff.tracksToAdd();
+        var tracksToRemove = diff.tracksToRemove();
+
         LOGGER.info("Updating playlist '{}' for {} ({} tracks removed, {} tracks added)", target.getName(), api.getDisplayName(), tracksToRemove.size(), tracksToAdd.size());
 
         target.addAndRemoveTracks(tracksToAdd, tracksToRemove);
-        target.shuffleInPlace();
+        target.shuffleInPlace(EShuffleMode.REORDER);
     }
 }
@@ -0,0 +1,226 @@
+package nl.martderoos.trueshuffle.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The difference between the current tracks of a playlist and the tracks it should consist of, as multisets: a track
+ * that appears twice in the target but once in the current tracks must be added once.
+ *
+ * @param tracksToAdd    the tracks that are missing from the current tracks.
+ * @param tracksToRemove the tracks that are superfluous in the current tracks.
+ */
+public record TrackDiff(List<String> tracksToAdd, List<String> tracksToRemove) {
+    /**
+     * The minimal number of tracks of a single side that is sorted in parallel.
+     */
+    static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    private static final int SEQUENTIAL_SORT_THRESHOLD = 1 << 13;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Compute the difference using {@link ETrackDiffStrategy#AUTO}.
+     *
+     * @see #compute(TrackIdList, TrackIdList, ETrackDiffStrategy)
+     */
+    public static TrackDiff compute(TrackIdList currentTracks, TrackIdList targetTracks) {
+        return compute(currentTracks, targetTracks, ETrackDiffStrategy.AUTO);
+    }
+
+    /**
+     * Compute the tracks that must be added to and removed from the current tracks to end up with the target tracks,
+     * ignoring their order.
+     *
+     * @param currentTracks the current tracks.
+     * @param targetTracks  the tracks that should remain.
+     * @param strategy      the algorithm to use.
+     * @return the difference, never null.
+     */
+    public static TrackDiff compute(TrackIdList currentTracks, TrackIdList targetTracks, ETrackDiffStrategy strategy) {
+        Objects.requireNonNull(strategy);
+        return strategy == ETrackDiffStrategy.SORT_MERGE
+                ? sortMergeDiff(currentTracks, targetTracks)
+                : hashDiff(currentTracks, targetTracks);
+    }
+
+    private static TrackDiff hashDiff(TrackIdList currentTracks, TrackIdList targetTracks) {
+        var currentTracksCounter = new TrackIdCounter(currentTracks);
+        List<String> tracksToAdd = new ArrayList<>();
+        for (int i = 0; i < targetTracks.size(); i++) {
+            if (!currentTracksCounter.remove(targetTracks, i))
+                tracksToAdd.add(targetTracks.get(i));
+        }
+
+        var targetTracksCounter = new TrackIdCounter(targetTracks);
+        List<String> tracksToRemove = new ArrayList<>();
+        for (int i = 0; i < currentTracks.size(); i++) {
+            if (!targetTracksCounter.remove(currentTracks, i))
+                tracksToRemove.add(currentTracks.get(i));
+        }
+        return new TrackDiff(tracksToAdd, tracksToRemove);
+    }
+
+    private static TrackDiff sortMergeDiff(TrackIdList currentTracks, TrackIdList targetTracks) {
+        var current = sortedIds(currentTracks);
+        var target = sortedIds(targetTracks);
+
+        List<String> tracksToAdd = new ArrayList<>();
+        List<String> tracksToRemove = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < current.length && j < target.length) {
+            var comparison = compare(current, i, target, j);
+            if (comparison == 0) {
+                i += 2;
+                j += 2;
+            } else if (comparison < 0) {
+                tracksToRemove.add(TrackId.decode(current[i], current[i + 1]));
+                i += 2;
+            } else {
+                tracksToAdd.add(TrackId.decode(target[j], target[j + 1]));
+                j += 2;
+            }
+        }
+        for (; i < current.length; i += 2) {
+            tracksToRemove.add(TrackId.decode(current[i], current[i + 1]));
+        }
+        for (; j < target.length; j += 2) {
+            tracksToAdd.add(TrackId.decode(target[j], target[j + 1]));
+        }
+
+        // URIs that cannot be encoded are rare, so they are simply counted
+        var currentOthers = new ItemCounter<String>();
+        var targetOthers = new ItemCounter<String>();
+        for (int k = 0; k < currentTracks.size(); k++) {
+            if (!currentTracks.isEncoded(k))
+                currentOthers.add(currentTracks.get(k));
+        }
+        for (int k = 0; k < targetTracks.size(); k++) {
+            if (!targetTracks.isEncoded(k))
+                targetOthers.add(targetTracks.get(k));
+        }
+        for (int k = 0; k < targetTracks.size(); k++) {
+            if (!targetTracks.isEncoded(k) && !currentOthers.remove(targetTracks.get(k)))
+                tracksToAdd.add(targetTracks.get(k));
+        }
+        for (int k = 0; k < currentTracks.size(); k++) {
+            if (!currentTracks.isEncoded(k) && !targetOthers.remove(currentTracks.get(k)))
+                tracksToRemove.add(currentTracks.get(k));
+        }
+        return new TrackDiff(tracksToAdd, tracksToRemove);
+    }
+
+    /**
+     * @return the encoded identifiers of the tracks as pairs of longs, sorted by high and then low bits.
+     */
+    private static long[] sortedIds(TrackIdList tracks) {
+        int count = 0;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.isEncoded(i))
+                count++;
+        }
+        var ids = new long[count * 2];
+        int k = 0;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.isEncoded(i)) {
+                ids[k++] = tracks.getHigh(i);
+                ids[k++] = tracks.getLow(i);
+            }
+        }
+
+        var buffer = new long[ids.length];
+        if (count >= PARALLEL_SORT_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new SortTask(ids, buffer, 0, count));
+        } else {
+            sort(ids, buffer, 0, count);
+        }
+        return ids;
+    }
+
+    /**
+     * Merge sort of the pairs in [from, to) of ids, using the same range of buffer as scratch space.
+     */
+    private static void sort(long[] ids, long[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(ids, from, to);
+            return;
+        }
+        var middle = (from + to) >>> 1;
+        sort(ids, buffer, from, middle);
+        sort(ids, buffer, middle, to);
+        merge(ids, buffer, from, middle, to);
+    }
+
+    private static void insertionSort(long[] ids, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            var high = ids[2 * i];
+            var low = ids[2 * i + 1];
+            int j = i - 1;
+            while (j >= from && compare(ids[2 * j], ids[2 * j + 1], high, low) > 0) {
+                ids[2 * j + 2] = ids[2 * j];
+                ids[2 * j + 3] = ids[2 * j + 1];
+                j--;
+            }
+            ids[2 * j + 2] = high;
+            ids[2 * j + 3] = low;
+        }
+    }
+
+    private static void merge(long[] ids, long[] buffer, int from, int middle, int to) {
+        if (compare(ids, 2 * middle - 2, ids, 2 * middle) <= 0)
+            return; // already in order
+        System.arraycopy(ids, 2 * from, buffer, 2 * from, 2 * (to - from));
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to) {
+            if (compare(buffer, 2 * i, buffer, 2 * j) <= 0) {
+                ids[2 * k] = buffer[2 * i];
+                ids[2 * k + 1] = buffer[2 * i + 1];
+                i++;
+            } else {
+                ids[2 * k] = buffer[2 * j];
+                ids[2 * k + 1] = buffer[2 * j + 1];
+                j++;
+            }
+            k++;
+        }
+        System.arraycopy(buffer, 2 * i, ids, 2 * k, 2 * (middle - i));
+        k += middle - i;
+        System.arraycopy(buffer, 2 * j, ids, 2 * k, 2 * (to - j));
+    }
+
+    private static int compare(long[] a, int i, long[] b, int j) {
+        return compare(a[i], a[i + 1], b[j], b[j + 1]);
+    }
+
+    private static int compare(long highA, long lowA, long highB, long lowB) {
+        var comparison = Long.compare(highA, highB);
+        return comparison != 0 ? comparison : Long.compare(lowA, lowB);
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private final long[] ids;
+        private final long[] buffer;
+        private final int from;
+        private final int to;
+
+        private SortTask(long[] ids, long[] buffer, int from, int to) {
+            this.ids = ids;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_SORT_THRESHOLD) {
+                sort(ids, buffer, from, to);
+                return;
+            }
+            var middle = (from + to) >>> 1;
+            invokeAll(new SortTask(ids, buffer, from, middle), new SortTask(ids, buffer, middle, to));
+            merge(ids, buffer, from, middle, to);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package nl.martderoos.trueshuffle.utility;
+
+import java.util.Arrays;
+
+/**
+ * Codec between track URIs of the form {@code spotify:track:<id>} and two longs. Spotify identifiers are 128-bit
+ * numbers encoded as 22 base62 digits, so a track URI can be stored in 16 bytes instead of a string of over 100 bytes.
+ * URIs of other kinds (episodes, local files) cannot be encoded, see {@link #isEncodable(String)}.
+ */
+public final class TrackId {
+    /**
+     * The prefix of the URI of every track.
+     */
+    public static final String URI_PREFIX = "spotify:track:";
+    /**
+     * The number of base62 digits of a Spotify identifier.
+     */
+    public static final int ID_LENGTH = 22;
+
+    private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final int BASE = 62;
+    private static final long LIMB_MASK = 0xFFFFFFFFL;
+    private static final int CHUNK_DIGITS = 10;
+    // 62^10, the largest power of the base that fits in a long
+    private static final long CHUNK_BASE = 839_299_365_868_340_224L;
+    private static final byte[] DIGITS = new byte[128];
+    private static final int DIVISOR_DIGITS = 5;
+    // 62^5, the largest power of the base that fits in 32 bits
+    private static final long DIVISOR = 916_132_832L;
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            DIGITS[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private TrackId() {
+
+    }
+
+    /**
+     * @param uri the uri to check (nullable).
+     * @return true if the uri is the uri of a track with a valid identifier, false otherwise.
+     */
+    public static boolean isEncodable(String uri) {
+        return encode(uri, null, 0);
+    }
+
+    /**
+     * Encode the identifier of a track in a single pass over the uri, which is cheaper than checking
+     * {@link #isEncodable(String)} and calling {@link #high(String)} and {@link #low(String)}.
+     *
+     * @param uri    the uri of the track (nullable).
+     * @param target the array to store the most and least significant 64 bits of the identifier in (nullable). If
+     *               null, the uri is only checked.
+     * @param offset the index of the array to store the most significant bits at, the least significant bits are
+     *               stored at the next index.
+     * @return true if the uri was encoded, false if it is not encodable, in which case the array is not modified.
+     */
+    public static boolean encode(String uri, long[] target, int offset) {
+        if (uri == null || uri.length() != URI_PREFIX.length() + ID_LENGTH || !uri.startsWith(URI_PREFIX))
+            return false;
+        // the 22 digits are parsed as chunks of 2, 10 and 10 digits that each fit in a long, and then combined
+        var start = URI_PREFIX.length();
+        var c1 = parseChunk(uri, start, start + 2);
+        var c2 = parseChunk(uri, start + 2, start + 2 + CHUNK_DIGITS);
+        var c3 = parseChunk(uri, start + 2 + CHUNK_DIGITS, uri.length());
+        if (c1 < 0 || c2 < 0 || c3 < 0)
+            return false;
+
+        // (hi, lo) = c1 * 62^10 + c2, which is less than 2^72
+        var hi = Math.multiplyHigh(c1, CHUNK_BASE);
+        var lo = c1 * CHUNK_BASE + c2;
+        if (Long.compareUnsigned(lo, c2) < 0)
+            hi++;
+        // (hi, lo) = (hi, lo) * 62^10 + c3, which may exceed 128 bits
+        if (Math.multiplyHigh(hi, CHUNK_BASE) != 0)
+            return false;
+        var carry = Math.multiplyHigh(lo, CHUNK_BASE) + ((lo >> 63) & CHUNK_BASE);
+        hi = hi * CHUNK_BASE + carry;
+        if (Long.compareUnsigned(hi, carry) < 0)
+            return false;
+        lo = lo * CHUNK_BASE + c3;
+        if (Long.compareUnsigned(lo, c3) < 0 && ++hi == 0)
+            return false;
+
+        if (target != null) {
+            target[offset] = hi;
+            target[offset + 1] = lo;
+        }
+        return true;
+    }
+
+    /**
+     * Get the most significant 64 bits of the identifier of a track.
+     *
+     * @param uri the uri of the track, must be encodable, see {@link #isEncodable(String)}.
+     * @return the most significant 64 bits.
+     */
+    public static long high(String uri) {
+        return encode(uri)[0];
+    }
+
+    /**
+     * Get the least significant 64 bits of the identifier of a track.
+     *
+     * @param uri the uri of the track, must be encodable, see {@link #isEncodable(String)}.
+     * @return the least significant 64 bits.
+     */
+    public static long low(String uri) {
+        return encode(uri)[1];
+    }
+
+    /**
+     * Convert an encoded identifier back to the uri of the track.
+     *
+     * @param high the most significant 64 bits of the identifier.
+     * @param low  the least significant 64 bits of the identifier.
+     * @return the uri of the track, never null.
+     */
+    public static String decode(long high, long low) {
+        long l0 = low & LIMB_MASK, l1 = low >>> 32, l2 = high & LIMB_MASK, l3 = high >>> 32;
+        var chars = new char[URI_PREFIX.length() + ID_LENGTH];
+        URI_PREFIX.getChars(0, URI_PREFIX.length(), chars, 0);
+        var i = chars.length - 1;
+        while (i >= URI_PREFIX.length()) {
+            // long division of the 128-bit number by 62^5, from most to least significant 32 bits
+            var v = l3;
+            l3 = v / DIVISOR;
+            v = ((v % DIVISOR) << 32) | l2;
+            l2 = v / DIVISOR;
+            v = ((v % DIVISOR) << 32) | l1;
+            l1 = v / DIVISOR;
+            v = ((v % DIVISOR) << 32) | l0;
+            l0 = v / DIVISOR;
+            // the remainder holds the next 5 digits
+            var remainder = (int) (v % DIVISOR);
+            for (int j = 0; j < DIVISOR_DIGITS && i >= URI_PREFIX.length(); j++) {
+                chars[i--] = ALPHABET.charAt(remainder % BASE);
+                remainder /= BASE;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static long[] encode(String uri) {
+        var id = new long[2];
+        if (!encode(uri, id, 0))
+            throw new IllegalArgumentException(String.format("%s is not the uri of a track", uri));
+        return id;
+    }
+
+    /**
+     * @return the value of the digits in [from, to) of the uri, or -1 if any of them is not a digit.
+     */
+    private static long parseChunk(String uri, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            var digit = digit(uri.charAt(i));
+            if (digit < 0)
+                return -1;
+            value = value * BASE + digit;
+        }
+        return value;
+    }
+
+    private static int digit(char c) {
+        // a lookup instead of range checks, which are unpredictable for the random digits of identifiers
+        return c < DIGITS.length ? DIGITS[c] : -1;
+    }
+}
@@ -0,0 +1,220 @@
+package nl.martderoos.trueshuffle.utility;
+
+/**
+ * Counts the amount of duplicate track URIs, like an {@link ItemCounter}, without allocating objects per track. Track
+ * URIs are counted by their encoded identifier (see {@link TrackId}) in an open-addressing hash table of primitive
+ * arrays. URIs that cannot be encoded are counted by a regular {@link ItemCounter}.
+ */
+public class TrackIdCounter {
+    private static final int MIN_CAPACITY = 16;
+
+    // the high and low bits of the identifier in slot i are stored at 2i and 2i + 1
+    private long[] keys;
+    private int[] counts;
+    private boolean[] used;
+    private int usedSlots = 0;
+    private ItemCounter<String> others;
+    // reused to encode a uri in a single pass, see TrackId#encode(String, long[], int)
+    private final long[] id = new long[2];
+
+    /**
+     * Create a counter without any items.
+     */
+    public TrackIdCounter() {
+        this(0);
+    }
+
+    /**
+     * Create a counter without any items that can hold the expected number of distinct tracks without growing.
+     *
+     * @param expectedSize the expected number of distinct tracks.
+     */
+    public TrackIdCounter(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Create a counter with the provided track URIs.
+     */
+    public TrackIdCounter(TrackIdList uris) {
+        this(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            add(uris, i);
+        }
+    }
+
+    /**
+     * Check if the counter contains any such track.
+     *
+     * @param uri the uri of the track to look for.
+     * @return true if there exists at least 1 such track.
+     */
+    public boolean contains(String uri) {
+        return getCount(uri) > 0;
+    }
+
+    /**
+     * Add a track to the counter.
+     *
+     * @param uri the uri of the track to add.
+     */
+    public void add(String uri) {
+        if (TrackId.encode(uri, id, 0)) {
+            add(id[0], id[1]);
+        } else {
+            others().add(uri);
+        }
+    }
+
+    /**
+     * Add the track at the provided index of the list to the counter, without converting it to a string.
+     *
+     * @param uris  the list of tracks.
+     * @param index the index of the track to add.
+     */
+    public void add(TrackIdList uris, int index) {
+        if (uris.isEncoded(index)) {
+            add(uris.getHigh(index), uris.getLow(index));
+        } else {
+            others().add(uris.get(index));
+        }
+    }
+
+    /**
+     * Adds all tracks to this counter. It will call {@link #add(String)} for each track in the provided tracks.
+     *
+     * @param uris the URIs of the tracks to add.
+     */
+    public void addAll(Iterable<String> uris) {
+        uris.forEach(this::add);
+    }
+
+    /**
+     * Get the current count of a track.
+     *
+     * @param uri the uri of the track to check the count for.
+     * @return the track count, at least 0.
+     */
+    public int getCount(String uri) {
+        if (TrackId.encode(uri, id, 0)) {
+            var slot = find(id[0], id[1]);
+            return slot < 0 ? 0 : counts[slot];
+        }
+        return others == null ? 0 : others.getCount(uri);
+    }
+
+    /**
+     * Reduces the count of the associated track by 1 if it exists.
+     *
+     * @param uri The uri of the track to remove.
+     * @return True if the counter of the associated track was <strong>at least</strong> 1 before this call was made,
+     * false otherwise.
+     */
+    public boolean remove(String uri) {
+        if (TrackId.encode(uri, id, 0))
+            return remove(id[0], id[1]);
+        return others != null && others.remove(uri);
+    }
+
+    /**
+     * Reduces the count of the track at the provided index of the list by 1 if it exists, without converting it to a
+     * string.
+     *
+     * @param uris  the list of tracks.
+     * @param index the index of the track to remove.
+     * @return True if the counter of the associated track was <strong>at least</strong> 1 before this call was made,
+     * false otherwise.
+     */
+    public boolean remove(TrackIdList uris, int index) {
+        if (uris.isEncoded(index))
+            return remove(uris.getHigh(index), uris.getLow(index));
+        return others != null && others.remove(uris.get(index));
+    }
+
+    private void add(long high, long low) {
+        var slot = slot(high, low);
+        while (used[slot]) {
+            if (keys[2 * slot] == high && keys[2 * slot + 1] == low) {
+                counts[slot]++;
+                return;
+            }
+            slot = (slot + 1) & (counts.length - 1);
+        }
+        used[slot] = true;
+        keys[2 * slot] = high;
+        keys[2 * slot + 1] = low;
+        counts[slot] = 1;
+        if (++usedSlots * 2 > counts.length)
+            grow();
+    }
+
+    private boolean remove(long high, long low) {
+        var slot = find(high, low);
+        if (slot < 0 || counts[slot] == 0)
+            return false;
+        // the slot stays in use, such that probe sequences of other tracks are never interrupted
+        counts[slot]--;
+        return true;
+    }
+
+    private int find(long high, long low) {
+        var slot = slot(high, low);
+        while (used[slot]) {
+            if (keys[2 * slot] == high && keys[2 * slot + 1] == low)
+                return slot;
+            slot = (slot + 1) & (counts.length - 1);
+        }
+        return -1;
+    }
+
+    private int slot(long high, long low) {
+        // identifiers are random, but mix anyway to be safe against skewed input
+        var hash = (high * 0x9E3779B97F4A7C15L) ^ low;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & (counts.length - 1);
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldCounts = counts;
+        var oldUsed = used;
+        allocate(oldCounts.length * 2);
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (!oldUsed[i] || oldCounts[i] == 0)
+                continue;
+            var slot = slot(oldKeys[2 * i], oldKeys[2 * i + 1]);
+            while (used[slot]) {
+                slot = (slot + 1) & (counts.length - 1);
+            }
+            used[slot] = true;
+            keys[2 * slot] = oldKeys[2 * i];
+            keys[2 * slot + 1] = oldKeys[2 * i + 1];
+            counts[slot] = oldCounts[i];
+            usedSlots++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * 2];
+        counts = new int[capacity];
+        used = new boolean[capacity];
+        usedSlots = 0;
+    }
+
+    private ItemCounter<String> others() {
+        if (others == null)
+            others = new ItemCounter<>();
+        return others;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep the load factor at most 0.5
+        var capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
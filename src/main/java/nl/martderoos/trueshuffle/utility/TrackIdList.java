@@ -0,0 +1,166 @@
+package nl.martderoos.trueshuffle.utility;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, compact list of track URIs. Every track URI is stored as its encoded identifier in two longs, see
+ * {@link TrackId}, and is only converted back to a string when it is requested. URIs that cannot be encoded (episodes,
+ * local files) are stored as they are. A list of tracks therefore takes roughly 16 bytes per track, compared to over
+ * 100 bytes per track for a list of strings.
+ */
+public final class TrackIdList extends AbstractList<String> implements RandomAccess {
+    private static final TrackIdList EMPTY = new TrackIdList(new long[0], new int[0], new String[0]);
+
+    // the high and low bits of the identifier of track i are stored at 2i and 2i + 1
+    private final long[] ids;
+    // the sorted indices of the URIs that could not be encoded, and those URIs
+    private final int[] otherIndices;
+    private final String[] others;
+
+    private TrackIdList(long[] ids, int[] otherIndices, String[] others) {
+        this.ids = ids;
+        this.otherIndices = otherIndices;
+        this.others = others;
+    }
+
+    /**
+     * Create a list with the provided URIs, in iteration order.
+     *
+     * @param uris the URIs, may not contain null.
+     * @return the list, never null. If the provided URIs are already a {@link TrackIdList}, they are returned as is.
+     */
+    public static TrackIdList copyOf(Collection<String> uris) {
+        if (uris instanceof TrackIdList list)
+            return list;
+        if (uris.isEmpty())
+            return EMPTY;
+
+        var builder = new Builder(uris.size());
+        for (var uri : uris) {
+            builder.add(uri);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String get(int index) {
+        Objects.checkIndex(index, size());
+        var other = otherIndex(index);
+        if (other >= 0)
+            return others[other];
+        return TrackId.decode(ids[2 * index], ids[2 * index + 1]);
+    }
+
+    @Override
+    public int size() {
+        return ids.length / 2;
+    }
+
+    /**
+     * @param index the index of the track.
+     * @return true if the track at the provided index is stored as its encoded identifier, false if it could not be
+     * encoded.
+     */
+    public boolean isEncoded(int index) {
+        Objects.checkIndex(index, size());
+        return otherIndex(index) < 0;
+    }
+
+    /**
+     * @param index the index of an encoded track, see {@link #isEncoded(int)}.
+     * @return the most significant 64 bits of the identifier of the track.
+     */
+    public long getHigh(int index) {
+        return ids[2 * index];
+    }
+
+    /**
+     * @param index the index of an encoded track, see {@link #isEncoded(int)}.
+     * @return the least significant 64 bits of the identifier of the track.
+     */
+    public long getLow(int index) {
+        return ids[2 * index + 1];
+    }
+
+    private int otherIndex(int index) {
+        return otherIndices.length == 0 ? -1 : Arrays.binarySearch(otherIndices, index);
+    }
+
+    /**
+     * Builds a list one track at a time, for example while decoding tracks that are already encoded, without ever
+     * converting them to strings.
+     */
+    public static final class Builder {
+        private long[] ids;
+        private int[] otherIndices = new int[0];
+        private String[] others = new String[0];
+        private int size = 0;
+        private int otherCount = 0;
+
+        /**
+         * @param expectedSize the expected number of tracks, at least 0.
+         */
+        public Builder(int expectedSize) {
+            if (expectedSize < 0) throw new IllegalArgumentException("Expected size must be at least 0");
+            this.ids = new long[expectedSize * 2];
+        }
+
+        /**
+         * Add a track URI, which is encoded if possible.
+         *
+         * @param uri the URI, not null.
+         * @return this builder.
+         */
+        public Builder add(String uri) {
+            Objects.requireNonNull(uri);
+            ensureCapacity();
+            if (TrackId.encode(uri, ids, 2 * size)) {
+                size++;
+                return this;
+            }
+
+            if (otherCount == otherIndices.length) {
+                otherIndices = Arrays.copyOf(otherIndices, Math.max(4, otherCount * 2));
+                others = Arrays.copyOf(others, otherIndices.length);
+            }
+            otherIndices[otherCount] = size;
+            others[otherCount++] = uri;
+            // the slots of the identifier remain unused
+            return addEncoded(0, 0);
+        }
+
+        /**
+         * Add an encoded track, see {@link TrackId}.
+         *
+         * @param high the most significant 64 bits of the identifier of the track.
+         * @param low  the least significant 64 bits of the identifier of the track.
+         * @return this builder.
+         */
+        public Builder addEncoded(long high, long low) {
+            ensureCapacity();
+            ids[2 * size] = high;
+            ids[2 * size + 1] = low;
+            size++;
+            return this;
+        }
+
+        private void ensureCapacity() {
+            if (2 * size == ids.length)
+                ids = Arrays.copyOf(ids, Math.max(8, ids.length * 2));
+        }
+
+        /**
+         * @return a list of the tracks added so far, never null.
+         */
+        public TrackIdList build() {
+            if (size == 0)
+                return EMPTY;
+            var exact = ids.length == 2 * size ? ids.clone() : Arrays.copyOf(ids, 2 * size);
+            return new TrackIdList(exact, Arrays.copyOf(otherIndices, otherCount), Arrays.copyOf(others, otherCount));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package nl.martderoos.trueshuffle;
+
+import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.model.ShuffleApi;
+import nl.martderoos.trueshuffle.requests.exceptions.AuthorizationRevokedException;
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class TokenRefreshSchedulerTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long MARGIN = TimeUnit.MINUTES.toMillis(5);
+    private static final long JITTER = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testRefreshDelayWithinJitter() {
+        var clock = new AtomicLong(1000);
+        var refresher = new TokenRefreshScheduler(mock(ScheduledExecutorService.class), (id) -> null, MARGIN, JITTER, new Random(1), clock::get);
+        for (int i = 0; i < 100; i++) {
+            var delay = refresher.refreshDelayMillis(1000 + HOUR);
+            assertTrue(delay <= HOUR - MARGIN);
+            assertTrue(delay >= HOUR - MARGIN - JITTER);
+        }
+        assertEquals(0, refresher.refreshDelayMillis(1000));
+    }
+
+    @Test
+    public void testRefreshesUserWhenDue() throws FatalRequestResponseException {
+        var clock = new AtomicLong(0);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+
+        refresher.scheduleUser("user");
+        assertTrue(refresher.isScheduled("user"));
+        assertEquals(1, scheduler.tasks.size());
+        assertTrue(scheduler.delays.get(0) <= HOUR - MARGIN);
+
+        clock.set(scheduler.delays.get(0));
+        doAnswer(invocation -> {
+            when(api.getAccessTokenExpiresAt()).thenReturn(clock.get() + HOUR);
+            return null;
+        }).when(api).refreshCredentials();
+        scheduler.runNext();
+
+        verify(api, times(1)).refreshCredentials();
+        assertEquals(2, scheduler.tasks.size());
+        assertTrue(scheduler.delays.get(1) > HOUR - MARGIN - JITTER - 1);
+    }
+
+    @Test
+    public void testReplacedCredentialsAreNotRefreshed() throws FatalRequestResponseException {
+        var clock = new AtomicLong(0);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+
+        // credentials were assigned externally in the meantime
+        clock.set(scheduler.delays.get(0));
+        when(api.getAccessTokenExpiresAt()).thenReturn(clock.get() + HOUR);
+        scheduler.runNext();
+
+        verify(api, never()).refreshCredentials();
+        assertEquals(2, scheduler.tasks.size());
+    }
+
+    @Test
+    public void testStopsWhenUserIsRemoved() {
+        var clock = new AtomicLong(0);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var present = new boolean[]{true};
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> {
+            if (!present[0]) throw new UserNotFoundException(id);
+            return user;
+        }, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+
+        present[0] = false;
+        scheduler.runNext();
+        assertFalse(refresher.isScheduled("user"));
+        assertEquals(1, scheduler.tasks.size());
+    }
+
+    @Test
+    public void testCancelledUserIsNotRefreshed() throws FatalRequestResponseException {
+        var clock = new AtomicLong(HOUR);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+        refresher.cancelUser("user");
+        assertFalse(refresher.isScheduled("user"));
+
+        scheduler.runNext();
+        verify(api, never()).refreshCredentials();
+    }
+
+    @Test
+    public void testFailedRefreshIsRetried() throws FatalRequestResponseException {
+        var clock = new AtomicLong(HOUR);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        doThrow(new FatalRequestResponseException("offline")).when(api).refreshCredentials();
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+
+        scheduler.runNext();
+        assertEquals(TokenRefreshScheduler.RETRY_DELAY_MILLIS, scheduler.delays.get(1));
+        assertTrue(refresher.isScheduled("user"));
+    }
+
+    @Test
+    public void testRevokedAuthorizationStopsRefreshing() throws FatalRequestResponseException {
+        var clock = new AtomicLong(HOUR);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        var user = mockUser(api);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        doThrow(new AuthorizationRevokedException("revoked")).when(api).refreshCredentials();
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+
+        scheduler.runNext();
+        assertFalse(refresher.isScheduled("user"));
+        assertEquals(1, scheduler.tasks.size());
+    }
+
+    @Test
+    public void testClientCredentialsAreRefreshed() {
+        var clock = new AtomicLong(0);
+        var scheduler = new CapturingScheduler();
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> null, MARGIN, JITTER, new Random(1), clock::get);
+        var refreshes = new AtomicLong();
+        refresher.scheduleClient(() -> {
+            refreshes.incrementAndGet();
+            return clock.get() + HOUR;
+        }, HOUR);
+
+        clock.set(scheduler.delays.get(0));
+        scheduler.runNext();
+        assertEquals(1, refreshes.get());
+        assertEquals(2, scheduler.tasks.size());
+    }
+
+    @Test
+    public void testRefreshesRunOnRefreshExecutor() throws FatalRequestResponseException {
+        var clock = new AtomicLong(HOUR);
+        var scheduler = new CapturingScheduler();
+        List<Runnable> refreshes = new ArrayList<>();
+        var slow = mock(ShuffleApi.class);
+        var fast = mock(ShuffleApi.class);
+        when(slow.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        when(fast.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var users = Map.of("slow", mockUser(slow), "fast", mockUser(fast));
+        var refresher = new TokenRefreshScheduler(scheduler.mock, refreshes::add, users::get, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("slow");
+        refresher.scheduleUser("fast");
+
+        // the scheduler only hands the refreshes over, so a slow refresh cannot hold up the others
+        scheduler.runNext();
+        scheduler.runNext();
+        verify(slow, never()).refreshCredentials();
+        assertEquals(2, refreshes.size());
+
+        refreshes.get(1).run();
+        verify(fast, times(1)).refreshCredentials();
+        verify(slow, never()).refreshCredentials();
+    }
+
+    @Test
+    public void testShutdownCancelsRefreshes() throws FatalRequestResponseException {
+        var clock = new AtomicLong(0);
+        var scheduler = new CapturingScheduler();
+        var api = mock(ShuffleApi.class);
+        when(api.getAccessTokenExpiresAt()).thenReturn(HOUR);
+        var user = mockUser(api);
+        var refresher = new TokenRefreshScheduler(scheduler.mock, (id) -> user, MARGIN, JITTER, new Random(1), clock::get);
+        refresher.scheduleUser("user");
+
+        refresher.shutdown();
+        assertFalse(refresher.isScheduled("user"));
+        verify(scheduler.mock, times(1)).shutdown();
+
+        clock.set(HOUR);
+        scheduler.runNext();
+        verify(api, never()).refreshCredentials();
+    }
+
+    private static TrueShuffleUser mockUser(ShuffleApi api) {
+        var user = mock(TrueShuffleUser.class);
+        when(user.getApi()).thenReturn(api);
+        return user;
+    }
+
+    private static class CapturingScheduler {
+        private final ScheduledExecutorService mock = mock(ScheduledExecutorService.class);
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+        private int next = 0;
+
+        private CapturingScheduler() {
+            when(mock.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(invocation -> {
+                tasks.add((Runnable) invocation.getArguments()[0]);
+                delays.add((Long) invocation.getArguments()[1]);
+                return mock(ScheduledFuture.class);
+            });
+        }
+
+        private void runNext() {
+            tasks.get(next++).run();
+        }
+    }
+}
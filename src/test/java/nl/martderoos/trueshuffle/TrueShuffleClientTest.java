@@ -1,12 +1,24 @@
 package nl.martderoos.trueshuffle;
 
 import nl.martderoos.trueshuffle.exceptions.InitializationException;
+import nl.martderoos.trueshuffle.model.PlaylistTrackCache;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.User;
 
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class TrueShuffleClientTest {
-    // because the client has to have a valid connection with Spotify, there is no way to test the client further
+    // because the client has to have a valid connection with Spotify, only the parts that do not send requests are tested
     @Test
     public void testIllegalArguments() {
         assertThrows(NullPointerException.class, () -> new TrueShuffleClient("cid", "secret", null));
@@ -19,4 +31,121 @@ public class TrueShuffleClientTest {
         var client = new TrueShuffleClient("cid", "secret", "uri");
         assertThrows(InitializationException.class, client::initialize);
     }
+
+    @Test
+    public void testNewUserIsScheduledByItsCredentials() {
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        var issued = System.currentTimeMillis();
+        var user = client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(issued, "access", "refresh", 3600), newUser());
+
+        // the real api must report the expiry of the credentials, otherwise the scheduler stops right away
+        assertEquals(issued + TimeUnit.HOURS.toMillis(1), user.getApi().getAccessTokenExpiresAt());
+        assertTrue(client.isTokenRefreshScheduled("user"));
+    }
+
+    @Test
+    public void testReusedUserIsRescheduledByNewCredentials() {
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        var issued = System.currentTimeMillis();
+        var user = client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(issued, "access", "refresh", 0), newUser());
+        // the expiry of these credentials is unknown, so there is nothing to schedule by
+        assertFalse(client.isTokenRefreshScheduled("user"));
+
+        var reused = client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(issued + 1, "access2", "refresh2", 3600), newUser());
+        assertSame(user, reused);
+        assertEquals("access2", user.getApi().getAccessToken());
+        assertTrue(client.isTokenRefreshScheduled("user"));
+
+        client.removeAuthorizedUser("user");
+        assertFalse(client.isTokenRefreshScheduled("user"));
+    }
+
+    @Test
+    public void testTrackCacheSurvivesRestart(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        client.setTrackCacheFile(file);
+        client.getTrackCache().put("pid", "snap", 100, List.of("spotify:track:6rqhFgbbKwnb9MLmUQDhG6"));
+        client.persistTrackCache();
+
+        var restarted = new TrueShuffleClient("cid", "secret", "uri");
+        restarted.setTrackCacheFile(file);
+        // the cache is restored before the credentials are verified, which fails without a connection to Spotify
+        assertThrows(InitializationException.class, restarted::initialize);
+        assertEquals(List.of("spotify:track:6rqhFgbbKwnb9MLmUQDhG6"), restarted.getTrackCache().get("pid", "snap", 100));
+    }
+
+    @Test
+    public void testShutdownPersistsTrackCache(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        client.setTrackCacheFile(file);
+        client.getTrackCache().put("pid", "snap", 100, List.of("spotify:track:6rqhFgbbKwnb9MLmUQDhG6"));
+        client.shutdown();
+
+        var restored = new PlaylistTrackCache();
+        assertEquals(1, restored.readFrom(file));
+        assertEquals(List.of("spotify:track:6rqhFgbbKwnb9MLmUQDhG6"), restored.get("pid", "snap", 100));
+    }
+
+    @Test
+    public void testUnreadableTrackCacheIsIgnored(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        Files.write(file, new byte[]{1, 2, 3});
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        client.setTrackCacheFile(file);
+        assertThrows(InitializationException.class, client::initialize);
+        assertEquals(0, client.getTrackCache().size());
+
+        client.persistTrackCache();
+        assertEquals(0, new PlaylistTrackCache().readFrom(file));
+    }
+
+    @Test
+    public void testProvidedBackgroundExecutorIsUsedButNotShutDown() {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var client = TrueShuffleClient.builder("cid", "secret", "uri").setRateLimiter(null).setBackgroundExecutor(executor).build();
+            var user = client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(System.currentTimeMillis(), "access", "refresh", 0), newUser());
+            assertSame(executor, user.getApi().getRevalidationExecutor());
+
+            client.shutdown();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOwnBackgroundExecutorIsShutDown() {
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        var user = client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(System.currentTimeMillis(), "access", "refresh", 0), newUser());
+        var executor = assertInstanceOf(ExecutorService.class, user.getApi().getRevalidationExecutor());
+
+        client.shutdown();
+        assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    public void testShutdownStopsTokenRefreshes() {
+        var client = new TrueShuffleClient("cid", "secret", "uri");
+        client.registerAuthorizedUser(newApi(), new TrueShuffleUserCredentials(System.currentTimeMillis(), "access", "refresh", 3600), newUser());
+        assertTrue(client.isTokenRefreshScheduled("user"));
+
+        client.shutdown();
+        assertFalse(client.isTokenRefreshScheduled("user"));
+    }
+
+    private static SpotifyApi newApi() {
+        return SpotifyApi.builder()
+                .setClientId("cid")
+                .setClientSecret("secret")
+                .setAccessToken("access")
+                .setRefreshToken("refresh")
+                .build();
+    }
+
+    private static User newUser() {
+        return new User.Builder().setId("user").setDisplayName("User").build();
+    }
 }
@@ -0,0 +1,67 @@
+package nl.martderoos.trueshuffle.adhoc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cached reads of {@link LazyExpiringData} to the synchronized read path it replaced, at 1 to 64 reader
+ * threads. Not run by the tests, run {@link #main(String[])} from the test classpath instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyExpiringDataBenchmark {
+    private final LazyExpiringData<String, RuntimeException> lazy = new LazyExpiringData<>(() -> "data", 1, TimeUnit.HOURS);
+    private final SynchronizedData synchronizedData = new SynchronizedData();
+
+    @Benchmark
+    public String lockFree() {
+        return lazy.getData();
+    }
+
+    @Benchmark
+    public String synchronizedRead() {
+        return synchronizedData.getData();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (var threads : new int[]{1, 4, 16, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(LazyExpiringDataBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    /**
+     * The read path of LazyExpiringData before reads became lock-free.
+     */
+    private static class SynchronizedData {
+        private String data;
+        private long validTill = 0;
+
+        private synchronized String getData() {
+            var now = System.currentTimeMillis();
+            if (now > validTill) {
+                data = "data";
+                validTill = now + TimeUnit.HOURS.toMillis(1);
+            }
+            return data;
+        }
+    }
+}
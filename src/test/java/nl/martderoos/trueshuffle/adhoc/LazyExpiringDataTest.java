@@ -2,7 +2,15 @@ package nl.martderoos.trueshuffle.adhoc;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -94,12 +102,227 @@ public class LazyExpiringDataTest {
         assertEquals(1, data.getData());
     }
 
+    @Test
+    public void testStaleWhileRevalidateServesStaleData() throws InterruptedException {
+        var executor = new ManualExecutor();
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, executor, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        Thread.sleep(6);
+        assertEquals(1, data.getData());
+        assertEquals(1, data.getData());
+        // only a single revalidation is started
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(2, data.getData());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateBlocksBeyondMaxStaleness() throws InterruptedException {
+        var executor = new ManualExecutor();
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, executor, 5);
+        assertEquals(1, data.getData());
+        Thread.sleep(11);
+        assertEquals(2, data.getData());
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateForceReloadBlocks() throws InterruptedException {
+        var executor = new ManualExecutor();
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, executor, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        Thread.sleep(6);
+        assertEquals(2, data.getData(true));
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateDiscardsOutdatedReload() throws InterruptedException {
+        var executor = new ManualExecutor();
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, executor, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        Thread.sleep(6);
+        assertEquals(1, data.getData());
+        data.setData(59);
+        executor.runAll();
+        assertEquals(59, data.getData());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateKeepsStaleDataOnFailure() throws InterruptedException {
+        var executor = new ManualExecutor();
+        var source = new Source();
+        var data = new LazyExpiringData<>(source, true, 5, TimeUnit.MILLISECONDS, executor, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        Thread.sleep(6);
+        source.fail = true;
+        assertEquals(1, data.getData());
+        executor.runAll();
+        assertEquals(1, data.getData());
+        // a new revalidation is started after the failed one
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateRejectedExecution() throws InterruptedException {
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, (runnable) -> {
+            throw new RejectedExecutionException();
+        }, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        Thread.sleep(6);
+        // reloaded on the calling thread instead
+        assertEquals(2, data.getData());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateAfterInvalidateBlocks() {
+        var executor = new ManualExecutor();
+        var data = new LazyExpiringData<>(new Source(), true, 5, TimeUnit.MILLISECONDS, executor, TimeUnit.MINUTES.toMillis(1));
+        assertEquals(1, data.getData());
+        data.invalidate();
+        assertEquals(2, data.getData());
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentLoadsAreSingleFlight() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var loads = new AtomicInteger();
+        var data = new LazyExpiringData<Integer, RuntimeException>(() -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 42;
+        });
+
+        var results = new ConcurrentLinkedQueue<Integer>();
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            var thread = new Thread(() -> results.add(data.getData()));
+            threads.add(thread);
+            thread.start();
+        }
+        while (loads.get() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(8, results.size());
+        results.forEach((result) -> assertEquals(42, result));
+    }
+
+    @Test
+    public void testForcedLoadDoesNotJoinLoadFromBeforeInvalidate() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var loads = new AtomicInteger();
+        var data = new LazyExpiringData<Integer, RuntimeException>(() -> {
+            if (loads.incrementAndGet() > 1)
+                return 2;
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 1;
+        });
+
+        var before = new AtomicInteger();
+        var loader = new Thread(() -> before.set(data.getData()));
+        loader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the data changes while the first load is blocked, so the first load is outdated
+        data.invalidate();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertEquals(2, data.getData(true)));
+
+        release.countDown();
+        loader.join();
+        assertEquals(1, before.get());
+        assertEquals(2, data.getData());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testForcedLoadDoesNotJoinLoadFromBeforeSetData() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var loads = new AtomicInteger();
+        var data = new LazyExpiringData<Integer, RuntimeException>(() -> {
+            if (loads.incrementAndGet() > 1)
+                return 3;
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 1;
+        });
+
+        var loader = new Thread(() -> data.getData());
+        loader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        data.setData(2);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertEquals(3, data.getData(true)));
+
+        release.countDown();
+        loader.join();
+        assertEquals(3, data.getData());
+    }
+
+    @Test
+    public void testFailedLoadIsRethrownAndRetried() {
+        var source = new Source();
+        source.fail = true;
+        var data = new LazyExpiringData<>(source);
+        assertThrows(IllegalStateException.class, data::getData);
+        source.fail = false;
+        assertEquals(1, data.getData());
+    }
+
+    @Test
+    public void testCheckedExceptionIsRethrown() {
+        var data = new LazyExpiringData<Integer, Exception>(() -> {
+            throw new Exception("failed");
+        });
+        var e = assertThrows(Exception.class, data::getData);
+        assertEquals("failed", e.getMessage());
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        private void runAll() {
+            var current = new ArrayList<>(tasks);
+            tasks.clear();
+            current.forEach(Runnable::run);
+        }
+    }
+
     private static class Source implements DataSource<Integer, RuntimeException> {
         private boolean loaded = false;
+        private boolean fail = false;
         private int x;
 
         @Override
         public Integer load() {
+            if (fail)
+                throw new IllegalStateException("failed");
             loaded = true;
             return ++x;
         }
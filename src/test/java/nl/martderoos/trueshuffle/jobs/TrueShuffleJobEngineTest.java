@@ -0,0 +1,202 @@
+package nl.martderoos.trueshuffle.jobs;
+
+import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrueShuffleJobEngineTest {
+    @Test
+    public void testRunsJob() throws InterruptedException {
+        var engine = new TrueShuffleJobEngine();
+        var status = engine.submit(new TrueShuffleLikedJob("user", null), (s) -> {
+            throw new UserNotFoundException(s);
+        });
+        awaitStatus(status, ETrueShuffleJobStatus.SKIPPED);
+        // the status is final before the engine releases the job's slot
+        awaitIdle(engine);
+        assertEquals(0, engine.getRunningJobs());
+        assertEquals(0, engine.getQueuedJobs());
+    }
+
+    @Test
+    public void testDefaultRunsJobOnVirtualThread() throws Exception {
+        var engine = new TrueShuffleJobEngine();
+        var thread = new AtomicReference<Thread>();
+        var status = engine.submit(new TrueShuffleLikedJob("user", null), (s) -> {
+            thread.set(Thread.currentThread());
+            throw new UserNotFoundException(s);
+        });
+        awaitStatus(status, ETrueShuffleJobStatus.SKIPPED);
+
+        assertTrue(thread.get().isVirtual());
+        assertTrue(thread.get().getName().startsWith("true-shuffle-job-"));
+    }
+
+    @Test
+    public void testGlobalAndPerUserBounds() throws InterruptedException {
+        var engine = new TrueShuffleJobEngine(Executors.defaultThreadFactory(), 3, 2);
+        var started = new CountDownLatch(3);
+        var release = new CountDownLatch(1);
+        var concurrent = new AtomicInteger();
+        var maxConcurrent = new AtomicInteger();
+        var perUser = new ConcurrentHashMap<String, AtomicInteger>();
+        var maxPerUser = new AtomicInteger();
+        TrueShuffleUserResolver resolver = (userId) -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            maxPerUser.accumulateAndGet(perUser.computeIfAbsent(userId, k -> new AtomicInteger()).incrementAndGet(), Math::max);
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // ok
+            }
+            perUser.get(userId).decrementAndGet();
+            concurrent.decrementAndGet();
+            throw new UserNotFoundException(userId);
+        };
+
+        List<TrueShuffleJobStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            statuses.add(engine.submit(new TrueShuffleLikedJob("user" + (i % 2), null, EShuffleMode.REORDER), resolver));
+        }
+        assertEquals(3, engine.getRunningJobs());
+        assertEquals(7, engine.getQueuedJobs());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        release.countDown();
+        for (var status : statuses) {
+            awaitStatus(status, ETrueShuffleJobStatus.SKIPPED);
+        }
+        assertEquals(3, maxConcurrent.get());
+        assertEquals(2, maxPerUser.get());
+    }
+
+    @Test
+    public void testUsersTakeTurns() throws InterruptedException {
+        var engine = new TrueShuffleJobEngine(Executors.defaultThreadFactory(), 1, 1);
+        var release = new CountDownLatch(1);
+        List<String> order = new ArrayList<>();
+        TrueShuffleUserResolver resolver = (userId) -> {
+            synchronized (order) {
+                order.add(userId);
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // ok
+            }
+            throw new UserNotFoundException(userId);
+        };
+
+        List<TrueShuffleJobStatus> statuses = new ArrayList<>();
+        statuses.add(engine.submit(new TrueShuffleLikedJob("a", null), resolver));
+        statuses.add(engine.submit(new TrueShuffleLikedJob("a", null), resolver));
+        statuses.add(engine.submit(new TrueShuffleLikedJob("a", null), resolver));
+        statuses.add(engine.submit(new TrueShuffleLikedJob("b", null), resolver));
+        assertEquals(ETrueShuffleJobStatus.WAITING, statuses.get(3).getStatus());
+
+        release.countDown();
+        for (var status : statuses) {
+            awaitStatus(status, ETrueShuffleJobStatus.SKIPPED);
+        }
+        // b was queued after a's other jobs, but takes its turn as soon as the first job of a has finished
+        assertEquals(List.of("a", "b", "a", "a"), order);
+    }
+
+    @Test
+    public void testOtherJobsStartAfterJobThatCannotStart() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var threads = new AtomicInteger();
+        ThreadFactory factory = (runnable) -> {
+            if (threads.incrementAndGet() == 2)
+                throw new IllegalStateException("STUB");
+            return new Thread(runnable);
+        };
+        var engine = new TrueShuffleJobEngine(factory, 1, 1);
+        TrueShuffleUserResolver resolver = (userId) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // ok
+            }
+            throw new UserNotFoundException(userId);
+        };
+
+        var first = engine.submit(new TrueShuffleLikedJob("a", null), resolver);
+        var second = engine.submit(new TrueShuffleLikedJob("b", null), resolver);
+        var third = engine.submit(new TrueShuffleLikedJob("c", null), resolver);
+
+        // the second job cannot start once the first finishes, the third starts regardless
+        release.countDown();
+        awaitStatus(first, ETrueShuffleJobStatus.SKIPPED);
+        awaitStatus(second, ETrueShuffleJobStatus.TERMINATED);
+        awaitStatus(third, ETrueShuffleJobStatus.SKIPPED);
+        awaitIdle(engine);
+        assertEquals(0, engine.getQueuedJobs());
+    }
+
+    @Test
+    public void testJobThatCannotStartIsTerminated() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        var threads = new AtomicInteger();
+        ThreadFactory factory = (runnable) -> {
+            if (threads.incrementAndGet() > 1)
+                throw new IllegalStateException("STUB");
+            return new Thread(runnable);
+        };
+        var engine = new TrueShuffleJobEngine(factory, 1, 1);
+        TrueShuffleUserResolver resolver = (userId) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // ok
+            }
+            throw new UserNotFoundException(userId);
+        };
+
+        var first = engine.submit(new TrueShuffleLikedJob("a", null), resolver);
+        var second = engine.submit(new TrueShuffleLikedJob("b", null), resolver);
+        assertEquals(ETrueShuffleJobStatus.WAITING, second.getStatus());
+
+        release.countDown();
+        awaitStatus(first, ETrueShuffleJobStatus.SKIPPED);
+        awaitStatus(second, ETrueShuffleJobStatus.TERMINATED);
+        awaitIdle(engine);
+        assertEquals(0, engine.getRunningJobs());
+        assertEquals(0, engine.getQueuedJobs());
+    }
+
+    @Test
+    public void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TrueShuffleJobEngine(Executors.defaultThreadFactory(), 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TrueShuffleJobEngine(Executors.defaultThreadFactory(), 1, 0));
+        assertThrows(NullPointerException.class, () -> new TrueShuffleJobEngine(null, 1, 1));
+    }
+
+    private static void awaitIdle(TrueShuffleJobEngine engine) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (engine.getRunningJobs() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitStatus(TrueShuffleJobStatus status, ETrueShuffleJobStatus expected) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (status.getStatus() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, status.getStatus());
+    }
+}
@@ -2,8 +2,11 @@ package nl.martderoos.trueshuffle.jobs;
 
 import nl.martderoos.trueshuffle.TrueShuffleUser;
 import nl.martderoos.trueshuffle.exceptions.UserNotFoundException;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
+import nl.martderoos.trueshuffle.model.PlaylistWithTracks;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
+import nl.martderoos.trueshuffle.model.SnapshotTracks;
 import nl.martderoos.trueshuffle.model.UserLibrary;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 import org.junit.jupiter.api.Test;
@@ -31,7 +34,7 @@ public class TrueShuffleLikedJobTest {
         var playlist = defaultPlaylistBuilder().build();
         var simplified = toSimplifiedPlaylist(playlist);
         var shufflePlaylist = spy(new ShufflePlaylist(api, simplified, true));
-        Mockito.doNothing().when(shufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(shufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(shufflePlaylist).addAndRemoveTracks(any(), any());
         when(library.createPlaylist(anyString(), anyString())).thenReturn(shufflePlaylist);
         when(library.getPlaylistByName(eq(shufflePlaylist.getName()), anyBoolean())).thenReturn(List.of(shufflePlaylist));
@@ -42,13 +45,13 @@ public class TrueShuffleLikedJobTest {
         when(library.getUserLikedTracksUris()).thenReturn(likedTracks);
 
         when(api.getUserId()).thenReturn("user");
-        when(api.streamPlaylistTracksUris(eq("pid"), anyInt())).thenReturn(targetPlaylistTracks);
+        when(api.streamPlaylistWithTracksUris(eq("pid"), anyInt())).thenReturn(new PlaylistWithTracks(simplified, new SnapshotTracks("snap", targetPlaylistTracks)));
         when(api.getDisplayName()).thenReturn("user display name");
 
         var job = new TrueShuffleLikedJob("user");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(shufflePlaylist).shuffleInPlace();
+        verify(shufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(shufflePlaylist).addAndRemoveTracks(eq(List.of("t2", "t3")), eq(List.of("t4")));
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertTrue(result.getSourcePlaylist().isLikedSongsPlaylist());
@@ -68,7 +71,7 @@ public class TrueShuffleLikedJobTest {
         var targetPlaylist = defaultPlaylistBuilder().setId("target").build();
         var targetSimplified = toSimplifiedPlaylist(targetPlaylist);
         var targetShufflePlaylist = spy(new ShufflePlaylist(api, targetSimplified, true));
-        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(targetShufflePlaylist).addAndRemoveTracks(any(), any());
         when(library.getPlaylistById("target")).thenReturn(targetShufflePlaylist);
         when(library.isOwner(targetShufflePlaylist)).thenReturn(true);
@@ -78,13 +81,13 @@ public class TrueShuffleLikedJobTest {
         when(library.getUserLikedTracksUris()).thenReturn(likedTracks);
 
         when(api.getUserId()).thenReturn("user");
-        when(api.streamPlaylistTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(targetPlaylistTracks);
+        when(api.streamPlaylistWithTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(new PlaylistWithTracks(targetSimplified, new SnapshotTracks("snap", targetPlaylistTracks)));
         when(api.getDisplayName()).thenReturn("user display name");
 
         var job = new TrueShuffleLikedJob("user", "target");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(targetShufflePlaylist).shuffleInPlace();
+        verify(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(targetShufflePlaylist).addAndRemoveTracks(eq(List.of("t2", "t3")), eq(List.of("t4")));
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertTrue(result.getSourcePlaylist().isLikedSongsPlaylist());
@@ -151,7 +154,7 @@ public class TrueShuffleLikedJobTest {
         var targetPlaylist = defaultPlaylistBuilder().setId("target").build();
         var targetSimplified = toSimplifiedPlaylist(targetPlaylist);
         var targetShufflePlaylist = spy(new ShufflePlaylist(api, targetSimplified, true));
-        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(targetShufflePlaylist).addAndRemoveTracks(any(), any());
         when(library.getPlaylistById("target")).thenReturn(targetShufflePlaylist);
         when(library.isOwner(targetShufflePlaylist)).thenReturn(false); // <-- not the owner!
@@ -1,8 +1,11 @@
 package nl.martderoos.trueshuffle.jobs;
 
 import nl.martderoos.trueshuffle.TrueShuffleUser;
+import nl.martderoos.trueshuffle.model.EShuffleMode;
+import nl.martderoos.trueshuffle.model.PlaylistWithTracks;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
+import nl.martderoos.trueshuffle.model.SnapshotTracks;
 import nl.martderoos.trueshuffle.model.UserLibrary;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -42,17 +45,17 @@ public class TrueShufflePlaylistJobTest {
         var targetShufflePlaylist = spy(new ShufflePlaylist(api, toSimplifiedPlaylist(targetPlaylist), true));
         when(library.getPlaylistById(targetPlaylist.getId())).thenReturn(targetShufflePlaylist);
         when(library.isOwner(targetShufflePlaylist)).thenReturn(true);
-        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(targetShufflePlaylist).addAndRemoveTracks(any(), any());
         var targetTracks = List.of("t1", "t4");
-        when(api.streamPlaylistTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(targetTracks);
+        when(api.streamPlaylistWithTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(new PlaylistWithTracks(toSimplifiedPlaylist(targetPlaylist), new SnapshotTracks("snap", targetTracks)));
         when(api.getUserId()).thenReturn("user");
         when(api.getDisplayName()).thenReturn("user display name");
 
         var job = new TrueShufflePlaylistJob("user", "pid", "target");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(targetShufflePlaylist).shuffleInPlace();
+        verify(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(targetShufflePlaylist).addAndRemoveTracks(eq(List.of("t2", "t3")), eq(List.of("t4")));
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertFalse(result.getSourcePlaylist().isLikedSongsPlaylist());
@@ -76,7 +79,7 @@ public class TrueShufflePlaylistJobTest {
         var sourceTracks = List.of("t1", "t2", "t3");
         doReturn(sourceTracks).when(sourceShufflePlaylist).getPlaylistTracksUris(); // works differently for spies
 
-        Mockito.doNothing().when(sourceShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(sourceShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(sourceShufflePlaylist).addAndRemoveTracks(any(), any());
         when(api.getUserId()).thenReturn("user");
         when(api.getDisplayName()).thenReturn("user display name");
@@ -84,7 +87,7 @@ public class TrueShufflePlaylistJobTest {
         var job = new TrueShufflePlaylistJob("user", "pid", "pid");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(sourceShufflePlaylist).shuffleInPlace();
+        verify(sourceShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(sourceShufflePlaylist, times(0)).addAndRemoveTracks(any(), any());
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertFalse(result.getSourcePlaylist().isLikedSongsPlaylist());
@@ -108,7 +111,7 @@ public class TrueShufflePlaylistJobTest {
         var sourceTracks = List.of("t1", "t2", "t3");
         doReturn(sourceTracks).when(sourceShufflePlaylist).getPlaylistTracksUris(); // works differently for spies
 
-        Mockito.doNothing().when(sourceShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(sourceShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(sourceShufflePlaylist).addAndRemoveTracks(any(), any());
         when(api.getUserId()).thenReturn("user");
         when(api.getDisplayName()).thenReturn("user display name");
@@ -116,7 +119,7 @@ public class TrueShufflePlaylistJobTest {
         var job = new TrueShufflePlaylistJob("user", "pid");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(sourceShufflePlaylist).shuffleInPlace();
+        verify(sourceShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(sourceShufflePlaylist, times(0)).addAndRemoveTracks(any(), any());
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertFalse(result.getSourcePlaylist().isLikedSongsPlaylist());
@@ -144,17 +147,17 @@ public class TrueShufflePlaylistJobTest {
         var targetShufflePlaylist = spy(new ShufflePlaylist(api, toSimplifiedPlaylist(targetPlaylist), true));
         when(library.getPlaylistByName(sourcePlaylist.getName() + TrueShuffleJob.TRUE_SHUFFLE_SUFFIX, true)).thenReturn(List.of(targetShufflePlaylist));
         when(library.isOwner(targetShufflePlaylist)).thenReturn(true);
-        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace();
+        Mockito.doNothing().when(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         Mockito.doNothing().when(targetShufflePlaylist).addAndRemoveTracks(any(), any());
         var targetTracks = List.of("t1", "t4");
-        when(api.streamPlaylistTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(targetTracks);
+        when(api.streamPlaylistWithTracksUris(eq(targetPlaylist.getId()), anyInt())).thenReturn(new PlaylistWithTracks(toSimplifiedPlaylist(targetPlaylist), new SnapshotTracks("snap", targetTracks)));
         when(api.getUserId()).thenReturn("user");
         when(api.getDisplayName()).thenReturn("user display name");
 
         var job = new TrueShufflePlaylistJob("user", "pid");
         var result = job.execute((s) -> user, Runnable::run);
 
-        verify(targetShufflePlaylist).shuffleInPlace();
+        verify(targetShufflePlaylist).shuffleInPlace(EShuffleMode.REORDER);
         verify(targetShufflePlaylist).addAndRemoveTracks(eq(List.of("t2", "t3")), eq(List.of("t4")));
         assertEquals(ETrueShuffleJobStatus.FINISHED, result.getStatus());
         assertFalse(result.getSourcePlaylist().isLikedSongsPlaylist());
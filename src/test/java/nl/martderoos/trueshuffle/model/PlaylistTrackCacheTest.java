@@ -0,0 +1,151 @@
+package nl.martderoos.trueshuffle.model;
+
+import nl.martderoos.trueshuffle.utility.TrackIdList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlaylistTrackCacheTest {
+    @Test
+    public void testGetAndPut() {
+        var cache = new PlaylistTrackCache();
+        assertNull(cache.get("pid", "snap", 100));
+        var tracks = cache.put("pid", "snap", 100, new ArrayList<>(List.of("t1", "t2")));
+        assertEquals(List.of("t1", "t2"), tracks);
+        assertThrows(UnsupportedOperationException.class, () -> tracks.add("t3"));
+
+        assertSame(tracks, cache.get("pid", "snap", 100));
+        assertNull(cache.get("pid", "snap2", 100));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getWeight());
+    }
+
+    @Test
+    public void testHardLimit() {
+        var cache = new PlaylistTrackCache();
+        cache.put("pid", "snap", 2, List.of("t1", "t2"));
+        // there may be more tracks than were retrieved
+        assertNull(cache.get("pid", "snap", 3));
+        assertEquals(List.of("t1"), cache.get("pid", "snap", 1));
+
+        // all tracks were retrieved
+        cache.put("pid2", "snap", 3, List.of("t1", "t2"));
+        assertEquals(List.of("t1", "t2"), cache.get("pid2", "snap", 100));
+    }
+
+    @Test
+    public void testPutDoesNotReplaceWithFewerTracks() {
+        var cache = new PlaylistTrackCache();
+        cache.put("pid", "snap", 3, List.of("t1", "t2", "t3"));
+        cache.put("pid", "snap", 1, List.of("t1"));
+        assertEquals(List.of("t1", "t2", "t3"), cache.get("pid", "snap", 3));
+        assertEquals(3, cache.getWeight());
+    }
+
+    @Test
+    public void testWeightBasedEviction() {
+        var cache = new PlaylistTrackCache(5);
+        cache.put("p1", "snap", 100, List.of("t1", "t2"));
+        cache.put("p2", "snap", 100, List.of("t1", "t2"));
+        // p1 is now the most recently used
+        assertNotNull(cache.get("p1", "snap", 100));
+        cache.put("p3", "snap", 100, List.of("t1", "t2"));
+
+        assertNull(cache.get("p2", "snap", 100));
+        assertNotNull(cache.get("p1", "snap", 100));
+        assertNotNull(cache.get("p3", "snap", 100));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(4, cache.getWeight());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testTooHeavyIsNotCached() {
+        var cache = new PlaylistTrackCache(1);
+        var tracks = cache.put("pid", "snap", 100, List.of("t1", "t2"));
+        assertEquals(List.of("t1", "t2"), tracks);
+        assertNull(cache.get("pid", "snap", 100));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testWriteAndRead(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var cache = new PlaylistTrackCache();
+        cache.put("p1", "snap", 100, List.of("spotify:track:abc", "spotify:episode:def", "spotify:local:ghé"));
+        cache.put("p2", "snap2", 1, List.of("spotify:track:xyz"));
+        cache.writeTo(file);
+
+        var restored = new PlaylistTrackCache();
+        assertEquals(2, restored.readFrom(file));
+        assertEquals(List.of("spotify:track:abc", "spotify:episode:def", "spotify:local:ghé"), restored.get("p1", "snap", 100));
+        assertEquals(List.of("spotify:track:xyz"), restored.get("p2", "snap2", 1));
+        assertNull(restored.get("p2", "snap2", 2));
+        assertEquals(4, restored.getWeight());
+        // restored tracks are never decoded to strings
+        assertInstanceOf(TrackIdList.class, restored.get("p1", "snap", 100));
+    }
+
+    @Test
+    public void testWritePreservesEvictionOrder(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var cache = new PlaylistTrackCache();
+        cache.put("p1", "snap", 100, List.of("t1", "t2"));
+        cache.put("p2", "snap", 100, List.of("t1", "t2"));
+        cache.get("p1", "snap", 100);
+        cache.writeTo(file);
+
+        var restored = new PlaylistTrackCache(3);
+        restored.readFrom(file);
+        // p2 was least recently used, so it is evicted first
+        assertNull(restored.get("p2", "snap", 100));
+        assertNotNull(restored.get("p1", "snap", 100));
+    }
+
+    @Test
+    public void testReadInvalidFile(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        var cache = new PlaylistTrackCache();
+        assertThrows(IOException.class, () -> cache.readFrom(file));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReadTruncatedFile(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var cache = new PlaylistTrackCache();
+        cache.put("p1", "snap", 100, List.of("spotify:track:abc", "spotify:track:def"));
+        cache.writeTo(file);
+        var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        var restored = new PlaylistTrackCache();
+        assertThrows(IOException.class, () -> restored.readFrom(file));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void testFileCanBeReplacedAfterRead(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("tracks.bin");
+        var cache = new PlaylistTrackCache();
+        cache.put("p1", "snap", 100, List.of("spotify:track:abc"));
+        cache.writeTo(file);
+
+        var restored = new PlaylistTrackCache();
+        restored.readFrom(file);
+        restored.put("p2", "snap", 100, List.of("spotify:track:xyz"));
+        restored.writeTo(file);
+
+        assertEquals(2, new PlaylistTrackCache().readFrom(file));
+    }
+}
@@ -1,11 +1,30 @@
 package nl.martderoos.trueshuffle.model;
 
 import nl.martderoos.trueshuffle.TrueShuffleUserCredentials;
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import nl.martderoos.trueshuffle.requests.exceptions.TruncatedPlaylistException;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.IHttpManager;
 import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 import se.michaelthelin.spotify.model_objects.specification.User;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class ShuffleApiTest {
@@ -74,6 +93,287 @@ public class ShuffleApiTest {
         verify(spotifyApi, times(1)).setRefreshToken(any());
     }
 
+    @Test
+    public void testPlaylistWithTracksFromEmbeddedPage() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> playlistJson(2, null, "t1", "t2"));
+        var api = ShuffleApi.builder(createSpotifyApi(http), createUser()).setTrackCache(new PlaylistTrackCache()).build();
+
+        var result = api.streamPlaylistWithTracksUris("pid", 100);
+
+        assertEquals("snap", result.playlist().getSnapshotId());
+        assertEquals(List.of(trackUri("t1"), trackUri("t2")), result.trackUris());
+        // the playlist holds all tracks, so no other request is needed
+        assertEquals(1, http.requests.size());
+
+        assertEquals(result.trackUris(), api.streamPlaylistWithTracksUris("pid", 100).trackUris());
+        assertEquals(result.trackUris(), api.streamPlaylistTracksUris("pid", "snap", 100).trackUris());
+        assertEquals(2, http.requests.size());
+    }
+
+    @Test
+    public void testPlaylistWithTracksFromCache() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> playlistJson(150, "https://api.spotify.com/v1/playlists/pid/tracks?offset=100&limit=100", "t1", "t2"));
+        var cache = new PlaylistTrackCache();
+        var cached = new ArrayList<String>();
+        for (int i = 0; i < 150; i++) {
+            cached.add(trackUri("t" + i));
+        }
+        cache.put("pid", "snap", 1000, cached);
+        var api = ShuffleApi.builder(createSpotifyApi(http), createUser()).setTrackCache(cache).build();
+
+        var result = api.streamPlaylistWithTracksUris("pid", 1000);
+
+        // the snapshot is taken from the playlist, whose tracks are cached, so no page after the first is requested
+        assertEquals(cached, result.trackUris());
+        assertTrue(result.tracks().isConsistent());
+        assertEquals(1, http.requests.size());
+    }
+
+    @Test
+    public void testSnapshotTracksFromSinglePageAreNotVerified() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> pageJson(2, 0, trackUri("t1"), trackUri("t2")));
+        var cache = new PlaylistTrackCache();
+        var api = ShuffleApi.builder(createSpotifyApi(http), createUser()).setTrackCache(cache).build();
+
+        assertEquals(List.of(trackUri("t1"), trackUri("t2")), api.streamPlaylistTracksUris("pid", "snap", 100).trackUris());
+        // a single page cannot span a modification, so the snapshot is not retrieved again
+        assertEquals(1, http.requests.size());
+        assertEquals(List.of(trackUri("t1"), trackUri("t2")), cache.get("pid", "snap", 100));
+    }
+
+    @Test
+    public void testSnapshotTracksFromMultiplePagesAreVerified() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> {
+            if (uri.getQuery().contains("fields=snapshot_id"))
+                return "{\"snapshot_id\": \"changed\"}";
+            var offset = uri.getQuery().contains("offset=100") ? 100 : 0;
+            var uris = new ArrayList<String>();
+            for (int i = offset; i < Math.min(offset + 100, 150); i++) {
+                uris.add(trackUri("t" + i));
+            }
+            var page = pageJson(150, offset, uris.toArray(new String[0]));
+            return offset == 0 ? page.replace("\"next\": null", "\"next\": \"https://api.spotify.com/v1/playlists/pid/tracks?offset=100&limit=100\"") : page;
+        });
+        var cache = new PlaylistTrackCache();
+        var api = ShuffleApi.builder(createSpotifyApi(http), createUser()).setTrackCache(cache).build();
+
+        var tracks = api.streamPlaylistTracksUris("pid", "snap", 1000);
+        assertEquals(150, tracks.trackUris().size());
+        // both pages and the verification of the snapshot, which changed in the meantime
+        assertEquals(3, http.requests.size());
+        assertFalse(tracks.isConsistent());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPlaylistWithTracksPagesAfterEmbeddedPage() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> {
+            if (uri.getPath().endsWith("/tracks"))
+                return pageJson(3, 2, trackUri("t3"));
+            if (uri.getQuery() != null && uri.getQuery().contains("fields=snapshot_id"))
+                return "{\"snapshot_id\": \"snap\"}";
+            return playlistJson(3, "https://api.spotify.com/v1/playlists/pid/tracks?offset=2&limit=2", "t1", "t2");
+        });
+        var api = ShuffleApi.builder(createSpotifyApi(http), createUser()).setTrackCache(new PlaylistTrackCache()).build();
+
+        var result = api.streamPlaylistWithTracksUris("pid", 100);
+
+        assertEquals(List.of(trackUri("t1"), trackUri("t2"), trackUri("t3")), result.trackUris());
+        // the playlist, the tracks after the embedded page and the verification of the snapshot
+        assertEquals(3, http.requests.size());
+        assertTrue(http.requests.get(0).getQuery().contains("fields=" + ShuffleApi.PLAYLIST_WITH_ITEMS_FIELDS));
+        var itemsRequest = http.requests.get(1);
+        assertTrue(itemsRequest.getPath().endsWith("/playlists/pid/tracks"));
+        assertTrue(itemsRequest.getQuery().contains("offset=2"));
+        // only the URIs are requested, in pages of the maximum size
+        assertTrue(itemsRequest.getQuery().contains("limit=100"));
+        assertTrue(itemsRequest.getQuery().contains("fields=" + ShuffleApi.PLAYLIST_ITEMS_FIELDS));
+    }
+
+    @Test
+    public void testPlaylistTracksInPagesOfMaximumSize() throws FatalRequestResponseException {
+        var http = new FakeHttpManager((uri) -> {
+            var offset = uri.getQuery().contains("offset=100") ? 100 : 0;
+            var uris = new ArrayList<String>();
+            for (int i = offset; i < Math.min(offset + 100, 150); i++) {
+                uris.add(trackUri("t" + i));
+            }
+            var page = pageJson(150, offset, uris.toArray(new String[0]));
+            return offset == 0 ? page.replace("\"next\": null", "\"next\": \"https://api.spotify.com/v1/playlists/pid/tracks?offset=100&limit=100\"") : page;
+        });
+        var api = new ShuffleApi(createSpotifyApi(http), createUser());
+
+        var tracks = api.streamPlaylistTracksUris("pid", 1000);
+
+        assertEquals(150, tracks.size());
+        assertEquals(trackUri("t149"), tracks.get(149));
+        assertEquals(2, http.requests.size());
+    }
+
+    @Test
+    public void testInterruptStopsPaging() throws Exception {
+        var requested = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var http = new FakeHttpManager((uri) -> {
+            requested.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return pageJson(150, 0, trackUri("t0")).replace("\"next\": null", "\"next\": \"https://api.spotify.com/v1/playlists/pid/tracks?offset=1&limit=100\"");
+        });
+        var api = new ShuffleApi(createSpotifyApi(http), createUser());
+        var thrown = new CompletableFuture<FatalRequestResponseException>();
+        var reader = new Thread(() -> {
+            try {
+                api.streamPlaylistTracksUris("pid", 1000);
+                thrown.complete(null);
+            } catch (FatalRequestResponseException e) {
+                thrown.complete(Thread.currentThread().isInterrupted() ? e : null);
+            }
+        });
+        reader.start();
+
+        assertTrue(requested.await(10, TimeUnit.SECONDS));
+        reader.interrupt();
+        assertNotNull(thrown.get(10, TimeUnit.SECONDS));
+        // the first page reveals more pages, but none of them is requested after the interrupt
+        release.countDown();
+        Thread.sleep(200);
+        assertEquals(1, http.requests.size());
+    }
+
+    @Test
+    public void testSearchMatchesNormalizedNames() throws FatalRequestResponseException {
+        // "Caf\u0065\u0301" is the decomposed form of "Caf\u00e9"
+        var http = new FakeHttpManager((uri) -> "{\"playlists\": {\"items\": ["
+                + "{\"id\": \"p1\", \"name\": \"Caf\u0065\u0301 \"}, "
+                + "{\"id\": \"p2\", \"name\": \"caf\u00e9\"}, "
+                + "{\"id\": \"p3\", \"name\": \"Caf\u00e9\"}"
+                + "], \"total\": 3, \"offset\": 0, \"limit\": 3, \"next\": null}}");
+        var api = new ShuffleApi(createSpotifyApi(http), createUser());
+
+        var found = api.searchPlaylistByExactName(" Caf\u00e9", 10);
+
+        assertEquals(List.of("p1", "p3"), found.stream().map(PlaylistSimplified::getId).toList());
+        assertEquals("p1", api.findPlaylistByExactName("Caf\u0065\u0301", 10).getId());
+    }
+
+    @Test
+    public void testReplaceTracksAppendsRemainingTracksAgainAfterFailure() throws FatalRequestResponseException {
+        var writes = new AtomicInteger();
+        // the replace and the first append succeed, the second append fails once
+        var http = new FakeHttpManager((uri) -> null, (uri) -> {
+            if (writes.incrementAndGet() == 3)
+                throw new UnsupportedOperationException("append failed");
+            return "{\"snapshot_id\": \"snap" + writes.get() + "\"}";
+        });
+        var api = new ShuffleApi(createSpotifyApi(http), createUser());
+        var tracks = new ArrayList<String>();
+        for (int i = 0; i < 250; i++) {
+            tracks.add(trackUri("t" + i));
+        }
+
+        assertEquals("snap4", api.replaceTracks("pid", tracks));
+        assertEquals(4, http.requests.size());
+    }
+
+    @Test
+    public void testReplaceTracksReportsTruncatedPlaylist() {
+        var writes = new AtomicInteger();
+        var http = new FakeHttpManager((uri) -> null, (uri) -> {
+            if (writes.incrementAndGet() > 1)
+                throw new UnsupportedOperationException("append failed");
+            return "{\"snapshot_id\": \"snap\"}";
+        });
+        var api = new ShuffleApi(createSpotifyApi(http), createUser());
+        var tracks = new ArrayList<String>();
+        for (int i = 0; i < 150; i++) {
+            tracks.add(trackUri("t" + i));
+        }
+
+        var e = assertThrows(TruncatedPlaylistException.class, () -> api.replaceTracks("pid", tracks));
+        assertTrue(e.getMessage().contains("100 out of 150"));
+        assertEquals("pid", e.getPlaylistId());
+        assertEquals(tracks.subList(100, 150), e.getUnwrittenTracks());
+        // the replace, the failed append and the single attempt to append the remaining tracks again
+        assertEquals(3, http.requests.size());
+    }
+
+    private static SpotifyApi createSpotifyApi(IHttpManager http) {
+        return new SpotifyApi.Builder().setHttpManager(http).setAccessToken("a-token").build();
+    }
+
+    private static String trackUri(String id) {
+        return "spotify:track:" + id;
+    }
+
+    private static String playlistJson(int total, String next, String... trackIds) {
+        var uris = new String[trackIds.length];
+        for (int i = 0; i < trackIds.length; i++) {
+            uris[i] = trackUri(trackIds[i]);
+        }
+        var tracks = pageJson(total, 0, uris);
+        if (next != null)
+            tracks = tracks.replace("\"next\": null", "\"next\": \"" + next + "\"");
+        return "{\"id\": \"pid\", \"name\": \"name\", \"snapshot_id\": \"snap\", "
+                + "\"owner\": {\"id\": \"uid\"}, \"tracks\": " + tracks + "}";
+    }
+
+    private static String pageJson(int total, int offset, String... uris) {
+        var items = new ArrayList<String>();
+        for (var uri : uris) {
+            items.add("{\"track\": {\"type\": \"track\", \"uri\": \"" + uri + "\"}}");
+        }
+        return "{\"items\": [" + String.join(", ", items) + "], \"total\": " + total
+                + ", \"offset\": " + offset + ", \"limit\": " + uris.length + ", \"next\": null}";
+    }
+
+    /**
+     * Answers every GET request with the response of the provided function and every POST and PUT request with the
+     * response of the provided write function, and records the requested URIs.
+     */
+    private static class FakeHttpManager implements IHttpManager {
+        private final Function<URI, String> responses;
+        private final Function<URI, String> writeResponses;
+        private final List<URI> requests = new ArrayList<>();
+
+        private FakeHttpManager(Function<URI, String> responses) {
+            this(responses, (uri) -> {
+                throw new UnsupportedOperationException();
+            });
+        }
+
+        private FakeHttpManager(Function<URI, String> responses, Function<URI, String> writeResponses) {
+            this.responses = responses;
+            this.writeResponses = writeResponses;
+        }
+
+        @Override
+        public synchronized String get(URI uri, Header[] headers) {
+            requests.add(uri);
+            return responses.apply(uri);
+        }
+
+        @Override
+        public synchronized String post(URI uri, Header[] headers, HttpEntity body) {
+            requests.add(uri);
+            return writeResponses.apply(uri);
+        }
+
+        @Override
+        public synchronized String put(URI uri, Header[] headers, HttpEntity body) {
+            requests.add(uri);
+            return writeResponses.apply(uri);
+        }
+
+        @Override
+        public String delete(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private User createUser() {
         return new User.Builder()
                 .setId("uid")
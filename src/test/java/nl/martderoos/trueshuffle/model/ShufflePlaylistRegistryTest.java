@@ -0,0 +1,74 @@
+package nl.martderoos.trueshuffle.model;
+
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Playlist;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+import se.michaelthelin.spotify.model_objects.specification.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylist;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class ShufflePlaylistRegistryTest {
+    @Test
+    public void testOneInstancePerPlaylist() {
+        var registry = new ShufflePlaylistRegistry(mock(ShuffleApi.class), (p) -> true);
+        assertNull(registry.get("p1"));
+
+        var p1 = registry.getOrCreate(createPlaylist("p1", "user"));
+        var p2 = registry.getOrCreate(createPlaylist("p2", "user"));
+
+        assertNotSame(p1, p2);
+        assertSame(p1, registry.get("p1"));
+        assertSame(p1, registry.getOrCreate(createPlaylist("p1", "user")));
+        assertSame(p2, registry.getOrCreate(createPlaylist("p2", "user")));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testMutability() {
+        var registry = new ShufflePlaylistRegistry(mock(ShuffleApi.class), (p) -> p.getOwner().getId().equals("user"));
+
+        assertTrue(registry.getOrCreate(createPlaylist("p1", "user")).isMutable());
+        assertFalse(registry.getOrCreate(createPlaylist("p2", "other")).isMutable());
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        var registry = new ShufflePlaylistRegistry(mock(ShuffleApi.class), (p) -> true);
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var tasks = new ArrayList<Callable<ShufflePlaylist>>();
+            for (int i = 0; i < 64; i++) {
+                tasks.add(() -> registry.getOrCreate(createPlaylist("p1", "user")));
+            }
+            var playlist = registry.getOrCreate(createPlaylist("p1", "user"));
+            for (Future<ShufflePlaylist> future : executor.invokeAll(tasks)) {
+                assertSame(playlist, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, registry.size());
+    }
+
+    private PlaylistSimplified createPlaylist(String playlistId, String ownerId) {
+        return toSimplifiedPlaylist(new Playlist.Builder()
+                .setCollaborative(false)
+                .setId(playlistId)
+                .setName("playlist-name")
+                .setOwner(new User.Builder().setId(ownerId).setDisplayName("display-name").build())
+                .setPublicAccess(true)
+                .setSnapshotId("snap")
+                .setTracks(new Paging.Builder<PlaylistTrack>().setTotal(0).build())
+                .build());
+    }
+}
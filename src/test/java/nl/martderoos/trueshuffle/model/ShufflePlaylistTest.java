@@ -3,15 +3,23 @@ package nl.martderoos.trueshuffle.model;
 import nl.martderoos.trueshuffle.exceptions.ImmutablePlaylistException;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import se.michaelthelin.spotify.model_objects.specification.Paging;
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.model_objects.specification.User;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylist;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -22,6 +30,8 @@ public class ShufflePlaylistTest {
         var api = mock(ShuffleApi.class);
         var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
         when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        // none of the tracks are known, so the shuffle cannot be computed locally
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", List.of()));
         var playlist = new ShufflePlaylist(api, simplified, true);
 
         playlist.shuffleInPlace();
@@ -29,6 +39,99 @@ public class ShufflePlaylistTest {
         verify(api, times(3)).reorderTrack(any(), anyInt(), anyInt(), any());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testShuffleInPlaceByReplace() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var tracks = createTracks(300);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().setTracks(new Paging.Builder<PlaylistTrack>().setTotal(300).build()).build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", tracks));
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.shuffleInPlace(EShuffleMode.REPLACE);
+
+        var captor = ArgumentCaptor.forClass(List.class);
+        verify(api, times(1)).replaceTracks(eq("pid"), captor.capture());
+        assertEquals(Set.copyOf(tracks), Set.copyOf(captor.getValue()));
+        assertEquals(300, captor.getValue().size());
+        verify(api, never()).reorderTrack(any(), anyInt(), anyInt(), any());
+        verify(api, never()).reorderTracks(any(), anyInt(), anyInt(), anyInt(), any());
+
+        // the replaced tracks are known, so no need to stream them again
+        assertEquals(captor.getValue(), playlist.getPlaylistTracksUris());
+        verify(api, times(1)).streamPlaylistTracksUris(eq("pid"), any(), anyInt());
+    }
+
+    @Test
+    public void testShuffleInPlaceByReorderWithKnownTracks() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var tracks = createTracks(300);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().setTracks(new Paging.Builder<PlaylistTrack>().setTotal(300).build()).build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", tracks));
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.shuffleInPlace(EShuffleMode.REORDER);
+
+        // a longest increasing subsequence of a random permutation is never empty, so at least 1 track stays in place
+        verify(api, atMost(299)).reorderTracks(eq("pid"), anyInt(), anyInt(), anyInt(), any());
+        verify(api, never()).replaceTracks(any(), any());
+        verify(api, never()).reorderTrack(any(), anyInt(), anyInt(), any());
+        assertEquals(Set.copyOf(tracks), Set.copyOf(playlist.getPlaylistTracksUris()));
+    }
+
+    @Test
+    public void testReorder() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", List.of("t1", "t2", "t3")));
+        when(api.reorderTracks(any(), anyInt(), anyInt(), anyInt(), any())).thenReturn("snap2");
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.reorder(List.of("t3", "t1", "t2"), true);
+
+        verify(api).reorderTracks("pid", 2, 1, 0, "snap");
+        verify(api, never()).replaceTracks(any(), any());
+        assertEquals(List.of("t3", "t1", "t2"), playlist.getPlaylistTracksUris());
+
+        assertThrows(IllegalArgumentException.class, () -> playlist.reorder(List.of("t3", "t1", "t4"), true));
+    }
+
+    @Test
+    public void testShuffleInPlaceByReplaceFallsBackOnMissingTracks() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        // the playlist has 3 tracks, but only 2 are known (e.g. the playlist was modified meanwhile)
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", List.of("t1", "t2")));
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.shuffleInPlace(EShuffleMode.REPLACE);
+
+        verify(api, never()).replaceTracks(any(), any());
+        verify(api, times(3)).reorderTrack(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void testShuffleInPlaceByReplaceReordersLocalFiles() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var tracks = new ArrayList<>(createTracks(299));
+        tracks.add("spotify:local:artist:album:title:180");
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().setTracks(new Paging.Builder<PlaylistTrack>().setTotal(300).build()).build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", tracks));
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.shuffleInPlace(EShuffleMode.REPLACE);
+
+        // local files cannot be added through the api, so the tracks are moved instead
+        verify(api, never()).replaceTracks(any(), any());
+        verify(api, atLeastOnce()).reorderTracks(eq("pid"), anyInt(), anyInt(), anyInt(), any());
+        assertEquals(Set.copyOf(tracks), Set.copyOf(playlist.getPlaylistTracksUris()));
+    }
+
     @Test
     public void testAddAndRemoveTracks() throws FatalRequestResponseException {
         var api = mock(ShuffleApi.class);
@@ -43,6 +146,162 @@ public class ShufflePlaylistTest {
         verify(api).addTracks("pid", "snap2", List.of("t1", "t4", "t5"));
     }
 
+    @Test
+    public void testAddAndRemoveTracksUsesCurrentSnapshot() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        var current = toSimplifiedPlaylist(defaultPlaylistBuilder().setSnapshotId("current").build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(current);
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.addAndRemoveTracks(null, List.of("t1"));
+
+        verify(api).removeTracks("pid", "current", List.of("t1"));
+    }
+
+    @Test
+    public void testExpiredTracksOfUnchangedSnapshotAreNotReloaded() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        when(api.streamPlaylistSnapshotId(eq("pid"))).thenReturn("snap");
+        when(api.streamPlaylistWithTracksUris(eq("pid"), anyInt())).thenReturn(new PlaylistWithTracks(simplified, new SnapshotTracks("snap", List.of("t1", "t2", "t3"))));
+        var playlist = new ShufflePlaylist(api, simplified, true, 5);
+
+        assertEquals(List.of("t1", "t2", "t3"), playlist.getPlaylistTracksUris());
+        Thread.sleep(6);
+        assertEquals(List.of("t1", "t2", "t3"), playlist.getPlaylistTracksUris());
+
+        // the known tracks are validated by snapshot identifier, the playlist is only retrieved by the cold load
+        verify(api, times(1)).streamPlaylistSnapshotId(eq("pid"));
+        verify(api, times(1)).streamPlaylistWithTracksUris(eq("pid"), anyInt());
+        verify(api, never()).streamPlaylistTracksUris(any(), any(), anyInt());
+    }
+
+    @Test
+    public void testInconsistentTracksAreNotKeptForTheirSnapshot() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        // the playlist was modified while its tracks were being loaded
+        when(api.streamPlaylistWithTracksUris(eq("pid"), anyInt())).thenReturn(
+                new PlaylistWithTracks(simplified, new SnapshotTracks(null, List.of("t1", "t3"))),
+                new PlaylistWithTracks(simplified, new SnapshotTracks("snap", List.of("t1", "t2", "t3"))));
+        var playlist = new ShufflePlaylist(api, simplified, true, 5);
+
+        assertEquals(List.of("t1", "t3"), playlist.getPlaylistTracksUris());
+        Thread.sleep(6);
+        assertEquals(List.of("t1", "t2", "t3"), playlist.getPlaylistTracksUris());
+
+        verify(api, times(2)).streamPlaylistWithTracksUris(eq("pid"), anyInt());
+    }
+
+    @Test
+    public void testExpiredTracksOfChangedSnapshotAreReloaded() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        var renamed = toSimplifiedPlaylist(defaultPlaylistBuilder().setName("new-name").setSnapshotId("snap2").build());
+        when(api.streamPlaylistWithTracksUris(eq("pid"), anyInt())).thenReturn(new PlaylistWithTracks(simplified, new SnapshotTracks("snap", List.of("t1", "t2", "t3"))));
+        when(api.streamPlaylistSnapshotId(eq("pid"))).thenReturn("snap2");
+        when(api.streamPlaylistTracksUris(eq("pid"), eq("snap2"), anyInt())).thenReturn(new SnapshotTracks("snap2", List.of("t3", "t2", "t1")));
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(renamed);
+        var playlist = new ShufflePlaylist(api, simplified, true, 5);
+
+        assertEquals(List.of("t1", "t2", "t3"), playlist.getPlaylistTracksUris());
+        Thread.sleep(6);
+        assertEquals(List.of("t3", "t2", "t1"), playlist.getPlaylistTracksUris());
+        // the playlist's data refers to the old snapshot, so it is reloaded
+        assertEquals("new-name", playlist.getName());
+
+        // only the cold load retrieves the playlist together with its tracks
+        verify(api, times(1)).streamPlaylistWithTracksUris(eq("pid"), anyInt());
+        verify(api, times(1)).streamPlaylistTracksUris(eq("pid"), eq("snap2"), anyInt());
+    }
+
+    @Test
+    public void testShuffleTwiceWithUnchangedSnapshotReusesTracks() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        var tracks = createTracks(300);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().setTracks(new Paging.Builder<PlaylistTrack>().setTotal(300).build()).build());
+        when(api.streamPlaylistSimplified(eq("pid"))).thenReturn(simplified);
+        when(api.streamPlaylistTracksUris(eq("pid"), any(), anyInt())).thenReturn(new SnapshotTracks("snap", tracks));
+        // pretend the playlist still has the same snapshot after it was replaced
+        when(api.replaceTracks(eq("pid"), any())).thenReturn("snap");
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        playlist.shuffleInPlace(EShuffleMode.REPLACE);
+        playlist.shuffleInPlace(EShuffleMode.REPLACE);
+
+        verify(api, times(2)).replaceTracks(eq("pid"), any());
+        verify(api, times(1)).streamPlaylistTracksUris(eq("pid"), any(), anyInt());
+        verify(api, never()).streamPlaylistSnapshotId(any());
+    }
+
+    @Test
+    public void testReadsDoNotWaitForModification() throws Exception {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(api.replaceTracks(eq("pid"), any())).thenAnswer((invocation) -> {
+            started.countDown();
+            release.await();
+            return "snap2";
+        });
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        var writer = new Thread(() -> {
+            try {
+                playlist.replaceTracks(List.of("t1"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        started.await();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals("playlist-name", playlist.getName());
+            playlist.getImages();
+        });
+
+        release.countDown();
+        writer.join();
+        assertEquals(List.of("t1"), playlist.getPlaylistTracksUris());
+    }
+
+    @Test
+    public void testModificationsAreSerialized() throws Exception {
+        var api = mock(ShuffleApi.class);
+        var simplified = toSimplifiedPlaylist(defaultPlaylistBuilder().build());
+        var active = new AtomicInteger();
+        var maxActive = new AtomicInteger();
+        when(api.replaceTracks(eq("pid"), any())).thenAnswer((invocation) -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            active.decrementAndGet();
+            return "snap2";
+        });
+        var playlist = new ShufflePlaylist(api, simplified, true);
+
+        var writers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            var writer = new Thread(() -> {
+                try {
+                    playlist.replaceTracks(List.of("t1"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (var writer : writers) {
+            writer.join();
+        }
+
+        verify(api, times(4)).replaceTracks(eq("pid"), any());
+        assertEquals(1, maxActive.get());
+    }
+
     @Test
     public void testImmutablePlaylist() {
         var api = mock(ShuffleApi.class);
@@ -50,9 +309,19 @@ public class ShufflePlaylistTest {
         var playlist = new ShufflePlaylist(api, simplified, false);
 
         assertThrows(ImmutablePlaylistException.class, playlist::shuffleInPlace);
+        assertThrows(ImmutablePlaylistException.class, () -> playlist.shuffleInPlace(EShuffleMode.REPLACE));
+        assertThrows(ImmutablePlaylistException.class, () -> playlist.replaceTracks(List.of()));
         assertThrows(ImmutablePlaylistException.class, () -> playlist.addAndRemoveTracks(null, null));
     }
 
+    private List<String> createTracks(int count) {
+        List<String> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add("t" + i);
+        }
+        return tracks;
+    }
+
     private Playlist.Builder defaultPlaylistBuilder() {
         return new Playlist.Builder()
                 .setCollaborative(false)
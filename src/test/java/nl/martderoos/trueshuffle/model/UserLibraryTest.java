@@ -4,7 +4,10 @@ import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseExcepti
 import org.junit.jupiter.api.Test;
 import se.michaelthelin.spotify.model_objects.specification.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static nl.martderoos.trueshuffle.utility.PlaylistUtil.toSimplifiedPlaylist;
 import static org.junit.jupiter.api.Assertions.*;
@@ -51,7 +54,7 @@ public class UserLibraryTest {
         PlaylistSimplified p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setName("cool").setId("pid1").build());
         PlaylistSimplified p2 = toSimplifiedPlaylist(defaultPlaylistBuilder().setName("cool").setId("pid2").setOwner(createUser("some guy", "some name")).build());
         PlaylistSimplified p3 = toSimplifiedPlaylist(defaultPlaylistBuilder().setName("cool").setId("pid3").build());
-        when(api.searchPlaylistByExactName(eq("cool"), anyInt())).thenReturn(List.of(p1, p2, p3));
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1, p2, p3));
 
         var lib = new UserLibrary(api);
         var result = lib.getPlaylistByName("cool", false);
@@ -64,8 +67,76 @@ public class UserLibraryTest {
         assertEquals("pid1", result.get(0).getPlaylistId());
         assertEquals("pid3", result.get(1).getPlaylistId());
 
+        // resolved from the library, so no search is required
+        verify(api, never()).findPlaylistByExactName(anyString(), anyInt());
+    }
+
+    @Test
+    public void testGetPlaylistByNameSearchesOutsideLibrary() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        PlaylistSimplified p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setName("cool").setId("pid1").setOwner(createUser("some guy", "some name")).build());
+        when(api.findPlaylistByExactName(eq("cool"), anyInt())).thenReturn(p1);
+
+        var lib = new UserLibrary(api);
+        var result = lib.getPlaylistByName("cool", false);
+        assertEquals(1, result.size());
+        assertEquals("pid1", result.get(0).getPlaylistId());
+        assertSame(result.get(0), lib.getPlaylistById("pid1"));
+        assertEquals(result, lib.getPlaylistByName("cool", false));
+        // search results are not part of the library
+        assertEquals(List.of(), lib.getPlaylistByName("cool", true));
+        assertEquals(List.of(), lib.getMostRecentPlaylists(10));
+
         // cached result, so only 1 call made
-        verify(api, times(1)).searchPlaylistByExactName(eq("cool"), anyInt());
+        verify(api, times(1)).findPlaylistByExactName(eq("cool"), anyInt());
+        verify(api, never()).streamPlaylistSimplified(anyString());
+    }
+
+    @Test
+    public void testOwnedPlaylistByNameNeverSearches() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+        var uploadedPlaylist = defaultPlaylistBuilder().setId("upload-id").setName("new").build();
+        when(api.uploadPlaylist(anyString(), anyString())).thenReturn(uploadedPlaylist);
+
+        var lib = new UserLibrary(api);
+        assertEquals(List.of(), lib.getPlaylistByName("new", true));
+        var created = lib.createPlaylist("new", "description");
+        assertEquals(List.of(created), lib.getPlaylistByName("new", true));
+
+        verify(api, never()).findPlaylistByExactName(anyString(), anyInt());
+    }
+
+    @Test
+    public void testSearchMissesAreCachedUntilRefresh() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+        when(api.findPlaylistByExactName(anyString(), anyInt())).thenReturn(null);
+
+        var lib = new UserLibrary(api, 50);
+        assertEquals(List.of(), lib.getPlaylistByName("missing", false));
+        assertEquals(List.of(), lib.getPlaylistByName("missing", false));
+        verify(api, times(1)).findPlaylistByExactName(eq("missing"), anyInt());
+
+        Thread.sleep(60);
+        assertEquals(List.of(), lib.getPlaylistByName("missing", false));
+        verify(api, times(2)).findPlaylistByExactName(eq("missing"), anyInt());
+    }
+
+    @Test
+    public void testPlaylistNamesAreNormalized() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        // decomposed e with acute accent and trailing whitespace
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("Cafe\u0301 ").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1));
+
+        var lib = new UserLibrary(api);
+        assertEquals(1, lib.getPlaylistByName("Caf\u00e9", true).size());
+        assertEquals(List.of(), lib.getPlaylistByName("caf\u00e9", true));
     }
 
     @Test
@@ -94,6 +165,29 @@ public class UserLibraryTest {
         verify(api, times(1)).streamPlaylistSimplified("pid2");
     }
 
+    @Test
+    public void testPlaylistsLookedUpByIdAreNotListedByName() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var other = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").setOwner(createUser("some guy", "some name")).build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1));
+        when(api.streamPlaylistSimplified("p2")).thenReturn(other);
+        when(api.findPlaylistByExactName(anyString(), anyInt())).thenReturn(null);
+
+        var lib = new UserLibrary(api, 20);
+        var lookedUp = lib.getPlaylistById("p2");
+        assertEquals(List.of(), lib.getPlaylistByName("n2", false));
+
+        // the lookup is cached until the next refresh
+        assertSame(lookedUp, lib.getPlaylistById("p2"));
+        verify(api, times(1)).streamPlaylistSimplified("p2");
+        Thread.sleep(30);
+        lib.getMostRecentPlaylists(10);
+        assertEquals(List.of(), lib.getPlaylistByName("n2", false));
+    }
+
     @Test
     public void testGetEmptyMostRecentPlaylists() throws FatalRequestResponseException {
         var api = mock(ShuffleApi.class);
@@ -127,6 +221,201 @@ public class UserLibraryTest {
         verify(api, times(1)).streamUserPlaylists(anyInt());
     }
 
+    @Test
+    public void testIndexContainsEntireLibrary() throws FatalRequestResponseException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of());
+
+        var lib = new UserLibrary(api);
+        lib.getMostRecentPlaylists(10);
+
+        verify(api).streamUserPlaylists(UserLibrary.PLAYLISTS_HARD_LIMIT);
+    }
+
+    @Test
+    public void testRefreshKeepsUnchangedPlaylists() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var p2 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").build());
+        var p2Modified = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").setSnapshotId("snap2").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1, p2)).thenReturn(List.of(p2Modified, p1));
+
+        var lib = new UserLibrary(api, 1);
+        var first = lib.getPlaylistById("p1");
+        var second = lib.getPlaylistById("p2");
+        Thread.sleep(5);
+
+        assertEquals(List.of(p2Modified, p1), lib.getMostRecentPlaylists(10));
+        assertSame(first, lib.getPlaylistById("p1"));
+        assertSame(second, lib.getPlaylistById("p2"));
+        verify(api, never()).streamPlaylistSimplified(anyString());
+    }
+
+    @Test
+    public void testRefreshRenamesPlaylists() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("old").build());
+        var p1Renamed = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("new").setSnapshotId("snap2").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1)).thenReturn(List.of(p1Renamed));
+        when(api.findPlaylistByExactName(anyString(), anyInt())).thenReturn(null);
+
+        var lib = new UserLibrary(api, 1);
+        var playlist = lib.getPlaylistByName("old", true).get(0);
+        Thread.sleep(5);
+
+        var renamed = lib.getPlaylistByName("new", true);
+        assertEquals(List.of(playlist), renamed);
+        assertEquals("new", playlist.getName());
+        assertEquals(List.of(), lib.getPlaylistByName("old", true));
+    }
+
+    @Test
+    public void testRefreshDropsRemovedPlaylists() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var p2 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1, p2)).thenReturn(List.of(p1));
+        when(api.findPlaylistByExactName(anyString(), anyInt())).thenReturn(null);
+
+        var lib = new UserLibrary(api, 1);
+        assertEquals(1, lib.getPlaylistByName("n2", true).size());
+        Thread.sleep(5);
+
+        assertEquals(List.of(p1), lib.getMostRecentPlaylists(10));
+        assertEquals(List.of(), lib.getPlaylistByName("n2", true));
+        verify(api, never()).findPlaylistByExactName(anyString(), anyInt());
+    }
+
+    @Test
+    public void testLookupsDoNotWaitForSearch() throws Exception {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1));
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(api.findPlaylistByExactName(eq("other"), anyInt())).thenAnswer((invocation) -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+
+        var lib = new UserLibrary(api);
+        lib.getMostRecentPlaylists(10);
+        var searcher = new Thread(() -> {
+            try {
+                lib.getPlaylistByName("other", false);
+            } catch (FatalRequestResponseException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        searcher.start();
+        started.await();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals("p1", lib.getPlaylistById("p1").getPlaylistId());
+            assertEquals(1, lib.getPlaylistByName("n1", true).size());
+            assertEquals(List.of(p1), lib.getMostRecentPlaylists(10));
+        });
+
+        release.countDown();
+        searcher.join();
+    }
+
+    @Test
+    public void testOnePlaylistInstancePerPlaylist() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var other = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").setOwner(createUser("some guy", "some name")).build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1)).thenReturn(List.of()).thenReturn(List.of(p1));
+        when(api.findPlaylistByExactName(eq("n2"), anyInt())).thenReturn(other);
+        when(api.streamPlaylistSimplified("p2")).thenReturn(other);
+
+        var lib = new UserLibrary(api, 20);
+        var playlist = lib.getPlaylistById("p1");
+        var searched = lib.getPlaylistByName("n2", false).get(0);
+        assertSame(searched, lib.getPlaylistById("p2"));
+
+        // removed from and re-added to the library while still in use
+        Thread.sleep(30);
+        lib.getMostRecentPlaylists(10);
+        Thread.sleep(30);
+        assertSame(playlist, lib.getPlaylistById("p1"));
+        assertSame(searched, lib.getPlaylistById("p2"));
+        verify(api, never()).streamPlaylistSimplified(anyString());
+    }
+
+    @Test
+    public void testExpiredIndexIsServedWhileRefreshed() throws FatalRequestResponseException, InterruptedException {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+        List<Runnable> revalidations = new ArrayList<>();
+        when(api.getRevalidationExecutor()).thenReturn(revalidations::add);
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var p2 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p2").setName("n2").build());
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1)).thenReturn(List.of(p2, p1));
+
+        var lib = new UserLibrary(api, 500);
+        assertEquals(List.of(p1), lib.getMostRecentPlaylists(10));
+        Thread.sleep(600);
+
+        // the expired index is served right away, and refreshed in the background
+        assertEquals(List.of(p1), lib.getMostRecentPlaylists(10));
+        assertEquals(1, revalidations.size());
+        verify(api, times(1)).streamUserPlaylists(anyInt());
+
+        revalidations.get(0).run();
+        assertEquals(List.of(p2, p1), lib.getMostRecentPlaylists(10));
+        verify(api, times(2)).streamUserPlaylists(anyInt());
+    }
+
+    @Test
+    public void testPlaylistCreatedDuringRefreshIsKept() throws Exception {
+        var api = mock(ShuffleApi.class);
+        when(api.getUserId()).thenReturn("user");
+        List<Runnable> revalidations = new ArrayList<>();
+        when(api.getRevalidationExecutor()).thenReturn(revalidations::add);
+
+        var p1 = toSimplifiedPlaylist(defaultPlaylistBuilder().setId("p1").setName("n1").build());
+        var created = defaultPlaylistBuilder().setId("created").setName("shuffled").build();
+        when(api.uploadPlaylist(anyString(), anyString())).thenReturn(created);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        // Spotify does not list the created playlist yet, not even after the refresh
+        when(api.streamUserPlaylists(anyInt())).thenReturn(List.of(p1)).thenAnswer((invocation) -> {
+            started.countDown();
+            release.await();
+            return List.of(p1);
+        });
+
+        var lib = new UserLibrary(api, 500);
+        lib.getMostRecentPlaylists(10);
+        Thread.sleep(600);
+        lib.getMostRecentPlaylists(10);
+        var refresher = new Thread(revalidations.get(0));
+        refresher.start();
+        started.await();
+
+        var playlist = lib.createPlaylist("shuffled", "description");
+        release.countDown();
+        refresher.join();
+
+        assertEquals(List.of(playlist), lib.getPlaylistByName("shuffled", true));
+        assertEquals(List.of("created", "p1"), lib.getMostRecentPlaylists(10).stream().map(PlaylistSimplified::getId).toList());
+        verify(api, times(2)).streamUserPlaylists(anyInt());
+    }
+
     private Playlist.Builder defaultPlaylistBuilder() {
         return new Playlist.Builder()
                 .setCollaborative(false)
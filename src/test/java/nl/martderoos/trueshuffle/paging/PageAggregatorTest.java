@@ -4,7 +4,15 @@ import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseExcepti
 import org.junit.jupiter.api.Test;
 import se.michaelthelin.spotify.model_objects.specification.Paging;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -119,6 +127,149 @@ public class PageAggregatorTest {
         verify(spyLoader, times(4)).loadPage(anyInt(), anyInt());
     }
 
+    @Test
+    public void testAsyncMatchesSequential() throws Exception {
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var data = new Integer[103];
+            for (int i = 0; i < data.length; i++) data[i] = i;
+            for (int pageSize = 1; pageSize < 12; pageSize += 2) {
+                for (int offset : new int[]{0, 5}) {
+                    for (int hardLimit : new int[]{0, 1, 7, 50, 103, 500}) {
+                        var expected = PageAggregator.aggregate(new SpotifyFuturePage<>(new IntLoader(data), offset, pageSize), hardLimit, false);
+                        var concurrent = PageAggregator.aggregateAsync(new AsyncIntLoader(data), offset, pageSize, hardLimit, false, executor, 3);
+                        var withoutExecutor = PageAggregator.aggregateAsync(new AsyncIntLoader(data), offset, pageSize, hardLimit, false, null, 3);
+                        var sequential = PageAggregator.aggregateAsync(new AsyncIntLoader(data), offset, pageSize, hardLimit, false, null, 1);
+                        assertEquals(expected, concurrent.get(10, TimeUnit.SECONDS));
+                        assertEquals(expected, withoutExecutor.get(10, TimeUnit.SECONDS));
+                        assertEquals(expected, sequential.get(10, TimeUnit.SECONDS));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncConcurrentWithoutExecutor() throws Exception {
+        var loader = new ManualAsyncIntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        var result = PageAggregator.aggregateAsync(loader, 0, 2, 100, false, null, 3);
+        while (!result.isDone()) {
+            loader.completePending();
+        }
+
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), result.get(10, TimeUnit.SECONDS));
+        assertEquals(3, loader.maxOutstanding.get());
+    }
+
+    @Test
+    public void testAsyncCancelStopsLoadingPages() {
+        var loader = new ManualAsyncIntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        var result = PageAggregator.aggregateAsync(loader, 0, 2, 100, false, null, 3);
+        // the first page reveals the total, after which three more pages are requested
+        loader.completePending();
+        assertEquals(4, loader.requested.get());
+
+        result.cancel(false);
+        loader.completePending();
+        assertEquals(4, loader.requested.get());
+    }
+
+    @Test
+    public void testAsyncFilterOnAllowNull() throws Exception {
+        var result = PageAggregator.aggregateAsync(new AsyncIntLoader(1, null, 3, null, null, null, 7, 8, 9, null), 0, 3, 100, true, ForkJoinPool.commonPool(), 2);
+        assertEquals(List.of(1, 3, 7, 8, 9), result.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncThrowOnDisallowNull() {
+        var result = PageAggregator.aggregateAsync(new AsyncIntLoader(1, 2, 3, 4, 5, 6, null, 8, 9, 10), 0, 2, 100, false, ForkJoinPool.commonPool(), 2);
+        var thrown = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(FatalRequestResponseException.class, thrown.getCause());
+    }
+
+    @Test
+    public void testAsyncPageFailure() {
+        var loader = new AsyncIntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10) {
+            @Override
+            public CompletableFuture<Paging<Integer>> loadPage(int offset, int limit) {
+                if (offset == 6)
+                    return CompletableFuture.failedFuture(new FatalRequestResponseException("STUB"));
+                return super.loadPage(offset, limit);
+            }
+        };
+        var result = PageAggregator.aggregateAsync(loader, 0, 2, 100, false, ForkJoinPool.commonPool(), 3);
+        var thrown = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertEquals("STUB", thrown.getCause().getMessage());
+    }
+
+    /**
+     * Loads pages that only complete once the test completes them, such that every page requested in between is
+     * outstanding.
+     */
+    private static class ManualAsyncIntLoader implements SpotifyAsyncPageLoader<Integer> {
+        private final IntLoader loader;
+        private final List<Runnable> pending = new ArrayList<>();
+        private final AtomicInteger requested = new AtomicInteger();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+        private ManualAsyncIntLoader(Integer... data) {
+            this.loader = new IntLoader(data);
+        }
+
+        @Override
+        public CompletableFuture<Paging<Integer>> loadPage(int offset, int limit) {
+            var future = new CompletableFuture<Paging<Integer>>();
+            requested.incrementAndGet();
+            maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+            synchronized (pending) {
+                pending.add(() -> {
+                    outstanding.decrementAndGet();
+                    try {
+                        future.complete(loader.loadPage(offset, limit));
+                    } catch (FatalRequestResponseException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            }
+            return future;
+        }
+
+        /**
+         * Complete the pages that are outstanding, pages requested while completing them remain outstanding.
+         */
+        private void completePending() {
+            List<Runnable> toComplete;
+            synchronized (pending) {
+                toComplete = new ArrayList<>(pending);
+                pending.clear();
+            }
+            toComplete.forEach(Runnable::run);
+        }
+    }
+
+    private static class AsyncIntLoader implements SpotifyAsyncPageLoader<Integer> {
+        private final IntLoader loader;
+
+        private AsyncIntLoader(Integer... data) {
+            this.loader = new IntLoader(data);
+        }
+
+        @Override
+        public CompletableFuture<Paging<Integer>> loadPage(int offset, int limit) {
+            // complete on another thread, like the Spotify library does
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return loader.loadPage(offset, limit);
+                } catch (FatalRequestResponseException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+    }
+
     private static class IntLoader implements SpotifyPageLoader<Integer> {
         private final Integer[] data;
 
@@ -0,0 +1,212 @@
+package nl.martderoos.trueshuffle.paging;
+
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PageStreamTest {
+    @Test
+    public void testNothingLoadedUntilConsumed() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader(1, 2, 3));
+        var stream = PageStream.stream(new SpotifyFuturePage<>(spyLoader, 0, 2), 10, false);
+        verify(spyLoader, never()).loadPage(anyInt(), anyInt());
+        assertEquals(List.of(1, 2, 3), stream.collect(Collectors.toList()));
+        verify(spyLoader, times(1)).loadPage(eq(0), eq(2));
+        verify(spyLoader, times(1)).loadPage(eq(2), eq(2));
+    }
+
+    @Test
+    public void testNoData() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader());
+        var result = PageStream.stream(new SpotifyFuturePage<>(spyLoader, 0, 2), 10, false).collect(Collectors.toList());
+        assertEquals(List.of(), result);
+        verify(spyLoader, times(1)).loadPage(eq(0), anyInt());
+    }
+
+    @Test
+    public void testEarlyTermination() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        var result = PageStream.stream(new SpotifyFuturePage<>(spyLoader, 0, 2), 100, false)
+                .filter((i) -> i == 3)
+                .findFirst();
+        assertEquals(3, result.orElseThrow());
+        verify(spyLoader, times(2)).loadPage(anyInt(), anyInt());
+    }
+
+    @Test
+    public void testHardLimit() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        var result = PageStream.stream(new SpotifyFuturePage<>(spyLoader, 0, 2), 5, false).collect(Collectors.toList());
+        assertEquals(List.of(1, 2, 3, 4, 5), result);
+        verify(spyLoader, times(3)).loadPage(anyInt(), anyInt());
+    }
+
+    @Test
+    public void testFilterNulls() {
+        var loader = new IntLoader(1, null, 3, null, 5);
+        var result = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 2), 10, true).collect(Collectors.toList());
+        assertEquals(List.of(1, 3, 5), result);
+    }
+
+    @Test
+    public void testNullsNotAllowed() {
+        var loader = new IntLoader(1, null, 3);
+        var stream = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 2), 10, false);
+        assertThrows(PageStreamException.class, () -> stream.collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testLoadFailure() throws FatalRequestResponseException {
+        var loader = mock(IntLoader.class);
+        var exception = new FatalRequestResponseException("failed");
+        when(loader.loadPage(anyInt(), anyInt())).thenThrow(exception);
+        var stream = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 2), 10, false);
+        var thrown = assertThrows(PageStreamException.class, () -> stream.collect(Collectors.toList()));
+        assertSame(exception, thrown.getCause());
+    }
+
+    @Test
+    public void testPrefetchesOnePageAhead() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        Executor executor = Runnable::run;
+        var iterator = PageStream.stream(new SpotifyFuturePage<>(spyLoader, 0, 2), 100, false, executor).iterator();
+        assertEquals(1, iterator.next());
+        verify(spyLoader, times(1)).loadPage(eq(0), eq(2));
+        verify(spyLoader, times(1)).loadPage(eq(2), eq(2));
+        verify(spyLoader, never()).loadPage(eq(4), anyInt());
+    }
+
+    @Test
+    public void testPrefetchMatchesSequential() {
+        var loader = new IntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        Executor executor = Runnable::run;
+        var result = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 3), 8, false, executor).collect(Collectors.toList());
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8), result);
+    }
+
+    @Test
+    public void testPrefetchFailure() throws FatalRequestResponseException {
+        var loader = mock(IntLoader.class);
+        var exception = new FatalRequestResponseException("failed");
+        when(loader.loadPage(anyInt(), anyInt())).thenThrow(exception);
+        Executor executor = Runnable::run;
+        var stream = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 2), 10, false, executor);
+        var thrown = assertThrows(PageStreamException.class, () -> stream.collect(Collectors.toList()));
+        assertSame(exception, thrown.getCause());
+    }
+
+    @Test
+    public void testRejectingExecutorLoadsOnDemand() {
+        var loader = new IntLoader(1, 2, 3, 4, 5);
+        Executor executor = (r) -> {
+            throw new RejectedExecutionException();
+        };
+        var result = PageStream.stream(new SpotifyFuturePage<>(loader, 0, 2), 10, false, executor).collect(Collectors.toList());
+        assertEquals(List.of(1, 2, 3, 4, 5), result);
+    }
+
+    @Test
+    public void testAsyncPrefetchesOnePageAhead() throws FatalRequestResponseException {
+        var spyLoader = spy(new IntLoader(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        SpotifyAsyncPageLoader<Integer> asyncLoader = (offset, limit) -> {
+            try {
+                return CompletableFuture.completedFuture(spyLoader.loadPage(offset, limit));
+            } catch (FatalRequestResponseException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        };
+        var stream = PageStream.stream(asyncLoader, 0, 2, 100, false);
+        verify(spyLoader, never()).loadPage(anyInt(), anyInt());
+        var iterator = stream.iterator();
+        assertEquals(1, iterator.next());
+        verify(spyLoader, times(1)).loadPage(eq(0), eq(2));
+        verify(spyLoader, times(1)).loadPage(eq(2), eq(2));
+        verify(spyLoader, never()).loadPage(eq(4), anyInt());
+    }
+
+    @Test
+    public void testAsyncMatchesSequential() {
+        var loader = new IntLoader(1, null, 3, 4, 5, 6, 7, 8, 9, 10);
+        SpotifyAsyncPageLoader<Integer> asyncLoader = (offset, limit) -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.loadPage(offset, limit);
+            } catch (FatalRequestResponseException e) {
+                throw new CompletionException(e);
+            }
+        });
+        var result = PageStream.stream(asyncLoader, 0, 3, 8, true).collect(Collectors.toList());
+        assertEquals(List.of(1, 3, 4, 5, 6, 7, 8), result);
+    }
+
+    @Test
+    public void testAsyncLoadFailure() {
+        var exception = new FatalRequestResponseException("failed");
+        SpotifyAsyncPageLoader<Integer> asyncLoader = (offset, limit) -> CompletableFuture.failedFuture(exception);
+        var stream = PageStream.stream(asyncLoader, 0, 2, 10, false);
+        var thrown = assertThrows(PageStreamException.class, () -> stream.collect(Collectors.toList()));
+        assertSame(exception, thrown.getCause());
+    }
+
+    @Test
+    public void testAsyncCloseCancelsPrefetch() throws FatalRequestResponseException {
+        var loader = new IntLoader(1, 2, 3, 4, 5);
+        var pending = new CompletableFuture<Paging<Integer>>();
+        var first = loader.loadPage(0, 2);
+        SpotifyAsyncPageLoader<Integer> asyncLoader = (offset, limit) -> offset == 0 ? CompletableFuture.completedFuture(first) : pending;
+        try (var stream = PageStream.stream(asyncLoader, 0, 2, 10, false)) {
+            assertEquals(1, stream.findFirst().orElseThrow());
+        }
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testAsyncInterruptCancelsPage() {
+        var pending = new CompletableFuture<Paging<Integer>>();
+        var stream = PageStream.stream((offset, limit) -> pending, 0, 2, 10, false);
+        Thread.currentThread().interrupt();
+        try {
+            var thrown = assertThrows(PageStreamException.class, () -> stream.collect(Collectors.toList()));
+            assertNotNull(thrown.getCause());
+            assertTrue(Thread.currentThread().isInterrupted());
+            assertTrue(pending.isCancelled());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static class IntLoader implements SpotifyPageLoader<Integer> {
+        private final Integer[] data;
+
+        private IntLoader(Integer... data) {
+            this.data = data;
+        }
+
+        @Override
+        public Paging<Integer> loadPage(int offset, int limit) throws FatalRequestResponseException {
+            int min = Math.min(limit, data.length - offset);
+            var items = new Integer[min];
+            System.arraycopy(data, offset, items, 0, min);
+            String next = null;
+            var nextOffset = offset + items.length;
+            if (nextOffset < data.length) next = nextOffset + ":" + limit;
+            return new Paging.Builder<Integer>()
+                    .setHref(offset + ":" + limit)
+                    .setNext(next)
+                    .setLimit(limit)
+                    .setOffset(offset)
+                    .setTotal(data.length)
+                    .setItems(items)
+                    .build();
+        }
+    }
+}
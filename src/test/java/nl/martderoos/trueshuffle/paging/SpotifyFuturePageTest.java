@@ -28,6 +28,20 @@ public class SpotifyFuturePageTest {
         assertThrows(IllegalArgumentException.class, () -> new SpotifyFuturePage<>(uselessLoader, -1));
     }
 
+    @Test
+    public void testEndpointConstructors() {
+        var future = new SpotifyFuturePage<>(uselessLoader, ESpotifyPagedEndpoint.PLAYLIST_ITEMS);
+        assertEquals(0, future.getOffset());
+        assertEquals(100, future.getLimit());
+
+        future = new SpotifyFuturePage<>(uselessLoader, 100, ESpotifyPagedEndpoint.SAVED_TRACKS);
+        assertEquals(100, future.getOffset());
+        assertEquals(50, future.getLimit());
+
+        assertThrows(NullPointerException.class, () -> new SpotifyFuturePage<>(uselessLoader, 0, (ESpotifyPagedEndpoint) null));
+        assertThrows(IllegalArgumentException.class, () -> new SpotifyFuturePage<>(uselessLoader, -1, ESpotifyPagedEndpoint.SEARCH));
+    }
+
     @Test
     public void testThreeArgConstructor() {
         var future = new SpotifyFuturePage<>(uselessLoader, 0, 0);
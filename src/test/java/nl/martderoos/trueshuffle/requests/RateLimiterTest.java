@@ -0,0 +1,98 @@
+package nl.martderoos.trueshuffle.requests;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstDoesNotWait() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 3, clock::get);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(SECOND / 10, limiter.reserve());
+        assertEquals(2 * SECOND / 10, limiter.reserve());
+    }
+
+    @Test
+    public void testPermitsRefillOverTime() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 0, clock::get);
+        assertEquals(0, limiter.reserve());
+        assertEquals(SECOND / 10, limiter.reserve());
+        clock.addAndGet(SECOND);
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void testBurstIsCapped() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 2, clock::get);
+        clock.addAndGet(60 * SECOND);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+    }
+
+    @Test
+    public void testSlowDownPausesAndHalvesRate() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 5, clock::get);
+        limiter.onSlowDown(3);
+        assertEquals(5, limiter.getPermitsPerSecond());
+        assertEquals(3 * SECOND, limiter.getPauseRemainingNanos());
+        assertEquals(3 * SECOND, limiter.reserve());
+        assertEquals(3 * SECOND + SECOND / 5, limiter.reserve());
+
+        clock.addAndGet(10 * SECOND);
+        assertEquals(0, limiter.getPauseRemainingNanos());
+    }
+
+    @Test
+    public void testSlowDownDuringPauseDoesNotDecreaseRateAgain() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 5, clock::get);
+        limiter.onSlowDown(3);
+        limiter.onSlowDown(5);
+        assertEquals(5, limiter.getPermitsPerSecond());
+        assertEquals(5 * SECOND, limiter.getPauseRemainingNanos());
+    }
+
+    @Test
+    public void testRateNeverBelowMinimum() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 4, 5, clock::get);
+        for (int i = 0; i < 5; i++) {
+            limiter.onSlowDown(1);
+            clock.addAndGet(2 * SECOND);
+        }
+        assertEquals(4, limiter.getPermitsPerSecond());
+    }
+
+    @Test
+    public void testSuccessRecoversRate() {
+        var clock = new AtomicLong();
+        var limiter = new RateLimiter(10, 1, 5, clock::get);
+        limiter.onSlowDown(1);
+        for (int i = 0; i < 1000; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(10, limiter.getPermitsPerSecond());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(10, 0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(1, 10, 5));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(10, 1, -1));
+    }
+}
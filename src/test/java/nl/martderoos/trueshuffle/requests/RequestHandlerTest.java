@@ -8,7 +8,7 @@ import se.michaelthelin.spotify.exceptions.detailed.*;
 import se.michaelthelin.spotify.requests.IRequest;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -132,6 +132,258 @@ public class RequestHandlerTest {
         verify(request, times(1)).execute();
     }
 
+    @Test
+    public void testRateLimiterGatesRequests() throws Exception {
+        var limiter = spy(new RateLimiter());
+        var handler = RequestHandler.builder().setRateLimiter(limiter).build();
+        var result = handler.handleRequest(forgeRequest(new GigaSupplier(5)));
+        assertEquals(5, result);
+        verify(limiter, times(1)).acquire();
+        verify(limiter, times(1)).onSuccess();
+    }
+
+    @Test
+    public void testTooManyRequestsPausesSharedRateLimiter() throws Exception {
+        var limiter = new RateLimiter();
+        var handler = RequestHandler.builder().setRateLimiter(limiter).build();
+        var otherHandler = RequestHandler.builder().setRateLimiter(limiter).build();
+        var currentTime = System.currentTimeMillis();
+        var result = handler.handleRequest(forgeRequest(new GigaSupplier(new TooManyRequestsException("wait at least 1 second", 1), 5)));
+        var otherResult = otherHandler.handleRequest(forgeRequest(new GigaSupplier(6)));
+        var difference = System.currentTimeMillis() - currentTime;
+        assertTrue(TimeUnit.SECONDS.toMillis(1) <= difference);
+        assertEquals(5, result);
+        assertEquals(6, otherResult);
+        assertTrue(limiter.getPermitsPerSecond() < RateLimiter.DEFAULT_MAX_PERMITS_PER_SECOND);
+    }
+
+    @Test
+    public void testAsyncSucceedingRequest() throws Exception {
+        var handler = new RequestHandler(null);
+        var result = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(5))).get(10, TimeUnit.SECONDS);
+        assertEquals(5, result);
+    }
+
+    @Test
+    public void testAsyncRetryMultipleTimes() throws Exception {
+        var handler = new RequestHandler(null);
+        var request = forgeAsyncRequest(new GigaSupplier(
+                new ServiceUnavailableException(),
+                new TooManyRequestsException("wait at least 1 second", 1), 5));
+        var result = handler.handleRequestAsync(request).get(10, TimeUnit.SECONDS);
+        assertEquals(5, result);
+        verify(request, times(3)).execute();
+        verify(request, never()).executeAsync();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAsyncRequestIsSentOnRequestExecutor() throws Exception {
+        var executor = Executors.newSingleThreadExecutor((runnable) -> new Thread(runnable, "STUB-request"));
+        try {
+            var handler = RequestHandler.builder().setRequestExecutor(executor).build();
+            IRequest<Object> request = mock(IRequest.class);
+            when(request.execute()).thenAnswer(invocation -> Thread.currentThread().getName());
+            assertEquals("STUB-request", handler.handleRequestAsync(request).get(10, TimeUnit.SECONDS));
+            verify(request, never()).executeAsync();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncCancelStopsRetries() throws Exception {
+        var handler = new RequestHandler(null);
+        var sent = new CountDownLatch(1);
+        var request = forgeAsyncRequest(new GigaSupplier(new ServiceUnavailableException(), 5), sent);
+        var future = handler.handleRequestAsync(request);
+        // the first attempt failed, so the retry is scheduled a second later
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        future.cancel(false);
+        Thread.sleep(1500);
+        verify(request, times(1)).execute();
+    }
+
+    @Test
+    public void testInterruptedThreadDoesNotSendRequest() throws Exception {
+        var handler = new RequestHandler(null);
+        var request = forgeRequest(new GigaSupplier(5));
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(FatalRequestResponseException.class, () -> handler.handleRequest(request));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        verify(request, never()).execute();
+    }
+
+    @Test
+    public void testInterruptStopsRetries() throws Exception {
+        var handler = new RequestHandler(null);
+        var sent = new CountDownLatch(1);
+        var request = forgeAsyncRequest(new GigaSupplier(new ServiceUnavailableException(), 5), sent);
+        var thrown = new CompletableFuture<Throwable>();
+        var thread = new Thread(() -> thrown.complete(assertThrows(FatalRequestResponseException.class, () -> handler.handleRequest(request))));
+        thread.start();
+        // the first attempt failed, so the thread sleeps until it retries
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        thread.interrupt();
+        assertInstanceOf(FatalRequestResponseException.class, thrown.get(10, TimeUnit.SECONDS));
+        verify(request, times(1)).execute();
+    }
+
+    @Test
+    public void testAsyncRetryDoesNotBlockScheduler() throws Exception {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            var handler = RequestHandler.builder().setScheduler(scheduler).build();
+            var slow = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new TooManyRequestsException("wait", 2), 5)));
+            var fast = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new ServiceUnavailableException(), 6)));
+            assertEquals(6, fast.get(10, TimeUnit.SECONDS));
+            assertFalse(slow.isDone());
+            assertEquals(5, slow.get(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncRefreshTokenOnUnauthorizedException() throws Exception {
+        AccessTokenRefresher refresher = mock(AccessTokenRefresher.class);
+        var handler = new RequestHandler(refresher);
+        var result = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new UnauthorizedException(), 25))).get(10, TimeUnit.SECONDS);
+        assertEquals(25, result);
+        verify(refresher, times(1)).refreshAccessToken();
+    }
+
+    @Test
+    public void testAsyncFatalRequest() throws Exception {
+        var handler = new RequestHandler(null);
+        var request = forgeAsyncRequest(new GigaSupplier(new NotFoundException()));
+        var future = handler.handleRequestAsync(request);
+        var thrown = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(FatalRequestResponseException.class, thrown.getCause());
+        verify(request, times(1)).execute();
+    }
+
+    @Test
+    public void testAsyncIOExceptionMapsToFatalRequest() throws Exception {
+        var handler = new RequestHandler(null);
+        var future = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new IOException())));
+        var thrown = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(FatalRequestResponseException.class, thrown.getCause());
+    }
+
+    @Test
+    public void testAsyncRateLimiterGatesRequests() throws Exception {
+        var limiter = spy(new RateLimiter());
+        var handler = RequestHandler.builder().setRateLimiter(limiter).build();
+        var result = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(5))).get(10, TimeUnit.SECONDS);
+        assertEquals(5, result);
+        verify(limiter, times(1)).reserve();
+        verify(limiter, times(1)).onSuccess();
+    }
+
+    @Test
+    public void testAsyncRefreshTokenDoesNotBlockScheduler() throws Exception {
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var refreshExecutor = Executors.newSingleThreadExecutor();
+        var refreshing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try {
+            AccessTokenRefresher refresher = () -> {
+                refreshing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            var handler = RequestHandler.builder().setRefresher(refresher).setScheduler(scheduler).setRefreshExecutor(refreshExecutor).build();
+            var refreshed = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new UnauthorizedException(), 5)));
+            assertTrue(refreshing.await(10, TimeUnit.SECONDS));
+            var retried = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new ServiceUnavailableException(), 6)));
+            assertEquals(6, retried.get(10, TimeUnit.SECONDS));
+            assertFalse(refreshed.isDone());
+            release.countDown();
+            assertEquals(5, refreshed.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdownNow();
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncRefreshTokenRejectedByExecutorRunsOnScheduler() throws Exception {
+        AccessTokenRefresher refresher = mock(AccessTokenRefresher.class);
+        Executor rejecting = (runnable) -> {
+            throw new RejectedExecutionException("STUB");
+        };
+        var handler = RequestHandler.builder().setRefresher(refresher).setRefreshExecutor(rejecting).build();
+        var result = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new UnauthorizedException(), 25))).get(10, TimeUnit.SECONDS);
+        assertEquals(25, result);
+        verify(refresher, times(1)).refreshAccessToken();
+    }
+
+    @Test
+    public void testAsyncRefresherRuntimeExceptionCompletesFuture() {
+        AccessTokenRefresher refresher = () -> {
+            throw new IllegalStateException("STUB");
+        };
+        var handler = new RequestHandler(refresher);
+        var future = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(new UnauthorizedException(), 5)));
+        var thrown = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(FatalRequestResponseException.class, thrown.getCause());
+    }
+
+    @Test
+    public void testAsyncListenerRuntimeExceptionCompletesFuture() {
+        var listener = mock(RequestListener.class);
+        doThrow(new IllegalStateException("STUB")).when(listener).onResponse(any(), anyLong(), anyBoolean());
+        var handler = RequestHandler.builder().setListener(listener).build();
+        var future = handler.handleRequestAsync(forgeAsyncRequest(new GigaSupplier(5)));
+        var thrown = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(FatalRequestResponseException.class, thrown.getCause());
+    }
+
+    @Test
+    public void testListenerIsNotified() throws Exception {
+        var listener = mock(RequestListener.class);
+        var handler = RequestHandler.builder().setListener(listener).build();
+        var request = forgeRequest(new GigaSupplier(new ServiceUnavailableException(), 5));
+        assertEquals(5, handler.handleRequest(request));
+        verify(listener, times(1)).onResponse(eq(request.getClass()), anyLong(), eq(false));
+        verify(listener, times(1)).onResponse(eq(request.getClass()), anyLong(), eq(true));
+        verify(listener, times(1)).onFailure(request.getClass(), ERequestOutcome.RETRY_SHORTLY);
+        verify(listener, times(1)).onBackoff(TimeUnit.SECONDS.toNanos(1));
+        verify(listener, never()).onRateLimitWait(anyLong());
+    }
+
+    @Test
+    public void testListenerIsNotifiedOfFatalRequest() throws Exception {
+        var listener = mock(RequestListener.class);
+        var handler = RequestHandler.builder().setRateLimiter(new RateLimiter()).setListener(listener).build();
+        var request = forgeRequest(new NotFoundException());
+        assertThrows(FatalRequestResponseException.class, () -> handler.handleRequest(request));
+        verify(listener, times(1)).onFailure(request.getClass(), ERequestOutcome.FATAL);
+        verify(listener, times(1)).onRateLimitWait(anyLong());
+    }
+
+    @Test
+    public void testAsyncListenerIsNotified() throws Exception {
+        var metrics = new RequestMetrics();
+        var handler = RequestHandler.builder().setListener(metrics).build();
+        var request = forgeAsyncRequest(new GigaSupplier(new UnauthorizedException(), 5));
+        var future = handler.handleRequestAsync(request);
+        assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        var statistics = metrics.getEndpointStatistics().get(request.getClass().getSimpleName());
+        assertEquals(1, statistics.calls());
+        assertEquals(1, statistics.failures());
+        assertEquals(1, statistics.getOutcomeCount(ERequestOutcome.REFRESH_TOKEN));
+    }
+
     private static class UnknownException extends Exception {
 
     }
@@ -147,6 +399,31 @@ public class RequestHandlerTest {
         return request;
     }
 
+    /**
+     * Forge a request for {@link RequestHandler#handleRequestAsync(IRequest)}, which sends it with
+     * {@link IRequest#execute()} on its request executor.
+     */
+    private static IRequest<Object> forgeAsyncRequest(GigaSupplier requestResults) {
+        return forgeAsyncRequest(requestResults, new CountDownLatch(0));
+    }
+
+    /**
+     * @param sent counted down every time the request is sent.
+     */
+    @SuppressWarnings("unchecked")
+    private static IRequest<Object> forgeAsyncRequest(GigaSupplier requestResults, CountDownLatch sent) {
+        var request = mock(IRequest.class);
+        try {
+            when(request.execute()).thenAnswer(invocation -> {
+                sent.countDown();
+                return requestResults.get();
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return request;
+    }
+
     private static class GigaSupplier {
         private final Object[] data;
         private int invocations = 0;
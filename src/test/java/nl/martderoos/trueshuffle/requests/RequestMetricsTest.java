@@ -0,0 +1,72 @@
+package nl.martderoos.trueshuffle.requests;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class RequestMetricsTest {
+    @Test
+    public void testLatencyBuckets() {
+        assertEquals(0, RequestMetrics.latencyBucket(0));
+        assertEquals(0, RequestMetrics.latencyBucket(999));
+        assertEquals(1, RequestMetrics.latencyBucket(TimeUnit.MICROSECONDS.toNanos(1)));
+        assertEquals(2, RequestMetrics.latencyBucket(TimeUnit.MICROSECONDS.toNanos(2)));
+        assertEquals(2, RequestMetrics.latencyBucket(TimeUnit.MICROSECONDS.toNanos(3)));
+        assertEquals(10, RequestMetrics.latencyBucket(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(RequestMetrics.LATENCY_BUCKETS - 1, RequestMetrics.latencyBucket(Long.MAX_VALUE));
+        assertEquals(0, RequestMetrics.latencyBucket(-5));
+    }
+
+    @Test
+    public void testRecordsPerEndpoint() {
+        var metrics = new RequestMetrics();
+        metrics.onResponse(String.class, TimeUnit.MILLISECONDS.toNanos(1), true);
+        metrics.onResponse(String.class, TimeUnit.MILLISECONDS.toNanos(3), false);
+        metrics.onFailure(String.class, ERequestOutcome.SLOW_DOWN);
+        metrics.onResponse(Integer.class, TimeUnit.MILLISECONDS.toNanos(2), true);
+        metrics.onBackoff(5);
+        metrics.onBackoff(10);
+        metrics.onRateLimitWait(7);
+
+        var statistics = metrics.getEndpointStatistics();
+        assertEquals(2, statistics.size());
+
+        var strings = statistics.get("String");
+        assertEquals(2, strings.calls());
+        assertEquals(1, strings.failures());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(4), strings.totalLatencyNanos());
+        assertEquals(1, strings.latencyHistogram()[10]);
+        assertEquals(1, strings.latencyHistogram()[12]);
+        assertEquals(1, strings.getOutcomeCount(ERequestOutcome.SLOW_DOWN));
+        assertEquals(0, strings.getOutcomeCount(ERequestOutcome.FATAL));
+
+        var integers = statistics.get("Integer");
+        assertEquals(1, integers.calls());
+        assertEquals(0, integers.failures());
+
+        assertEquals(15, metrics.getBackoffNanos());
+        assertEquals(7, metrics.getRateLimitWaitNanos());
+    }
+
+    @Test
+    public void testForwardsToListeners() {
+        var metrics = new RequestMetrics();
+        var listener = mock(RequestListener.class);
+        metrics.addListener(listener);
+        metrics.onResponse(String.class, 1, true);
+        metrics.onFailure(String.class, ERequestOutcome.FATAL);
+        metrics.onBackoff(2);
+        metrics.onRateLimitWait(3);
+        verify(listener).onResponse(String.class, 1, true);
+        verify(listener).onFailure(String.class, ERequestOutcome.FATAL);
+        verify(listener).onBackoff(2);
+        verify(listener).onRateLimitWait(3);
+
+        metrics.removeListener(listener);
+        metrics.onBackoff(4);
+        verify(listener, never()).onBackoff(4);
+    }
+}
@@ -0,0 +1,126 @@
+package nl.martderoos.trueshuffle.requests;
+
+import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+    @Test
+    public void testSequentialCallsAreNotCoalesced() throws FatalRequestResponseException {
+        var singleFlight = new SingleFlight<String>();
+        var calls = new AtomicInteger();
+        assertEquals(1, singleFlight.execute("key", calls::incrementAndGet, UnaryOperator.identity()));
+        assertEquals(2, singleFlight.execute("key", calls::incrementAndGet, UnaryOperator.identity()));
+        assertEquals(0, singleFlight.getSavedCalls());
+    }
+
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        var singleFlight = new SingleFlight<String>();
+        var calls = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        SingleFlight.Call<List<Integer>> call = () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return new ArrayList<>(List.of(1, 2, 3));
+        };
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var leader = executor.submit(() -> singleFlight.execute("key", call, ArrayList::new));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            List<Future<List<Integer>>> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(executor.submit(() -> singleFlight.execute("key", call, ArrayList::new)));
+            }
+            while (singleFlight.getSavedCalls() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            var result = leader.get(10, TimeUnit.SECONDS);
+            assertEquals(List.of(1, 2, 3), result);
+            for (var follower : followers) {
+                var copy = follower.get(10, TimeUnit.SECONDS);
+                assertEquals(result, copy);
+                assertNotSame(result, copy);
+            }
+            assertEquals(1, calls.get());
+            assertEquals(3, singleFlight.getSavedCalls());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        var singleFlight = new SingleFlight<String>();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var exception = new FatalRequestResponseException("failed");
+        SingleFlight.Call<Integer> call = () -> {
+            started.countDown();
+            await(release);
+            throw exception;
+        };
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var leader = executor.submit(() -> singleFlight.execute("key", call, UnaryOperator.identity()));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var follower = executor.submit(() -> singleFlight.execute("key", call, UnaryOperator.identity()));
+            while (singleFlight.getSavedCalls() < 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertSame(exception, assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS)).getCause());
+            assertSame(exception, assertThrows(ExecutionException.class, () -> follower.get(10, TimeUnit.SECONDS)).getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testForgottenCallIsPerformedAgain() throws Exception {
+        var singleFlight = new SingleFlight<String>();
+        var calls = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var leader = executor.submit(() -> singleFlight.execute("key", () -> {
+                started.countDown();
+                await(release);
+                return calls.incrementAndGet();
+            }, UnaryOperator.identity()));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            singleFlight.forget((key) -> key.equals("key"));
+            assertEquals(1, singleFlight.execute("key", calls::incrementAndGet, UnaryOperator.identity()));
+            release.countDown();
+            assertEquals(2, leader.get(10, TimeUnit.SECONDS));
+            assertEquals(0, singleFlight.getSavedCalls());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.model_objects.specification.Playlist;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlaylistUtilTest {
+    @Test
+    public void testMetadataOnlyPlaylist() {
+        // the response to a request for only the metadata fields of a playlist
+        var json = """
+                {
+                  "id": "pid",
+                  "name": "playlist-name",
+                  "owner": {"id": "user", "display_name": "display-name"},
+                  "snapshot_id": "snap",
+                  "images": [{"url": "https://i.scdn.co/image/abc", "height": 640, "width": 640}],
+                  "tracks": {"total": 42}
+                }""";
+
+        var simplified = PlaylistUtil.toSimplifiedPlaylist(new Playlist.JsonUtil().createModelObject(json));
+
+        assertEquals("pid", simplified.getId());
+        assertEquals("playlist-name", simplified.getName());
+        assertEquals("user", simplified.getOwner().getId());
+        assertEquals("snap", simplified.getSnapshotId());
+        assertEquals(1, simplified.getImages().length);
+        assertEquals(42, simplified.getTracks().getTotal());
+        assertNull(simplified.getUri());
+    }
+
+    @Test
+    public void testNormalizeName() {
+        // the decomposed and composed forms of é look identical
+        assertEquals(PlaylistUtil.normalizeName("Caf\u00e9"), PlaylistUtil.normalizeName(" Cafe\u0301\t"));
+        assertEquals("Caf\u00e9", PlaylistUtil.normalizeName(" Cafe\u0301\t"));
+        assertNotEquals(PlaylistUtil.normalizeName("cafe"), PlaylistUtil.normalizeName("Cafe"));
+    }
+}
@@ -0,0 +1,120 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReorderPlannerTest {
+    @Test
+    public void testIdentityRequiresNoMoves() {
+        var tracks = List.of("t1", "t2", "t3", "t4");
+        var plan = ReorderPlanner.plan(tracks, tracks, true);
+        assertFalse(plan.isReplace());
+        assertEquals(0, plan.getRequestCount());
+        assertEquals(List.of(), plan.getMoves());
+    }
+
+    @Test
+    public void testEmptyPlaylist() {
+        var plan = ReorderPlanner.plan(List.of(), List.of(), true);
+        assertFalse(plan.isReplace());
+        assertEquals(0, plan.getRequestCount());
+    }
+
+    @Test
+    public void testConsecutiveTracksAreMergedIntoSingleMove() {
+        var current = List.of("a", "b", "c", "d", "e");
+        var target = List.of("c", "d", "a", "b", "e");
+        var plan = ReorderPlanner.plan(current, target, false);
+        assertEquals(1, plan.getRequestCount());
+        assertEquals(2, plan.getMoves().get(0).rangeLength());
+        assertEquals(target, apply(current, plan));
+    }
+
+    @Test
+    public void testMoveToEnd() {
+        var current = List.of("a", "b", "c", "d");
+        var target = List.of("b", "c", "d", "a");
+        var plan = ReorderPlanner.plan(current, target, false);
+        assertEquals(List.of(new ReorderPlan.Move(0, 1, 4)), plan.getMoves());
+        assertEquals(target, apply(current, plan));
+    }
+
+    @Test
+    public void testDuplicateTracks() {
+        var current = List.of("a", "b", "a", "c", "b", "a");
+        var target = List.of("b", "a", "a", "c", "a", "b");
+        var plan = ReorderPlanner.plan(current, target, false);
+        assertEquals(target, apply(current, plan));
+    }
+
+    @Test
+    public void testRandomPermutations() {
+        var random = new Random(42);
+        for (int size = 1; size < 200; size += 7) {
+            List<String> current = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                current.add("t" + random.nextInt(size)); // may contain duplicates
+            }
+            var target = new ArrayList<>(current);
+            Collections.shuffle(target, random);
+
+            var plan = ReorderPlanner.plan(current, target, false);
+            assertFalse(plan.isReplace());
+            assertTrue(plan.getRequestCount() < size);
+            assertEquals(target, apply(current, plan));
+        }
+    }
+
+    @Test
+    public void testReplaceWhenCheaper() {
+        var random = new Random(7);
+        List<String> current = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            current.add("t" + i);
+        }
+        var target = new ArrayList<>(current);
+        Collections.shuffle(target, random);
+
+        var plan = ReorderPlanner.plan(current, target, true);
+        assertTrue(plan.isReplace());
+        assertEquals(3, plan.getRequestCount());
+        assertEquals(target, plan.getTargetOrder());
+        assertEquals(List.of(), plan.getMoves());
+    }
+
+    @Test
+    public void testPreferMovesOverReplaceOnTie() {
+        var plan = ReorderPlanner.plan(List.of("a", "b"), List.of("b", "a"), true);
+        assertFalse(plan.isReplace());
+        assertEquals(1, plan.getRequestCount());
+    }
+
+    @Test
+    public void testThrowsOnNonPermutation() {
+        assertThrows(IllegalArgumentException.class, () -> ReorderPlanner.plan(List.of("a", "b"), List.of("a"), true));
+        assertThrows(IllegalArgumentException.class, () -> ReorderPlanner.plan(List.of("a", "b"), List.of("a", "c"), true));
+        assertThrows(IllegalArgumentException.class, () -> ReorderPlanner.plan(List.of("a", "a"), List.of("a", "b"), true));
+    }
+
+    /**
+     * Applies the moves of a plan the same way Spotify would.
+     */
+    private static List<String> apply(List<String> tracks, ReorderPlan plan) {
+        var result = new ArrayList<>(tracks);
+        for (var move : plan.getMoves()) {
+            var range = new ArrayList<>(result.subList(move.rangeStart(), move.rangeStart() + move.rangeLength()));
+            var insertBefore = move.insertBefore();
+            if (insertBefore > move.rangeStart())
+                insertBefore -= move.rangeLength();
+            result.subList(move.rangeStart(), move.rangeStart() + move.rangeLength()).clear();
+            result.addAll(insertBefore, range);
+        }
+        return result;
+    }
+}
@@ -1,12 +1,17 @@
 package nl.martderoos.trueshuffle.utility;
 
+import nl.martderoos.trueshuffle.model.EShuffleMode;
 import nl.martderoos.trueshuffle.model.ShuffleApi;
 import nl.martderoos.trueshuffle.model.ShufflePlaylist;
 import nl.martderoos.trueshuffle.requests.exceptions.FatalRequestResponseException;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
 
 public class ShuffleUtilTest {
@@ -18,7 +23,7 @@ public class ShuffleUtilTest {
         ShuffleUtil.shuffleInto(mock(ShuffleApi.class), playlistMock, List.of("t2", "t3", "t6"));
 
         verify(playlistMock).addAndRemoveTracks(eq(List.of("t6")), eq(List.of("t1", "t4", "t5")));
-        verify(playlistMock).shuffleInPlace();
+        verify(playlistMock).shuffleInPlace(EShuffleMode.REORDER);
     }
 
     @Test
@@ -32,6 +37,55 @@ public class ShuffleUtilTest {
 
         // note that the order is a bit funny but this is just how the algorithm works
         verify(playlistMock).addAndRemoveTracks(eq(List.of("t6","t1")), eq(List.of("t2", "t4", "t5", "t2", "t3", "t2")));
-        verify(playlistMock).shuffleInPlace();
+        verify(playlistMock).shuffleInPlace(EShuffleMode.REORDER);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testShuffleDiffSortMerge() throws FatalRequestResponseException {
+        var tracks = List.of("t5", "t2", "t3", "t1", "t2");
+        var playlistMock = mock(ShufflePlaylist.class);
+        when(playlistMock.getPlaylistTracksUris()).thenReturn(tracks);
+        ShuffleUtil.shuffleInto(mock(ShuffleApi.class), playlistMock, List.of("t6", "t3", "t2", "t0"), EShuffleMode.REORDER, ETrackDiffStrategy.SORT_MERGE);
+
+        // the sort-merge diff does not keep the order of the tracks, so only compare which tracks are added and removed
+        ArgumentCaptor<List<String>> added = ArgumentCaptor.forClass((Class) List.class);
+        ArgumentCaptor<List<String>> removed = ArgumentCaptor.forClass((Class) List.class);
+        verify(playlistMock).addAndRemoveTracks(added.capture(), removed.capture());
+        verify(playlistMock).shuffleInPlace(EShuffleMode.REORDER);
+        assertEquals(List.of("t0", "t6"), added.getValue().stream().sorted().toList());
+        assertEquals(List.of("t1", "t2", "t5"), removed.getValue().stream().sorted().toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testShuffleReplace() throws FatalRequestResponseException {
+        var tracks = List.of("t1", "t2", "t3", "t4", "t5");
+        var playlistMock = mock(ShufflePlaylist.class);
+        when(playlistMock.getPlaylistTracksUris()).thenReturn(tracks);
+        ShuffleUtil.shuffleInto(mock(ShuffleApi.class), playlistMock, List.of("t2", "t3", "t6", "t2"), EShuffleMode.REPLACE);
+
+        var captor = ArgumentCaptor.forClass(List.class);
+        verify(playlistMock).replaceTracks(captor.capture());
+        List<String> replaced = new ArrayList<>(captor.getValue());
+        Collections.sort(replaced);
+        assertEquals(List.of("t2", "t2", "t3", "t6"), replaced);
+
+        // no diff is necessary when replacing
+        verify(playlistMock, never()).addAndRemoveTracks(any(), any());
+        verify(playlistMock, never()).shuffleInPlace(any());
+    }
+
+    @Test
+    public void testShuffleReplaceWithLocalFilesReorders() throws FatalRequestResponseException {
+        var tracks = List.of("t1", "t2");
+        var playlistMock = mock(ShufflePlaylist.class);
+        when(playlistMock.getPlaylistTracksUris()).thenReturn(tracks);
+        ShuffleUtil.shuffleInto(mock(ShuffleApi.class), playlistMock, List.of("t2", "spotify:local:a:b:c:1"), EShuffleMode.REPLACE);
+
+        // local files cannot be written back through the api, so the tracks are diffed instead of replaced
+        verify(playlistMock, never()).replaceTracks(any());
+        verify(playlistMock).addAndRemoveTracks(eq(List.of("spotify:local:a:b:c:1")), eq(List.of("t1")));
+        verify(playlistMock).shuffleInPlace(EShuffleMode.REORDER);
     }
 }
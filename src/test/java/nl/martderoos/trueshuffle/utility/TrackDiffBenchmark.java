@@ -0,0 +1,66 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the strategies of {@link TrackDiff}, on which {@link ETrackDiffStrategy#AUTO} is based. Each side
+ * has the provided number of tracks, so the total is twice the size. The current tracks are a shuffled copy of the
+ * target tracks of which 5% were replaced. Not run by the tests, run {@link #main(String[])} from the test classpath
+ * instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackDiffBenchmark {
+    @Param({"2000", "10000", "50000", "100000", "250000", "500000"})
+    private int size;
+
+    @Param({"HASH", "SORT_MERGE"})
+    private ETrackDiffStrategy strategy;
+
+    private TrackIdList currentTracks;
+    private TrackIdList targetTracks;
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        var target = TrackIdCounterBenchmark.randomTracks(random, size);
+        var current = new ArrayList<>(target);
+        Collections.shuffle(current, random);
+        for (int i = 0; i < size / 20; i++) {
+            current.set(random.nextInt(size), TrackId.decode(random.nextLong(), random.nextLong()));
+        }
+        currentTracks = TrackIdList.copyOf(current);
+        targetTracks = TrackIdList.copyOf(target);
+    }
+
+    @Benchmark
+    public TrackDiff compute() {
+        return TrackDiff.compute(currentTracks, targetTracks, strategy);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TrackDiffBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackDiffTest {
+    private static final String T1 = "spotify:track:6rqhFgbbKwnb9MLmUQDhG6";
+    private static final String T2 = "spotify:track:0000000000000000000000";
+    private static final String T3 = "spotify:track:1111111111111111111111";
+    private static final String LOCAL = "spotify:local:artist:album:title:180";
+
+    @Test
+    public void testHashKeepsOrder() {
+        var current = TrackIdList.copyOf(List.of(T1, T2, LOCAL, T2));
+        var target = TrackIdList.copyOf(List.of(T3, T1, T3));
+
+        var diff = TrackDiff.compute(current, target, ETrackDiffStrategy.HASH);
+        assertEquals(List.of(T3, T3), diff.tracksToAdd());
+        assertEquals(List.of(T2, LOCAL, T2), diff.tracksToRemove());
+    }
+
+    @Test
+    public void testSortMerge() {
+        var current = TrackIdList.copyOf(List.of(T1, T2, LOCAL, T2));
+        var target = TrackIdList.copyOf(List.of(T3, T1, T3, LOCAL, LOCAL));
+
+        var diff = TrackDiff.compute(current, target, ETrackDiffStrategy.SORT_MERGE);
+        assertEquals(List.of(T3, T3, LOCAL), diff.tracksToAdd());
+        assertEquals(List.of(T2, T2), diff.tracksToRemove());
+    }
+
+    @Test
+    public void testEmpty() {
+        var empty = TrackIdList.copyOf(List.of());
+        var tracks = TrackIdList.copyOf(List.of(T1, LOCAL));
+        for (var strategy : ETrackDiffStrategy.values()) {
+            assertEquals(new TrackDiff(List.of(LOCAL, T1), List.of()), sorted(TrackDiff.compute(empty, tracks, strategy)));
+            assertEquals(new TrackDiff(List.of(), List.of(LOCAL, T1)), sorted(TrackDiff.compute(tracks, empty, strategy)));
+        }
+    }
+
+    @Test
+    public void testStrategiesAgree() {
+        // large enough to sort in parallel
+        var random = new Random(3);
+        var current = randomTracks(random, TrackDiff.PARALLEL_SORT_THRESHOLD + 1_000);
+        var target = randomTracks(random, TrackDiff.PARALLEL_SORT_THRESHOLD / 2);
+
+        var hash = sorted(TrackDiff.compute(current, target, ETrackDiffStrategy.HASH));
+        var sortMerge = sorted(TrackDiff.compute(current, target, ETrackDiffStrategy.SORT_MERGE));
+        var auto = sorted(TrackDiff.compute(current, target));
+        assertFalse(hash.tracksToAdd().isEmpty());
+        assertFalse(hash.tracksToRemove().isEmpty());
+        assertEquals(hash, sortMerge);
+        assertEquals(hash, auto);
+    }
+
+    private static TrackIdList randomTracks(Random random, int count) {
+        var tracks = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(100) == 0) {
+                tracks.add("spotify:local:title:" + random.nextInt(100));
+            } else {
+                // plenty of duplicates and shared tracks
+                tracks.add(TrackId.decode(random.nextInt(50_000) - 25_000, random.nextInt(2)));
+            }
+        }
+        return TrackIdList.copyOf(tracks);
+    }
+
+    private static TrackDiff sorted(TrackDiff diff) {
+        var tracksToAdd = new ArrayList<>(diff.tracksToAdd());
+        var tracksToRemove = new ArrayList<>(diff.tracksToRemove());
+        Collections.sort(tracksToAdd);
+        Collections.sort(tracksToRemove);
+        return new TrackDiff(tracksToAdd, tracksToRemove);
+    }
+}
@@ -0,0 +1,91 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the diff of {@link ShuffleUtil#shuffleInto} with {@link TrackIdCounter} to the diff it replaced, which
+ * counted the track URIs with {@link ItemCounter}s. The current tracks are a shuffled copy of the target tracks of which
+ * 5% were replaced. Like in production, the current tracks are a {@link TrackIdList}, as stored by the
+ * {@link nl.martderoos.trueshuffle.model.PlaylistTrackCache PlaylistTrackCache}, and the target tracks are strings, as
+ * retrieved from Spotify. Not run by the tests, run {@link #main(String[])} from the test classpath instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackIdCounterBenchmark {
+    @Param({"2000", "10000", "100000"})
+    private int size;
+
+    private TrackIdList currentTracks;
+    private List<String> targetTracks;
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        targetTracks = randomTracks(random, size);
+        var current = new ArrayList<>(targetTracks);
+        Collections.shuffle(current, random);
+        for (int i = 0; i < size / 20; i++) {
+            current.set(random.nextInt(size), TrackId.decode(random.nextLong(), random.nextLong()));
+        }
+        currentTracks = TrackIdList.copyOf(current);
+    }
+
+    @Benchmark
+    public TrackDiff itemCounter() {
+        var currentTracksCounter = new ItemCounter<>(currentTracks);
+        List<String> tracksToAdd = new ArrayList<>();
+        for (var track : targetTracks) {
+            if (!currentTracksCounter.remove(track))
+                tracksToAdd.add(track);
+        }
+
+        var targetTracksCounter = new ItemCounter<>(targetTracks);
+        List<String> tracksToRemove = new ArrayList<>();
+        for (var track : currentTracks) {
+            if (!targetTracksCounter.remove(track))
+                tracksToRemove.add(track);
+        }
+        return new TrackDiff(tracksToAdd, tracksToRemove);
+    }
+
+    @Benchmark
+    public TrackDiff trackIdCounter() {
+        // includes encoding the target URIs, as shuffleInto does
+        return TrackDiff.compute(currentTracks, TrackIdList.copyOf(targetTracks), ETrackDiffStrategy.HASH);
+    }
+
+    static List<String> randomTracks(Random random, int size) {
+        var tracks = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            tracks.add(TrackId.decode(random.nextLong(), random.nextLong()));
+        }
+        return tracks;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TrackIdCounterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
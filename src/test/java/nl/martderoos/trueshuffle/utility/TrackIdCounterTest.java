@@ -0,0 +1,80 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackIdCounterTest {
+    private static final String T1 = "spotify:track:6rqhFgbbKwnb9MLmUQDhG6";
+    private static final String T2 = "spotify:track:0000000000000000000000";
+    private static final String LOCAL = "spotify:local:artist:album:title:180";
+
+    @Test
+    public void testGetCount() {
+        var counter = new TrackIdCounter(TrackIdList.copyOf(List.of(T1, T2, T2, LOCAL, T2, LOCAL)));
+
+        assertEquals(1, counter.getCount(T1));
+        assertEquals(3, counter.getCount(T2));
+        assertEquals(2, counter.getCount(LOCAL));
+        assertEquals(0, counter.getCount("spotify:track:1111111111111111111111"));
+        assertEquals(0, counter.getCount("spotify:episode:1111111111111111111111"));
+        assertTrue(counter.contains(T1));
+        assertFalse(counter.contains("spotify:track:1111111111111111111111"));
+    }
+
+    @Test
+    public void testRemove() {
+        var counter = new TrackIdCounter();
+        counter.addAll(List.of(T1, T2, T2, LOCAL));
+        assertFalse(counter.remove("spotify:track:1111111111111111111111"));
+        assertFalse(counter.remove("spotify:local:other"));
+
+        assertTrue(counter.remove(T1));
+        assertFalse(counter.remove(T1));
+        assertFalse(counter.contains(T1));
+
+        assertTrue(counter.remove(T2));
+        assertTrue(counter.remove(T2));
+        assertFalse(counter.remove(T2));
+
+        assertTrue(counter.remove(LOCAL));
+        assertFalse(counter.remove(LOCAL));
+
+        counter.add(T1);
+        assertEquals(1, counter.getCount(T1));
+    }
+
+    @Test
+    public void testRemoveByIndex() {
+        var list = TrackIdList.copyOf(List.of(T1, LOCAL, T1));
+        var counter = new TrackIdCounter(list);
+        assertTrue(counter.remove(list, 0));
+        assertTrue(counter.remove(list, 1));
+        assertTrue(counter.remove(list, 2));
+        assertFalse(counter.remove(list, 0));
+        assertFalse(counter.remove(list, 1));
+    }
+
+    @Test
+    public void testMatchesItemCounter() {
+        var random = new Random(7);
+        var uris = new ArrayList<String>();
+        for (int i = 0; i < 20_000; i++) {
+            // plenty of duplicates
+            uris.add(TrackId.decode(random.nextInt(5_000), random.nextLong() & 3));
+        }
+        var counter = new TrackIdCounter();
+        counter.addAll(uris);
+        var expected = new ItemCounter<>(uris);
+
+        for (int i = 0; i < 10_000; i++) {
+            var uri = TrackId.decode(random.nextInt(6_000), random.nextLong() & 3);
+            assertEquals(expected.getCount(uri), counter.getCount(uri));
+            assertEquals(expected.remove(uri), counter.remove(uri));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackIdListTest {
+    @Test
+    public void testCopyOf() {
+        var uris = List.of(
+                "spotify:track:6rqhFgbbKwnb9MLmUQDhG6",
+                "spotify:local:artist:album:title:180",
+                "spotify:track:0000000000000000000000",
+                "spotify:episode:6rqhFgbbKwnb9MLmUQDhG6",
+                "spotify:track:6rqhFgbbKwnb9MLmUQDhG6");
+        var list = TrackIdList.copyOf(uris);
+
+        assertEquals(uris, list);
+        assertEquals(uris.hashCode(), list.hashCode());
+        assertTrue(list.isEncoded(0));
+        assertFalse(list.isEncoded(1));
+        assertTrue(list.isEncoded(2));
+        assertFalse(list.isEncoded(3));
+        assertEquals(TrackId.high(uris.get(4)), list.getHigh(4));
+        assertEquals(TrackId.low(uris.get(4)), list.getLow(4));
+        assertSame(list, TrackIdList.copyOf(list));
+    }
+
+    @Test
+    public void testManyUnencodableUris() {
+        var uris = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            uris.add("spotify:local:title:" + i);
+            uris.add(TrackId.decode(i, -i));
+        }
+        assertEquals(uris, TrackIdList.copyOf(uris));
+    }
+
+    @Test
+    public void testBuilder() {
+        var uri = "spotify:track:6rqhFgbbKwnb9MLmUQDhG6";
+        // grows beyond the expected size
+        var list = new TrackIdList.Builder(1)
+                .addEncoded(TrackId.high(uri), TrackId.low(uri))
+                .add("spotify:local:title")
+                .add(uri)
+                .build();
+
+        assertEquals(List.of(uri, "spotify:local:title", uri), list);
+        assertTrue(list.isEncoded(0));
+        assertFalse(list.isEncoded(1));
+        assertTrue(list.isEncoded(2));
+        assertTrue(new TrackIdList.Builder(10).build().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new TrackIdList.Builder(-1));
+    }
+
+    @Test
+    public void testImmutable() {
+        var list = TrackIdList.copyOf(List.of("spotify:track:6rqhFgbbKwnb9MLmUQDhG6"));
+        assertThrows(UnsupportedOperationException.class, () -> list.add("spotify:track:0000000000000000000000"));
+        assertThrows(UnsupportedOperationException.class, () -> list.remove(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(1));
+    }
+
+    @Test
+    public void testEmptyAndNull() {
+        assertTrue(TrackIdList.copyOf(List.of()).isEmpty());
+        var withNull = new ArrayList<String>();
+        withNull.add(null);
+        assertThrows(NullPointerException.class, () -> TrackIdList.copyOf(withNull));
+    }
+}
@@ -0,0 +1,68 @@
+package nl.martderoos.trueshuffle.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackIdTest {
+    @Test
+    public void testRoundTrip() {
+        var uri = "spotify:track:6rqhFgbbKwnb9MLmUQDhG6";
+        assertTrue(TrackId.isEncodable(uri));
+        assertEquals(uri, TrackId.decode(TrackId.high(uri), TrackId.low(uri)));
+    }
+
+    @Test
+    public void testBounds() {
+        var zero = "spotify:track:0000000000000000000000";
+        assertEquals(0, TrackId.high(zero));
+        assertEquals(0, TrackId.low(zero));
+        assertEquals(zero, TrackId.decode(0, 0));
+
+        // the largest 128-bit number
+        var max = TrackId.decode(-1, -1);
+        assertTrue(TrackId.isEncodable(max));
+        assertEquals(-1, TrackId.high(max));
+        assertEquals(-1, TrackId.low(max));
+        assertEquals("spotify:track:7N42dgm5tFLK9N8MT7fHC7", max);
+        // one more does not fit in 128 bits
+        assertFalse(TrackId.isEncodable("spotify:track:7N42dgm5tFLK9N8MT7fHC8"));
+    }
+
+    @Test
+    public void testRandomRoundTrips() {
+        var random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            var high = random.nextLong();
+            var low = random.nextLong();
+            var uri = TrackId.decode(high, low);
+            assertEquals(high, TrackId.high(uri));
+            assertEquals(low, TrackId.low(uri));
+        }
+    }
+
+    @Test
+    public void testEncodeInPlace() {
+        var uri = "spotify:track:6rqhFgbbKwnb9MLmUQDhG6";
+        var target = new long[]{7, 7, 7, 7};
+        assertTrue(TrackId.encode(uri, target, 1));
+        assertArrayEquals(new long[]{7, TrackId.high(uri), TrackId.low(uri), 7}, target);
+
+        // a uri that is not encodable leaves the target untouched
+        assertFalse(TrackId.encode("spotify:track:7N42dgm5tFLK9N8MT7fHC8", target, 0));
+        assertFalse(TrackId.encode("spotify:local:artist:album:title:180", target, 0));
+        assertArrayEquals(new long[]{7, TrackId.high(uri), TrackId.low(uri), 7}, target);
+    }
+
+    @Test
+    public void testNotEncodable() {
+        assertFalse(TrackId.isEncodable(null));
+        assertFalse(TrackId.isEncodable("spotify:episode:6rqhFgbbKwnb9MLmUQDhG6"));
+        assertFalse(TrackId.isEncodable("spotify:track:6rqhFgbbKwnb9MLmUQDhG"));
+        assertFalse(TrackId.isEncodable("spotify:track:6rqhFgbbKwnb9MLmUQDhG-"));
+        assertFalse(TrackId.isEncodable("spotify:local:artist:album:title:180"));
+        assertThrows(IllegalArgumentException.class, () -> TrackId.high("spotify:local:artist:album:title:180"));
+    }
+}